@@ -0,0 +1,129 @@
+package com.kiblerdude.awsome.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * Realistic documents and messages for the benchmarks, generated from a fixed
+ * seed so that runs are repeatable.
+ *
+ * @author kiblerj
+ *
+ */
+public final class Fixtures {
+
+	private static final String[] WORDS = { "star", "wars", "empire", "strikes", "back", "return", "jedi",
+			"phantom", "menace", "attack", "clones", "revenge", "sith", "force", "awakens", "last", "rise",
+			"skywalker", "rogue", "solo", "story", "new", "hope", "galaxy", "far", "away" };
+	private static final String[] GENRES = { "Action", "Adventure", "Drama", "Fantasy", "Sci-Fi" };
+
+	private Fixtures() {
+	}
+
+	/**
+	 * Generates movie documents.
+	 */
+	public static List<Movie> movies(int count) {
+		Random random = new Random(42);
+		List<Movie> movies = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			movies.add(new Movie(words(random, 2 + random.nextInt(4)), words(random, 40 + random.nextInt(80)),
+					1950 + random.nextInt(70), random.nextDouble() * 10, new Date(random.nextInt() * 1000L),
+					genres(random)));
+		}
+		return movies;
+	}
+
+	/**
+	 * Generates queue messages.
+	 */
+	public static List<Event> events(int count) {
+		Random random = new Random(42);
+		List<Event> events = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			events.add(new Event("event-" + i, "tenant-" + random.nextInt(100), words(random, 3),
+					System.currentTimeMillis(), words(random, 20 + random.nextInt(40))));
+		}
+		return events;
+	}
+
+	private static String words(Random random, int count) {
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < count; i++) {
+			if (i > 0) {
+				builder.append(' ');
+			}
+			builder.append(WORDS[random.nextInt(WORDS.length)]);
+		}
+		return builder.toString();
+	}
+
+	private static List<String> genres(Random random) {
+		List<String> genres = new ArrayList<>();
+		for (String genre : GENRES) {
+			if (random.nextInt(3) == 0) {
+				genres.add(genre);
+			}
+		}
+		return genres;
+	}
+
+	/**
+	 * A Cloudsearch document.
+	 */
+	public static final class Movie {
+		@JsonProperty("title")
+		public final String title;
+		@JsonProperty("plot")
+		public final String plot;
+		@JsonProperty("year")
+		public final int year;
+		@JsonProperty("rating")
+		public final double rating;
+		@JsonProperty("release_date")
+		public final Date releaseDate;
+		@JsonProperty("genres")
+		public final List<String> genres;
+
+		public Movie(String title, String plot, int year, double rating, Date releaseDate, List<String> genres) {
+			this.title = title;
+			this.plot = plot;
+			this.year = year;
+			this.rating = rating;
+			this.releaseDate = releaseDate;
+			this.genres = genres;
+		}
+	}
+
+	/**
+	 * A queue message.
+	 */
+	public static final class Event {
+		@JsonProperty("id")
+		public final String id;
+		@JsonProperty("tenant")
+		public final String tenant;
+		@JsonProperty("type")
+		public final String type;
+		@JsonProperty("timestamp")
+		public final long timestamp;
+		@JsonProperty("payload")
+		public final String payload;
+
+		@JsonCreator
+		public Event(@JsonProperty("id") String id, @JsonProperty("tenant") String tenant,
+				@JsonProperty("type") String type, @JsonProperty("timestamp") long timestamp,
+				@JsonProperty("payload") String payload) {
+			this.id = id;
+			this.tenant = tenant;
+			this.type = type;
+			this.timestamp = timestamp;
+			this.payload = payload;
+		}
+	}
+}
@@ -0,0 +1,69 @@
+package com.kiblerdude.awsome.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+
+/**
+ * A local SQS client for the benchmarks, so that they measure the library and
+ * not the network.
+ * <p>
+ * Sends are counted and discarded. Every receive returns the same messages,
+ * so the queue never runs dry.
+ *
+ * @author kiblerj
+ *
+ */
+public final class LocalSQSClient extends AmazonSQSClient {
+
+	private final AtomicLong sent = new AtomicLong();
+	private final List<Message> messages;
+
+	/**
+	 * Constructor
+	 *
+	 * @param bodies
+	 *            The bodies of the messages returned by every receive.
+	 */
+	public LocalSQSClient(List<String> bodies) {
+		this.messages = new ArrayList<>(bodies.size());
+		for (int i = 0; i < bodies.size(); i++) {
+			messages.add(new Message().withMessageId("message-" + i).withReceiptHandle("receipt-" + i)
+					.withBody(bodies.get(i)));
+		}
+	}
+
+	public long getSent() {
+		return sent.get();
+	}
+
+	@Override
+	public GetQueueUrlResult getQueueUrl(GetQueueUrlRequest request) {
+		return new GetQueueUrlResult().withQueueUrl("local://" + request.getQueueName());
+	}
+
+	@Override
+	public SendMessageResult sendMessage(SendMessageRequest request) {
+		return new SendMessageResult().withMessageId(Long.toString(sent.incrementAndGet()));
+	}
+
+	@Override
+	public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+		int max = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+		return new ReceiveMessageResult().withMessages(messages.subList(0, Math.min(max, messages.size())));
+	}
+
+	@Override
+	public void deleteMessage(DeleteMessageRequest request) {
+	}
+}
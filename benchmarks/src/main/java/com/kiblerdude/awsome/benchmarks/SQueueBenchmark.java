@@ -0,0 +1,63 @@
+package com.kiblerdude.awsome.benchmarks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.kiblerdude.awsome.benchmarks.Fixtures.Event;
+import com.kiblerdude.awsome.sqs.SQueue;
+
+/**
+ * Measures the serialization and buffering cost of {@link SQueue#push} and
+ * {@link SQueue#pop} against a local client.
+ *
+ * @author kiblerj
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SQueueBenchmark {
+
+	private List<Event> events;
+	private SQueue<Event> queue;
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		events = Fixtures.events(1000);
+		ObjectMapper mapper = new ObjectMapper();
+		List<String> bodies = new ArrayList<>();
+		for (Event event : events.subList(0, 10)) {
+			bodies.add(mapper.writeValueAsString(event));
+		}
+		queue = new SQueue<>("benchmark", new LocalSQSClient(bodies), Event.class);
+	}
+
+	@Benchmark
+	public Optional<String> push() {
+		return queue.push(events.get(next++ % events.size()));
+	}
+
+	@Benchmark
+	public Optional<Event> pop() throws IOException {
+		return queue.pop();
+	}
+}
@@ -0,0 +1,80 @@
+package com.kiblerdude.awsome.benchmarks;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.not;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.or;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder;
+
+/**
+ * Measures building and rendering deep {@link StructuredQueryBuilder} trees,
+ * and rendering a tree whose query is already cached.
+ *
+ * @author kiblerj
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructuredQueryBuilderBenchmark {
+
+	@Param({ "2", "6", "10" })
+	public int depth;
+
+	private StructuredQueryBuilder rendered;
+
+	@Setup
+	public void setUp() {
+		rendered = tree(depth);
+		rendered.toString();
+	}
+
+	@Benchmark
+	public String buildAndRender() {
+		return tree(depth).toString();
+	}
+
+	@Benchmark
+	public String renderCached() {
+		return rendered.toString();
+	}
+
+	/**
+	 * Builds a tree of alternating and/or expressions over terms, phrases,
+	 * ranges and dates.
+	 */
+	private static StructuredQueryBuilder tree(int depth) {
+		if (depth == 0) {
+			return and(eq("tenant", "tenant-42"), phrase("title", "star wars"), range("year", 1977L, 1983L),
+					not(eq("release_date", new Date(233366400000L))));
+		}
+		StructuredQueryBuilder child = tree(depth - 1);
+		return depth % 2 == 0 ? and(child, eq("rating", 7.5), eq("genre", "Sci-Fi" + depth))
+				: or(child, eq("visible", 1L), prefix(depth));
+	}
+
+	private static StructuredQueryBuilder prefix(int depth) {
+		return StructuredQueryBuilder.prefix("plot", "emp" + depth);
+	}
+}
@@ -0,0 +1,55 @@
+package com.kiblerdude.awsome.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+import com.kiblerdude.awsome.benchmarks.Fixtures.Movie;
+import com.kiblerdude.awsome.cloudsearch.UploadDocumentsBuilder;
+
+/**
+ * Measures adding documents to an {@link UploadDocumentsBuilder} and building
+ * the upload request, for batches of 1k to 100k documents.
+ *
+ * @author kiblerj
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UploadDocumentsBuilderBenchmark {
+
+	@Param({ "1000", "10000", "100000" })
+	public int documents;
+
+	private List<Movie> movies;
+
+	@Setup
+	public void setUp() {
+		movies = Fixtures.movies(documents);
+	}
+
+	@Benchmark
+	public UploadDocumentsRequest addAndBuild() {
+		UploadDocumentsBuilder<Movie> builder = new UploadDocumentsBuilder<>(Movie.class);
+		for (int i = 0; i < movies.size(); i++) {
+			builder.add("movie." + i, movies.get(i));
+		}
+		return builder.build();
+	}
+}
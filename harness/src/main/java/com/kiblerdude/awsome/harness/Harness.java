@@ -0,0 +1,314 @@
+package com.kiblerdude.awsome.harness;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kiblerdude.awsome.cloudsearch.InMemoryCloudSearchDomainClient;
+import com.kiblerdude.awsome.cloudsearch.IndexAction;
+import com.kiblerdude.awsome.cloudsearch.SQueueIndexer;
+import com.kiblerdude.awsome.metrics.Histogram;
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.sqs.InMemorySQSClient;
+import com.kiblerdude.awsome.sqs.SQueue;
+
+/**
+ * Drives producers pushing messages through a {@link SQueue} and
+ * {@link SQueueIndexer} consumers uploading them as documents, against the
+ * in-memory SQS and Cloudsearch clients with injected latency.
+ * <p>
+ * Progress is reported every interval, and after the run the throughput,
+ * push to receive latency, allocation rate and buffer depths are summarized
+ * and optionally saved as, or compared with, a baseline. The exit status is 1
+ * if a value regressed from the baseline by more than the tolerance.
+ * <p>
+ * Document ids cycle through a fixed number of documents. The in-memory
+ * index rebuilds itself once most of its entries are replaced documents, so
+ * its memory and search cost stay bounded during long soak runs.
+ *
+ * @author kiblerj
+ *
+ */
+public final class Harness {
+
+	private static final String QUEUE = "harness";
+	private static final String LATENCY = "harness.latency";
+	private static final String BACKLOG = "harness.backlog";
+	private static final String QUEUE_ATTR_LENGTH = "ApproximateNumberOfMessages";
+	private static final long SHUTDOWN_SECONDS = 30;
+
+	private final HarnessConfig config;
+	private final IntervalMetrics metrics;
+	private final AtomicLong sequence;
+	private volatile boolean producing = true;
+
+	Harness(HarnessConfig config) {
+		this.config = config;
+		this.metrics = new IntervalMetrics();
+		this.sequence = new AtomicLong();
+	}
+
+	public static void main(String[] args) throws Exception {
+		HarnessConfig config;
+		try {
+			config = HarnessConfig.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			HarnessConfig.usage(System.err);
+			System.exit(2);
+			return;
+		}
+
+		Result result = new Harness(config).run(System.out);
+		System.out.println("Results:");
+		result.print(System.out);
+		if (config.saveBaseline.isPresent()) {
+			result.save(config.saveBaseline.get());
+			System.out.println("Saved baseline to " + config.saveBaseline.get());
+		}
+		if (config.baseline.isPresent()) {
+			File baseline = config.baseline.get();
+			System.out.println("Compared with " + baseline + ":");
+			List<String> regressions = result.compare(Result.load(baseline), config.tolerance, System.out);
+			if (!regressions.isEmpty()) {
+				System.out.println("Regressed: " + regressions);
+				System.exit(1);
+			}
+		}
+	}
+
+	/**
+	 * Runs the warmup and the measured duration, printing a line per interval.
+	 */
+	Result run(PrintStream out) throws InterruptedException {
+		InMemorySQSClient sqs = InMemorySQSClient.builder().latency(config.sqsLatencyMillis, TimeUnit.MILLISECONDS)
+				.build();
+		String url = sqs.createQueue(QUEUE).getQueueUrl();
+		InMemoryCloudSearchDomainClient cloudsearch = new InMemoryCloudSearchDomainClient(
+				config.cloudsearchLatencyMillis, TimeUnit.MILLISECONDS);
+		SQueue<Event> queue = SQueue.builder(QUEUE, sqs, Event.class).metrics(metrics).build();
+
+		ExecutorService executor = Executors.newFixedThreadPool(config.producers + config.consumers,
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("harness-%d").build());
+		List<SQueueIndexer<Event, Document>> indexers = new ArrayList<>();
+		for (int i = 0; i < config.consumers; i++) {
+			SQueueIndexer<Event, Document> indexer = SQueueIndexer.builder(queue, cloudsearch, new Indexing())
+					.maxDelay(config.maxDelayMillis, TimeUnit.MILLISECONDS).metrics(metrics).build();
+			indexers.add(indexer);
+			executor.submit(indexer);
+		}
+		for (int i = 0; i < config.producers; i++) {
+			executor.submit(new Producer(queue));
+		}
+
+		out.printf("%d producers, %d consumers, %d byte messages, %s%n", config.producers, config.consumers,
+				config.messageBytes, config.rate > 0 ? config.rate + " messages/s" : "unlimited rate");
+		long start = System.nanoTime();
+		long warmupEnd = start + TimeUnit.SECONDS.toNanos(config.warmupSeconds);
+		long end = warmupEnd + TimeUnit.SECONDS.toNanos(config.durationSeconds);
+		long intervalNanos = TimeUnit.SECONDS.toNanos(config.intervalSeconds);
+		long nextReport = start + intervalNanos;
+		long lastReport = start;
+		long lastAllocated = allocatedBytes();
+		long measuredStart = 0;
+		long measuredAllocated = 0;
+		boolean measuring = false;
+
+		long now = start;
+		while (now < end) {
+			long until = Math.min(nextReport, end);
+			if (!measuring) {
+				until = Math.min(until, warmupEnd);
+			}
+			TimeUnit.NANOSECONDS.sleep(Math.max(0, until - now));
+			now = System.nanoTime();
+			if (!measuring && now >= warmupEnd) {
+				metrics.startMeasuring();
+				measuring = true;
+				measuredStart = now;
+				measuredAllocated = allocatedBytes();
+			}
+			if (now >= nextReport || now >= end) {
+				metrics.record(BACKLOG, backlog(sqs, url));
+				long allocated = allocatedBytes();
+				report(out, now - start, now - lastReport, allocated < 0 ? -1 : allocated - lastAllocated,
+						metrics.roll());
+				lastReport = now;
+				lastAllocated = allocated;
+				nextReport += intervalNanos;
+			}
+		}
+		long measuredNanos = now - measuredStart;
+		long allocated = allocatedBytes();
+		allocated = allocated < 0 ? -1 : allocated - measuredAllocated;
+
+		producing = false;
+		for (SQueueIndexer<Event, Document> indexer : indexers) {
+			indexer.close();
+		}
+		executor.shutdown();
+		if (!executor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+			executor.shutdownNow();
+		}
+		return summarize(metrics.measured(), measuredNanos, allocated);
+	}
+
+	private void report(PrintStream out, long elapsedNanos, long intervalNanos, long allocated,
+			InMemoryMetrics interval) {
+		double seconds = intervalNanos / 1e9;
+		double sent = interval.getCount(MetricNames.SQS_SEND) / seconds;
+		double received = interval.getCount(MetricNames.CLOUDSEARCH_INDEX_MESSAGES) / seconds;
+		double indexed = sum(interval, MetricNames.CLOUDSEARCH_UPLOAD_ACTIONS) / seconds * 60;
+		String allocation = allocated < 0 ? "n/a" : String.format("%.1f MB/s", allocated / seconds / (1 << 20));
+		out.printf("%6ds  sent %9.0f/s  received %9.0f/s  indexed %10.0f/min  "
+				+ "latency p50 %7.1f p99 %7.1f p99.9 %7.1f ms  buffer %5.1f  backlog %8d  alloc %s%n",
+				TimeUnit.NANOSECONDS.toSeconds(elapsedNanos), sent, received, indexed, millis(interval, 50.0),
+				millis(interval, 99.0), millis(interval, 99.9), mean(interval, MetricNames.SQS_BUFFER_DEPTH),
+				max(interval, BACKLOG), allocation);
+	}
+
+	private Result summarize(InMemoryMetrics measured, long measuredNanos, long allocated) {
+		double seconds = measuredNanos / 1e9;
+		long received = measured.getCount(MetricNames.CLOUDSEARCH_INDEX_MESSAGES);
+		Result result = new Result();
+		result.put(Result.MESSAGES_PER_SECOND, received / seconds);
+		result.put(Result.DOCUMENTS_PER_MINUTE, sum(measured, MetricNames.CLOUDSEARCH_UPLOAD_ACTIONS) / seconds * 60);
+		result.put(Result.LATENCY_P50_MILLIS, millis(measured, 50.0));
+		result.put(Result.LATENCY_P99_MILLIS, millis(measured, 99.0));
+		result.put(Result.LATENCY_P999_MILLIS, millis(measured, 99.9));
+		if (allocated >= 0) {
+			result.put(Result.ALLOCATED_BYTES_PER_MESSAGE, (double) allocated / Math.max(1L, received));
+		}
+		result.put(Result.BUFFER_DEPTH_MEAN, mean(measured, MetricNames.SQS_BUFFER_DEPTH));
+		result.put(Result.BACKLOG_MAX, max(measured, BACKLOG));
+		return result;
+	}
+
+	private static long backlog(InMemorySQSClient sqs, String url) {
+		String length = sqs.getQueueAttributes(url, ImmutableList.of(QUEUE_ATTR_LENGTH)).getAttributes()
+				.get(QUEUE_ATTR_LENGTH);
+		return length == null ? 0 : Long.parseLong(length);
+	}
+
+	/**
+	 * Returns the bytes allocated by the live threads, or -1 if the JVM does
+	 * not measure them.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+			return -1;
+		}
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		if (!threads.isThreadAllocatedMemoryEnabled()) {
+			return -1;
+		}
+		long total = 0;
+		for (long bytes : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+			if (bytes > 0) {
+				total += bytes;
+			}
+		}
+		return total;
+	}
+
+	private static double millis(InMemoryMetrics metrics, double percentile) {
+		Optional<Histogram> latency = metrics.getHistogram(LATENCY);
+		return latency.isPresent() ? latency.get().getValueAtPercentile(percentile) / 1e6 : 0.0;
+	}
+
+	private static double sum(InMemoryMetrics metrics, String name) {
+		Optional<Histogram> histogram = metrics.getHistogram(name);
+		return histogram.isPresent() ? histogram.get().getSum() : 0.0;
+	}
+
+	private static double mean(InMemoryMetrics metrics, String name) {
+		Optional<Histogram> histogram = metrics.getHistogram(name);
+		return histogram.isPresent() ? histogram.get().getMean() : 0.0;
+	}
+
+	private static long max(InMemoryMetrics metrics, String name) {
+		Optional<Histogram> histogram = metrics.getHistogram(name);
+		return histogram.isPresent() ? histogram.get().getMax() : 0L;
+	}
+
+	/**
+	 * Pushes events as fast as the rate allows until the run ends.
+	 */
+	private final class Producer implements Runnable {
+		private final SQueue<Event> queue;
+		private final Optional<RateLimiter> limiter;
+		private final String payload;
+
+		private Producer(SQueue<Event> queue) {
+			this.queue = queue;
+			this.limiter = config.rate > 0 ? Optional.of(RateLimiter.create(config.rate / config.producers))
+					: Optional.<RateLimiter> absent();
+			this.payload = Strings.repeat("x", config.messageBytes);
+		}
+
+		@Override
+		public void run() {
+			while (producing && !Thread.currentThread().isInterrupted()) {
+				if (limiter.isPresent()) {
+					limiter.get().acquire();
+				}
+				String id = "doc." + sequence.getAndIncrement() % config.documents;
+				queue.push(new Event(id, System.nanoTime(), payload));
+			}
+		}
+	}
+
+	/**
+	 * Records the push to receive latency of each event and maps it to an add.
+	 */
+	private final class Indexing implements Function<Event, IndexAction<Document>> {
+		@Override
+		public IndexAction<Document> apply(Event event) {
+			metrics.record(LATENCY, System.nanoTime() - event.sent);
+			return IndexAction.add(event.id, new Document(event.payload));
+		}
+	}
+
+	static final class Event {
+		@JsonProperty("id")
+		String id;
+		@JsonProperty("sent")
+		long sent;
+		@JsonProperty("payload")
+		String payload;
+
+		Event() {
+		}
+
+		Event(String id, long sent, String payload) {
+			this.id = id;
+			this.sent = sent;
+			this.payload = payload;
+		}
+	}
+
+	static final class Document {
+		@JsonProperty("payload")
+		String payload;
+
+		Document(String payload) {
+			this.payload = payload;
+		}
+	}
+}
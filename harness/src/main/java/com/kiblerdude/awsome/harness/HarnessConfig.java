@@ -0,0 +1,133 @@
+package com.kiblerdude.awsome.harness;
+
+import java.io.File;
+import java.io.PrintStream;
+
+import com.google.common.base.Optional;
+
+/**
+ * The settings of a harness run, parsed from <code>-name=value</code>
+ * arguments.
+ *
+ * @author kiblerj
+ *
+ */
+final class HarnessConfig {
+
+	int producers = 2;
+	int consumers = 2;
+	int messageBytes = 1024;
+	// messages per second over all producers, 0 for as fast as possible
+	double rate = 0;
+	int documents = 100000;
+	long sqsLatencyMillis = 5;
+	long cloudsearchLatencyMillis = 50;
+	long maxDelayMillis = 1000;
+	long warmupSeconds = 10;
+	long durationSeconds = 60;
+	long intervalSeconds = 10;
+	Optional<File> baseline = Optional.absent();
+	Optional<File> saveBaseline = Optional.absent();
+	double tolerance = 0.1;
+
+	/**
+	 * Parses the arguments.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if an argument is unknown or its value is invalid
+	 */
+	static HarnessConfig parse(String... args) {
+		HarnessConfig config = new HarnessConfig();
+		for (String arg : args) {
+			int equals = arg.indexOf('=');
+			if (!arg.startsWith("-") || equals < 0)
+				throw new IllegalArgumentException("expected -name=value: " + arg);
+			String name = arg.substring(1, equals);
+			String value = arg.substring(equals + 1);
+			try {
+				config.set(name, value);
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("invalid value for " + name + ": " + value);
+			}
+		}
+		if (config.producers < 1 || config.consumers < 1)
+			throw new IllegalArgumentException("producers and consumers must be at least 1");
+		if (config.messageBytes < 1 || config.documents < 1)
+			throw new IllegalArgumentException("messageBytes and documents must be at least 1");
+		if (config.durationSeconds < 1 || config.intervalSeconds < 1)
+			throw new IllegalArgumentException("duration and interval must be at least 1");
+		if (config.warmupSeconds < 0)
+			throw new IllegalArgumentException("warmup must not be negative");
+		// also rejects NaN
+		if (!(config.tolerance >= 0))
+			throw new IllegalArgumentException("tolerance must not be negative");
+		return config;
+	}
+
+	private void set(String name, String value) {
+		switch (name) {
+		case "producers":
+			producers = Integer.parseInt(value);
+			break;
+		case "consumers":
+			consumers = Integer.parseInt(value);
+			break;
+		case "messageBytes":
+			messageBytes = Integer.parseInt(value);
+			break;
+		case "rate":
+			rate = Double.parseDouble(value);
+			break;
+		case "documents":
+			documents = Integer.parseInt(value);
+			break;
+		case "sqsLatency":
+			sqsLatencyMillis = Long.parseLong(value);
+			break;
+		case "cloudsearchLatency":
+			cloudsearchLatencyMillis = Long.parseLong(value);
+			break;
+		case "maxDelay":
+			maxDelayMillis = Long.parseLong(value);
+			break;
+		case "warmup":
+			warmupSeconds = Long.parseLong(value);
+			break;
+		case "duration":
+			durationSeconds = Long.parseLong(value);
+			break;
+		case "interval":
+			intervalSeconds = Long.parseLong(value);
+			break;
+		case "baseline":
+			baseline = Optional.of(new File(value));
+			break;
+		case "saveBaseline":
+			saveBaseline = Optional.of(new File(value));
+			break;
+		case "tolerance":
+			tolerance = Double.parseDouble(value);
+			break;
+		default:
+			throw new IllegalArgumentException("unknown argument: " + name);
+		}
+	}
+
+	static void usage(PrintStream out) {
+		out.println("java -jar harness.jar [-name=value ...]");
+		out.println("  -producers=2              producer threads pushing messages");
+		out.println("  -consumers=2              SQueueIndexer threads uploading documents");
+		out.println("  -messageBytes=1024        size of each message payload");
+		out.println("  -rate=0                   messages per second over all producers, 0 for unlimited");
+		out.println("  -documents=100000         distinct document ids, bounding the index");
+		out.println("  -sqsLatency=5             milliseconds added to each SQS request");
+		out.println("  -cloudsearchLatency=50    milliseconds added to each Cloudsearch request");
+		out.println("  -maxDelay=1000            milliseconds before a partial batch is uploaded");
+		out.println("  -warmup=10                seconds excluded from the results");
+		out.println("  -duration=60              seconds measured after the warmup");
+		out.println("  -interval=10              seconds between progress reports");
+		out.println("  -baseline=FILE            compare the results with a saved baseline");
+		out.println("  -saveBaseline=FILE        save the results as a baseline");
+		out.println("  -tolerance=0.1            relative change reported as a regression");
+	}
+}
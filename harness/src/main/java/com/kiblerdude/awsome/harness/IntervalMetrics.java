@@ -0,0 +1,57 @@
+package com.kiblerdude.awsome.harness;
+
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Records into the metrics of the current report interval and, once the
+ * warmup is over, into the metrics of the measured run.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+final class IntervalMetrics implements Metrics {
+
+	private volatile InMemoryMetrics interval = new InMemoryMetrics();
+	private volatile InMemoryMetrics measured;
+
+	@Override
+	public void count(String name, long delta) {
+		interval.count(name, delta);
+		InMemoryMetrics run = measured;
+		if (run != null) {
+			run.count(name, delta);
+		}
+	}
+
+	@Override
+	public void record(String name, long value) {
+		interval.record(name, value);
+		InMemoryMetrics run = measured;
+		if (run != null) {
+			run.record(name, value);
+		}
+	}
+
+	/**
+	 * Starts a new interval and returns the metrics of the one that ended.
+	 */
+	InMemoryMetrics roll() {
+		InMemoryMetrics ended = interval;
+		interval = new InMemoryMetrics();
+		return ended;
+	}
+
+	/**
+	 * Starts the measured run, at the end of the warmup.
+	 */
+	void startMeasuring() {
+		measured = new InMemoryMetrics();
+	}
+
+	InMemoryMetrics measured() {
+		return measured;
+	}
+}
@@ -0,0 +1,108 @@
+package com.kiblerdude.awsome.harness;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * The summary of a measured run, which can be saved as a baseline and
+ * compared with one.
+ *
+ * @author kiblerj
+ *
+ */
+final class Result {
+
+	static final String MESSAGES_PER_SECOND = "messages.per.second";
+	static final String DOCUMENTS_PER_MINUTE = "documents.per.minute";
+	static final String LATENCY_P50_MILLIS = "latency.p50.millis";
+	static final String LATENCY_P99_MILLIS = "latency.p99.millis";
+	static final String LATENCY_P999_MILLIS = "latency.p999.millis";
+	static final String ALLOCATED_BYTES_PER_MESSAGE = "allocated.bytes.per.message";
+	static final String BUFFER_DEPTH_MEAN = "buffer.depth.mean";
+	static final String BACKLOG_MAX = "backlog.max";
+
+	private static final Set<String> HIGHER_IS_BETTER = ImmutableSet.of(MESSAGES_PER_SECOND, DOCUMENTS_PER_MINUTE);
+	// reported, but neither better nor worse when they change
+	private static final Set<String> INFORMATIONAL = ImmutableSet.of(BUFFER_DEPTH_MEAN);
+
+	private final Map<String, Double> values = new LinkedHashMap<>();
+
+	void put(String name, double value) {
+		values.put(name, value);
+	}
+
+	Double get(String name) {
+		return values.get(name);
+	}
+
+	void print(PrintStream out) {
+		for (Map.Entry<String, Double> entry : values.entrySet()) {
+			out.printf("  %-30s %12.2f%n", entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Prints the change of each value from the baseline, and returns the names
+	 * of the values that changed for the worse by more than the tolerance. A
+	 * value whose baseline is zero is only printed, as its relative change is
+	 * undefined.
+	 */
+	List<String> compare(Result baseline, double tolerance, PrintStream out) {
+		List<String> regressions = new ArrayList<>();
+		for (Map.Entry<String, Double> entry : values.entrySet()) {
+			String name = entry.getKey();
+			Double base = baseline.get(name);
+			if (base == null) {
+				continue;
+			}
+			double current = entry.getValue();
+			if (base == 0.0) {
+				out.printf("  %-30s %12.2f -> %12.2f%n", name, base, current);
+				continue;
+			}
+			double change = (current - base) / base;
+			boolean worse = HIGHER_IS_BETTER.contains(name) ? change < -tolerance : change > tolerance;
+			boolean regressed = worse && !INFORMATIONAL.contains(name);
+			if (regressed) {
+				regressions.add(name);
+			}
+			out.printf("  %-30s %12.2f -> %12.2f %+7.1f%%%s%n", name, base, current, change * 100,
+					regressed ? "  REGRESSION" : "");
+		}
+		return regressions;
+	}
+
+	void save(File file) throws IOException {
+		Properties properties = new Properties();
+		for (Map.Entry<String, Double> entry : values.entrySet()) {
+			properties.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+		try (OutputStream out = Files.newOutputStream(file.toPath())) {
+			properties.store(out, "awsome harness baseline");
+		}
+	}
+
+	static Result load(File file) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream in = Files.newInputStream(file.toPath())) {
+			properties.load(in);
+		}
+		Result result = new Result();
+		for (String name : properties.stringPropertyNames()) {
+			result.put(name, Double.parseDouble(properties.getProperty(name)));
+		}
+		return result;
+	}
+}
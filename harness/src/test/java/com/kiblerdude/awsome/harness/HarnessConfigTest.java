@@ -0,0 +1,39 @@
+package com.kiblerdude.awsome.harness;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.junit.Test;
+
+public class HarnessConfigTest {
+
+	@Test
+	public void testParse() {
+		HarnessConfig config = HarnessConfig.parse("-producers=4", "-rate=250.5", "-warmup=0",
+				"-baseline=base.properties", "-tolerance=0");
+		assertEquals(4, config.producers);
+		assertEquals(2, config.consumers);
+		assertEquals(250.5, config.rate, 0.0);
+		assertEquals(0L, config.warmupSeconds);
+		assertEquals(new File("base.properties"), config.baseline.get());
+		assertFalse(config.saveBaseline.isPresent());
+		assertEquals(0.0, config.tolerance, 0.0);
+	}
+
+	@Test
+	public void testInvalid() {
+		String[][] invalid = { { "producers=4" }, { "-producers" }, { "-unknown=1" }, { "-producers=four" },
+				{ "-producers=0" }, { "-consumers=0" }, { "-messageBytes=0" }, { "-documents=0" },
+				{ "-duration=0" }, { "-interval=0" }, { "-warmup=-1" }, { "-tolerance=-0.1" },
+				{ "-tolerance=NaN" } };
+		for (String[] args : invalid) {
+			try {
+				HarnessConfig.parse(args);
+				fail(args[0]);
+			} catch (IllegalArgumentException e) {
+				// expected
+			}
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package com.kiblerdude.awsome.harness;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableList;
+
+public class ResultTest {
+
+	private final PrintStream out = new PrintStream(new ByteArrayOutputStream());
+
+	@Test
+	public void testHigherIsBetter() {
+		Result baseline = result(Result.MESSAGES_PER_SECOND, 100.0);
+		assertEquals(Collections.emptyList(), result(Result.MESSAGES_PER_SECOND, 150.0).compare(baseline, 0.1, out));
+		assertEquals(ImmutableList.of(Result.MESSAGES_PER_SECOND),
+				result(Result.MESSAGES_PER_SECOND, 89.0).compare(baseline, 0.1, out));
+	}
+
+	@Test
+	public void testLowerIsBetter() {
+		Result baseline = result(Result.LATENCY_P99_MILLIS, 100.0);
+		assertEquals(Collections.emptyList(), result(Result.LATENCY_P99_MILLIS, 50.0).compare(baseline, 0.1, out));
+		assertEquals(ImmutableList.of(Result.LATENCY_P99_MILLIS),
+				result(Result.LATENCY_P99_MILLIS, 111.0).compare(baseline, 0.1, out));
+	}
+
+	@Test
+	public void testToleranceEdge() {
+		// a change of exactly the tolerance is not a regression
+		assertEquals(Collections.emptyList(), result(Result.LATENCY_P99_MILLIS, 110.0)
+				.compare(result(Result.LATENCY_P99_MILLIS, 100.0), 0.1, out));
+		assertEquals(Collections.emptyList(), result(Result.MESSAGES_PER_SECOND, 90.0)
+				.compare(result(Result.MESSAGES_PER_SECOND, 100.0), 0.1, out));
+		// with no tolerance, any change for the worse is
+		assertEquals(ImmutableList.of(Result.MESSAGES_PER_SECOND), result(Result.MESSAGES_PER_SECOND, 99.9)
+				.compare(result(Result.MESSAGES_PER_SECOND, 100.0), 0.0, out));
+	}
+
+	@Test
+	public void testInformational() {
+		assertEquals(Collections.emptyList(), result(Result.BUFFER_DEPTH_MEAN, 1000.0)
+				.compare(result(Result.BUFFER_DEPTH_MEAN, 1.0), 0.1, out));
+	}
+
+	@Test
+	public void testZeroBaseline() {
+		// the relative change from zero is undefined, so the value is only reported
+		assertEquals(Collections.emptyList(), result(Result.BACKLOG_MAX, 500.0)
+				.compare(result(Result.BACKLOG_MAX, 0.0), 0.1, out));
+	}
+
+	@Test
+	public void testMissingFromBaseline() {
+		Result current = result(Result.LATENCY_P99_MILLIS, 1000.0);
+		current.put(Result.BACKLOG_MAX, 10.0);
+		assertEquals(ImmutableList.of(Result.LATENCY_P99_MILLIS),
+				current.compare(result(Result.LATENCY_P99_MILLIS, 100.0), 0.1, out));
+	}
+
+	private static Result result(String name, double value) {
+		Result result = new Result();
+		result.put(name, value);
+		return result;
+	}
+}
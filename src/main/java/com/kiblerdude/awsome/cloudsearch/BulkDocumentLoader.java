@@ -0,0 +1,152 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+
+/**
+ * Loads documents into Cloudsearch from files of SDF (Search Data Format)
+ * actions, recording a checkpoint after every uploaded batch so that an
+ * interrupted load resumes where it stopped.
+ * <p>
+ * The source file is streamed through a fixed size NIO buffer and is never
+ * held in memory. It may contain newline delimited actions or one or more SDF
+ * action arrays:
+ *
+ * <pre>
+ * {"type":"add","id":"id.1","fields":{"title":"star wars"}}
+ * {"type":"delete","id":"id.2"}
+ * </pre>
+ *
+ * Actions are uploaded in batches of up to 5 MB. After each batch is accepted
+ * by Cloudsearch the byte offset of the last action in the batch is written to
+ * the checkpoint file. When the load is restarted with the same checkpoint file
+ * it continues from that offset.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * BulkDocumentLoader loader = new BulkDocumentLoader(client);
+ * long uploaded = loader.load(new File(&quot;export.ndjson&quot;), new File(&quot;export.checkpoint&quot;));
+ * </pre>
+ *
+ * This class is thread safe, but a checkpoint file must not be shared by
+ * concurrent loads.
+ *
+ * @author kiblerj
+ *
+ */
+public final class BulkDocumentLoader {
+
+	private static final int DEFAULT_READ_BUFFER_BYTES = 1024 * 1024;
+
+	private final AmazonCloudSearchDomainClient client;
+	private final long maxBatchBytes;
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 */
+	public BulkDocumentLoader(AmazonCloudSearchDomainClient client) {
+		this(client, SdfBatch.MAX_BATCH_BYTES);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param maxBatchBytes
+	 *            The maximum size of each upload batch in bytes.
+	 */
+	public BulkDocumentLoader(AmazonCloudSearchDomainClient client, long maxBatchBytes) {
+		checkNotNull(client, "client is null");
+		if (maxBatchBytes > SdfBatch.MAX_BATCH_BYTES)
+			throw new IllegalArgumentException("maxBatchBytes exceeds the Cloudsearch batch limit");
+		this.client = client;
+		this.maxBatchBytes = maxBatchBytes;
+	}
+
+	/**
+	 * Uploads the actions in <code>source</code>, starting from the offset
+	 * recorded in <code>checkpoint</code> if it exists.
+	 *
+	 * @param source
+	 *            The file of SDF actions.
+	 * @param checkpoint
+	 *            The file recording the offset of the last uploaded action.
+	 * @return The number of actions uploaded.
+	 * @throws IOException
+	 *             If the source or checkpoint could not be read or written, or
+	 *             the source is malformed.
+	 */
+	public long load(File source, File checkpoint) throws IOException {
+		checkNotNull(source, "source is null");
+		checkNotNull(checkpoint, "checkpoint is null");
+
+		long offset = readCheckpoint(checkpoint.toPath());
+		long uploaded = 0;
+		try (FileChannel channel = FileChannel.open(source.toPath(), StandardOpenOption.READ)) {
+			if (offset > channel.size()) {
+				throw new IOException("Checkpoint offset " + offset + " is beyond the end of " + source);
+			}
+			channel.position(offset);
+			SdfActionReader reader = new SdfActionReader(channel, offset, DEFAULT_READ_BUFFER_BYTES);
+			SdfBatch batch = new SdfBatch(maxBatchBytes);
+			long batchEnd = offset;
+			while (reader.next()) {
+				int length = reader.actionLength();
+				if (!batch.fits(length)) {
+					if (batch.isEmpty()) {
+						throw new IOException("Action ending at offset " + reader.offset() + " exceeds the batch size");
+					}
+					uploaded += upload(batch, checkpoint.toPath(), batchEnd);
+				}
+				batch.add(reader.action(), 0, length);
+				batchEnd = reader.offset();
+			}
+			if (!batch.isEmpty()) {
+				uploaded += upload(batch, checkpoint.toPath(), batchEnd);
+			}
+		}
+		return uploaded;
+	}
+
+	private int upload(SdfBatch batch, Path checkpoint, long offset) throws IOException {
+		int count = batch.count();
+		client.uploadDocuments(batch.toRequest());
+		writeCheckpoint(checkpoint, offset);
+		batch.clear();
+		return count;
+	}
+
+	private static long readCheckpoint(Path checkpoint) throws IOException {
+		if (!Files.exists(checkpoint)) {
+			return 0L;
+		}
+		String offset = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim();
+		try {
+			return Long.parseLong(offset);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid checkpoint " + checkpoint, e);
+		}
+	}
+
+	private static void writeCheckpoint(Path checkpoint, long offset) throws IOException {
+		// write to a temporary file and rename so a crash never leaves a partial checkpoint
+		Path temp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+		Files.write(temp, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+		Files.move(temp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,199 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.Hit;
+import com.amazonaws.services.cloudsearchdomain.model.QueryParser;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.google.common.base.Throwables;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Iterates over all the hits of a structured query, fetching the pages with
+ * Cloudsearch cursors.
+ * <p>
+ * Cursors do not have the limit and cost of deep <code>start</code>
+ * offsets. Hits are read lazily into documents, and while the caller handles
+ * the hits of one page the next page is already being fetched in the
+ * background, so at most two pages are held in memory.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * try (CursorSearcher&lt;MyDocument&gt; searcher = new CursorSearcher&lt;&gt;(client, MyDocument.class)) {
+ * 	Iterator&lt;SearchHit&lt;MyDocument&gt;&gt; hits = searcher.search(eq(&quot;genre&quot;, &quot;drama&quot;));
+ * 	while (hits.hasNext()) {
+ * 		SearchHit&lt;MyDocument&gt; hit = hits.next();
+ * 		...
+ * 	}
+ * }
+ * </pre>
+ *
+ * A failed page request is thrown from <code>hasNext</code> or
+ * <code>next</code>. This class is thread safe, the iterators are not.
+ *
+ * @author kiblerj
+ *
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class CursorSearcher<T> implements Closeable {
+
+	private static final String INITIAL_CURSOR = "initial";
+	private static final long DEFAULT_PAGE_SIZE = 1000L;
+
+	private final AmazonCloudSearchDomainClient client;
+	private final HitReader<T> reader;
+	private final ExecutorService executor;
+	private final Metrics metrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param documentClass
+	 *            The Jackson annotated document class.
+	 */
+	public CursorSearcher(AmazonCloudSearchDomainClient client, Class<T> documentClass) {
+		this(client, documentClass, Metrics.NOOP);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param documentClass
+	 *            The Jackson annotated document class.
+	 * @param metrics
+	 *            The {@link Metrics} receiving the timings and counts of the
+	 *            page requests.
+	 */
+	public CursorSearcher(AmazonCloudSearchDomainClient client, Class<T> documentClass, Metrics metrics) {
+		this.client = checkNotNull(client, "client is null");
+		this.reader = new HitReader<>(checkNotNull(documentClass, "documentClass is null"));
+		this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setDaemon(true)
+				.setNameFormat("cloudsearch-cursor-%d").build());
+		this.metrics = checkNotNull(metrics, "metrics is null");
+	}
+
+	/**
+	 * Searches with a structured query, in pages of 1000 hits.
+	 *
+	 * @param query
+	 *            The {@link StructuredQueryBuilder}
+	 * @return {@link Iterator} over all the hits.
+	 */
+	public Iterator<SearchHit<T>> search(StructuredQueryBuilder query) {
+		return search(query, new SearchRequest());
+	}
+
+	/**
+	 * Searches with a structured query and search options.
+	 *
+	 * @param query
+	 *            The {@link StructuredQueryBuilder}
+	 * @param options
+	 *            The {@link SearchRequest} holding the search options. The size
+	 *            is the number of hits per page. The query, query parser,
+	 *            cursor and start of <code>options</code> are ignored.
+	 * @return {@link Iterator} over all the hits.
+	 */
+	public Iterator<SearchHit<T>> search(StructuredQueryBuilder query, SearchRequest options) {
+		checkNotNull(query, "query is null");
+		checkNotNull(options, "options are null");
+		return new HitIterator(query.build(), options);
+	}
+
+	/**
+	 * Stops the background page requests.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private final class HitIterator extends AbstractIterator<SearchHit<T>> {
+		private final String query;
+		private final SearchRequest options;
+		private final long size;
+		private Future<SearchResult> next;
+		private Iterator<Hit> page;
+
+		private HitIterator(String query, SearchRequest options) {
+			this.query = query;
+			// copy the options, as the caller may change them while iterating
+			this.options = new SearchRequest().withExpr(options.getExpr()).withFacet(options.getFacet())
+					.withFilterQuery(options.getFilterQuery()).withHighlight(options.getHighlight())
+					.withPartial(options.getPartial()).withQueryOptions(options.getQueryOptions())
+					.withReturn(options.getReturn()).withSort(options.getSort());
+			this.size = options.getSize() == null ? DEFAULT_PAGE_SIZE : options.getSize();
+			this.next = fetch(INITIAL_CURSOR);
+		}
+
+		@Override
+		protected SearchHit<T> computeNext() {
+			while (page == null || !page.hasNext()) {
+				if (next == null) {
+					return endOfData();
+				}
+				SearchResult result = await(next);
+				next = null;
+				List<Hit> hits = result.getHits() == null ? null : result.getHits().getHit();
+				if (hits == null || hits.isEmpty()) {
+					return endOfData();
+				}
+				// prefetch the next page before the caller handles this one; a
+				// short page is the last
+				String cursor = result.getHits().getCursor();
+				if (cursor != null && hits.size() >= size) {
+					next = fetch(cursor);
+				}
+				page = hits.iterator();
+			}
+			return reader.read(page.next());
+		}
+
+		private Future<SearchResult> fetch(String cursor) {
+			final SearchRequest page = new SearchRequest().withQueryParser(QueryParser.Structured)
+					.withQuery(query).withCursor(cursor).withSize(size).withExpr(options.getExpr())
+					.withFacet(options.getFacet()).withFilterQuery(options.getFilterQuery())
+					.withHighlight(options.getHighlight()).withPartial(options.getPartial())
+					.withQueryOptions(options.getQueryOptions()).withReturn(options.getReturn())
+					.withSort(options.getSort());
+			return executor.submit(new Callable<SearchResult>() {
+				@Override
+				public SearchResult call() {
+					return Searches.search(client, page, metrics);
+				}
+			});
+		}
+
+		private SearchResult await(Future<SearchResult> future) {
+			try {
+				return future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				future.cancel(true);
+				throw Throwables.propagate(e);
+			} catch (ExecutionException e) {
+				throw Throwables.propagate(e.getCause());
+			}
+		}
+	}
+}
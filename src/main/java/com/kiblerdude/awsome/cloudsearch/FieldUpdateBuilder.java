@@ -0,0 +1,293 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Builds AWS Cloudsearch {@link UploadDocumentsRequest} from field level
+ * updates.
+ * <p>
+ * Cloudsearch has no partial update: an <code>add</code> replaces the whole
+ * document. This builder keeps a bounded cache of the last known version of
+ * each document, merges sparse field updates into it, and emits one
+ * <code>add</code> per changed document when the request is built. Repeated
+ * updates to the same document between builds are coalesced into a single
+ * action, and updates that do not change any value are dropped.
+ * <p>
+ * Documents must be made known with {@link #remember(String, Object)} or
+ * {@link #add(String, Object)} before they can be updated. If a document is
+ * not known, or has been evicted from the cache, the update is rejected and
+ * the caller must add the full document.
+ * <p>
+ * The cache only takes the built changes once the caller confirms the upload
+ * with {@link #committed()}. If the upload fails, {@link #abort()} stages the
+ * changes again, so they are sent with the next request instead of being
+ * taken as already known.
+ * <p>
+ * For example:
+ *
+ * <pre>
+ * FieldUpdateBuilder&lt;MyDocument&gt; builder = new FieldUpdateBuilder&lt;&gt;(100000);
+ * builder.remember(&quot;id.1&quot;, document);
+ * builder.update(&quot;id.1&quot;, ImmutableMap.of(&quot;popularity&quot;, 42));
+ * UploadDocumentsRequest request = builder.build();
+ * try {
+ *     client.uploadDocuments(request);
+ *     builder.committed();
+ * } catch (AmazonClientException e) {
+ *     builder.abort();
+ * }
+ * </pre>
+ *
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class FieldUpdateBuilder<T extends Object> {
+
+	// the last versions confirmed by the caller
+	private final Cache<String, ObjectNode> documents;
+
+	// pending actions in the order they were staged, a null value is a delete
+	private Map<String, ObjectNode> pending;
+
+	// actions built but not yet confirmed or aborted, a null value is a delete
+	private final Map<String, ObjectNode> built;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxCachedDocuments
+	 *            The maximum number of last known documents to keep.
+	 */
+	public FieldUpdateBuilder(long maxCachedDocuments) {
+		this.documents = CacheBuilder.newBuilder().maximumSize(maxCachedDocuments).build();
+		this.pending = new LinkedHashMap<>();
+		this.built = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Records <code>document</code> as the last known version of the document
+	 * with the specified <code>id</code>, without uploading it.
+	 *
+	 * @param id
+	 *            The id of the document.
+	 * @param document
+	 *            The full document as it is in the Cloudsearch index.
+	 * @return FieldUpdateBuilder
+	 */
+	public synchronized FieldUpdateBuilder<T> remember(String id, T document) {
+		checkNotNull(id, "Document id is null");
+		checkNotNull(document, "Document is null");
+		documents.put(id, toNode(document));
+		return this;
+	}
+
+	/**
+	 * Adds the full <code>document</code> with the specified <code>id</code>
+	 * to the Cloudsearch index and records it as the last known version.
+	 *
+	 * @param id
+	 *            The id of the document being added to the Cloudsearch index.
+	 * @param document
+	 *            The document being added to the Cloudsearch index.
+	 * @return FieldUpdateBuilder
+	 */
+	public synchronized FieldUpdateBuilder<T> add(String id, T document) {
+		checkNotNull(id, "Document id is null");
+		checkNotNull(document, "Document to add is null");
+		pending.put(id, toNode(document));
+		return this;
+	}
+
+	/**
+	 * Updates fields of the document with the specified <code>id</code>. A
+	 * <code>null</code> value removes the field from the document.
+	 *
+	 * @param id
+	 *            The id of the document to update.
+	 * @param fields
+	 *            The names and new values of the changed fields.
+	 * @return <code>true</code> if the document is known and the update was
+	 *         applied, or <code>false</code> if the full document must be
+	 *         added instead.
+	 */
+	public synchronized boolean update(String id, Map<String, ?> fields) {
+		checkNotNull(id, "Document id is null");
+		checkNotNull(fields, "Fields to update are null");
+		ObjectNode node = staged(id);
+		if (node == null) {
+			return false;
+		}
+		boolean changed = false;
+		for (Entry<String, ?> entry : fields.entrySet()) {
+			JsonNode value = entry.getValue() == null ? null : SdfMapper.MAPPER.valueToTree(entry.getValue());
+			changed |= merge(node, entry.getKey(), value);
+		}
+		if (changed) {
+			pending.put(id, node);
+		}
+		return true;
+	}
+
+	/**
+	 * Updates fields of the document with the specified <code>id</code> from a
+	 * projection of the document. Only the non-null properties of the
+	 * projection are applied.
+	 *
+	 * @param id
+	 *            The id of the document to update.
+	 * @param projection
+	 *            A document holding the new values of the changed fields.
+	 * @return <code>true</code> if the document is known and the update was
+	 *         applied, or <code>false</code> if the full document must be
+	 *         added instead.
+	 */
+	public synchronized boolean update(String id, T projection) {
+		checkNotNull(id, "Document id is null");
+		checkNotNull(projection, "Projection is null");
+		ObjectNode node = staged(id);
+		if (node == null) {
+			return false;
+		}
+		boolean changed = false;
+		Iterator<Entry<String, JsonNode>> fields = toNode(projection).fields();
+		while (fields.hasNext()) {
+			Entry<String, JsonNode> field = fields.next();
+			if (!field.getValue().isNull()) {
+				changed |= merge(node, field.getKey(), field.getValue());
+			}
+		}
+		if (changed) {
+			pending.put(id, node);
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes the document with the specified <code>id</code> from the
+	 * Cloudsearch index. Its last known version is forgotten once the delete
+	 * is committed.
+	 *
+	 * @param id
+	 *            The document id to delete from the Cloudsearch index.
+	 * @return FieldUpdateBuilder
+	 */
+	public synchronized FieldUpdateBuilder<T> delete(String id) {
+		checkNotNull(id, "Document id is null");
+		pending.put(id, null);
+		return this;
+	}
+
+	/**
+	 * Returns the number of documents with pending changes.
+	 *
+	 * @return int
+	 */
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	/**
+	 * Builds a {@link UploadDocumentsRequest} with the pending changes, and
+	 * clears them. The changes are held until the upload is confirmed with
+	 * {@link #committed()} or {@link #abort()}; changes built again before
+	 * then are held together.
+	 *
+	 * @return {@link UploadDocumentsRequest}
+	 */
+	public synchronized UploadDocumentsRequest build() {
+		UploadDocumentsBuilder<ObjectNode> builder = new UploadDocumentsBuilder<>();
+		for (Entry<String, ObjectNode> entry : pending.entrySet()) {
+			if (entry.getValue() == null) {
+				builder.delete(entry.getKey());
+			} else {
+				builder.add(entry.getKey(), entry.getValue());
+			}
+		}
+		UploadDocumentsRequest request = builder.build();
+		built.putAll(pending);
+		pending.clear();
+		return request;
+	}
+
+	/**
+	 * Confirms that the built requests were uploaded, and records their
+	 * documents as the last known versions.
+	 */
+	public synchronized void committed() {
+		for (Entry<String, ObjectNode> entry : built.entrySet()) {
+			if (entry.getValue() == null) {
+				documents.invalidate(entry.getKey());
+			} else {
+				documents.put(entry.getKey(), entry.getValue());
+			}
+		}
+		built.clear();
+	}
+
+	/**
+	 * Stages the changes of the built requests again, after their upload
+	 * failed. Changes staged since they were built already include them and
+	 * are kept.
+	 */
+	public synchronized void abort() {
+		Map<String, ObjectNode> restored = new LinkedHashMap<>();
+		for (Entry<String, ObjectNode> entry : built.entrySet()) {
+			if (!pending.containsKey(entry.getKey())) {
+				restored.put(entry.getKey(), entry.getValue());
+			}
+		}
+		restored.putAll(pending);
+		pending = restored;
+		built.clear();
+	}
+
+	/**
+	 * Returns the latest version of the document that may be changed in
+	 * place, or <code>null</code> if it is unknown or deleted. Versions
+	 * that were built or committed are copied, so they are left as they
+	 * were sent.
+	 */
+	private ObjectNode staged(String id) {
+		if (pending.containsKey(id)) {
+			return pending.get(id);
+		}
+		ObjectNode node = built.containsKey(id) ? built.get(id) : documents.getIfPresent(id);
+		return node == null ? null : node.deepCopy();
+	}
+
+	private static boolean merge(ObjectNode node, String field, JsonNode value) {
+		JsonNode current = node.get(field);
+		if (value == null) {
+			return node.remove(field) != null;
+		}
+		if (value.equals(current)) {
+			return false;
+		}
+		node.set(field, value);
+		return true;
+	}
+
+	private static ObjectNode toNode(Object document) {
+		JsonNode node = SdfMapper.MAPPER.valueToTree(document);
+		if (!node.isObject()) {
+			throw new IllegalArgumentException("Document does not serialize to a JSON object");
+		}
+		return (ObjectNode) node;
+	}
+}
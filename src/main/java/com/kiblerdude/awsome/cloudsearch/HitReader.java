@@ -0,0 +1,87 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.amazonaws.services.cloudsearchdomain.model.Hit;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Reads the fields of search {@link Hit}s into documents.
+ * <p>
+ * Cloudsearch returns every field as a list of Strings. Single values are
+ * unwrapped, and Jackson coerces the Strings to the property types; single
+ * values are accepted for collection properties, and fields which are not
+ * properties of the document (such as <code>_score</code>) are ignored.
+ * <p>
+ * This class is package protected.
+ *
+ * @author kiblerj
+ *
+ */
+final class HitReader<T> {
+
+	private final ObjectReader reader;
+
+	HitReader(Class<T> documentClass) {
+		this.reader = SdfMapper.MAPPER.reader(documentClass)
+				.with(DeserializationFeature.ACCEPT_SINGLE_VALUE_AS_ARRAY)
+				.without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+	}
+
+	/**
+	 * Reads the hits of a search result.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the fields of a hit can not be read into a document.
+	 */
+	SearchPage<T> read(SearchResult result) {
+		ImmutableList.Builder<SearchHit<T>> hits = ImmutableList.builder();
+		if (result.getHits() != null && result.getHits().getHit() != null) {
+			for (Hit hit : result.getHits().getHit()) {
+				hits.add(read(hit));
+			}
+		}
+		return new SearchPage<>(result, hits.build());
+	}
+
+	/**
+	 * Reads a hit.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the fields can not be read into a document.
+	 */
+	SearchHit<T> read(Hit hit) {
+		ObjectNode node = SdfMapper.MAPPER.createObjectNode();
+		Map<String, List<String>> fields = hit.getFields();
+		if (fields != null) {
+			for (Entry<String, List<String>> field : fields.entrySet()) {
+				List<String> values = field.getValue();
+				if (values == null || values.isEmpty()) {
+					continue;
+				}
+				if (values.size() == 1) {
+					node.put(field.getKey(), values.get(0));
+				} else {
+					ArrayNode array = node.putArray(field.getKey());
+					for (String value : values) {
+						array.add(value);
+					}
+				}
+			}
+		}
+		try {
+			T document = reader.readValue(node);
+			return new SearchHit<>(hit.getId(), document);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to read hit " + hit.getId(), e);
+		}
+	}
+}
@@ -0,0 +1,642 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.DocumentServiceException;
+import com.amazonaws.services.cloudsearchdomain.model.Hit;
+import com.amazonaws.services.cloudsearchdomain.model.Hits;
+import com.amazonaws.services.cloudsearchdomain.model.QueryParser;
+import com.amazonaws.services.cloudsearchdomain.model.SearchException;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.amazonaws.services.cloudsearchdomain.model.SearchStatus;
+import com.amazonaws.services.cloudsearchdomain.model.SuggestRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SuggestResult;
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsResult;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Predicate;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * An in-memory stand-in for a Cloudsearch domain, so that indexing and
+ * searching can be tested and benchmarked without a live domain.
+ * <p>
+ * Uploads take SDF batches, as built by {@link UploadDocumentsBuilder}, of at
+ * most 5 MB; a batch which is too large, is not valid JSON, or holds an
+ * invalid action is rejected as a whole with a
+ * {@link DocumentServiceException}. Documents are kept in an inverted index:
+ * every field value is split into words, and each word of each field maps to
+ * the sorted ordinals of the documents holding it. Replacing or deleting a
+ * document only marks its ordinal as deleted, and the index is rebuilt once
+ * most ordinals are deleted, so its memory and search cost follow the number
+ * of documents rather than the number of uploads.
+ * <p>
+ * Searches take structured queries, as built by
+ * {@link StructuredQueryBuilder}, in the query and the filter query:
+ * <code>and</code>, <code>or</code>, <code>not</code>, <code>matchall</code>,
+ * <code>term</code>, <code>phrase</code>, <code>prefix</code>,
+ * <code>near</code> and <code>range</code>. Words narrow the documents down
+ * through the index, and the candidates are then matched like a
+ * {@link QueryPredicate}, whose javadoc describes how text analysis is
+ * approximated. Hits are ordered by the <code>sort</code> option, on field
+ * values, or else in the order the documents were added, as there is no
+ * relevance score. Paging is by <code>start</code> and <code>size</code>, up
+ * to 10000 hits deep, or by cursor. The <code>return</code> option selects
+ * the fields of the hits; facets, highlights, expressions and the simple,
+ * lucene and dismax parsers are not supported. Suggestions fail with an
+ * {@link UnsupportedOperationException}, and never call a live domain.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * InMemoryCloudSearchDomainClient client = new InMemoryCloudSearchDomainClient();
+ * client.uploadDocuments(new UploadDocumentsBuilder&lt;MyDocument&gt;().add(&quot;1&quot;, document).build());
+ * SearchResult result = client.search(new SearchRequest().withQueryParser(QueryParser.Structured)
+ * 		.withQuery(eq(&quot;genre&quot;, &quot;drama&quot;).build()));
+ * </pre>
+ *
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class InMemoryCloudSearchDomainClient extends AmazonCloudSearchDomainClient {
+
+	private static final long MAX_BATCH_BYTES = 5L * 1024 * 1024;
+	private static final long MAX_DEPTH = 10000L;
+	private static final long DEFAULT_SIZE = 10L;
+	// small indexes are not worth rebuilding
+	private static final int MIN_COMPACT_ORDINALS = 1024;
+	private static final String INITIAL_CURSOR = "initial";
+	private static final String CURSOR_PREFIX = "offset:";
+	private static final String ALL_FIELDS = "_all_fields";
+	private static final String NO_FIELDS = "_no_fields";
+	private static final Pattern ID = Pattern.compile("[a-zA-Z0-9\\-_=#;:/?@&]{1,128}");
+	private static final Splitter COMMA = Splitter.on(',').trimResults().omitEmptyStrings();
+	private static final Splitter SPACE = Splitter.on(' ').trimResults().omitEmptyStrings();
+
+	private final long latencyNanos;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	// guarded by the lock
+	private final List<StoredDocument> documents = new ArrayList<>();
+	private final Map<String, Integer> ordinals = new HashMap<>();
+	private final Map<String, FieldIndex> fields = new HashMap<>();
+	private final BitSet live = new BitSet();
+
+	/**
+	 * Constructor, for a domain without latency.
+	 */
+	public InMemoryCloudSearchDomainClient() {
+		this(0L, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param latency
+	 *            The latency added to every request.
+	 * @param unit
+	 *            The {@link TimeUnit} of <code>latency</code>.
+	 */
+	public InMemoryCloudSearchDomainClient(long latency, TimeUnit unit) {
+		if (latency < 0)
+			throw new IllegalArgumentException("latency must not be negative");
+		this.latencyNanos = checkNotNull(unit, "unit is null").toNanos(latency);
+	}
+
+	/**
+	 * @return The number of documents in the index.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return ordinals.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public UploadDocumentsResult uploadDocuments(UploadDocumentsRequest request) {
+		delay();
+		checkNotNull(request.getDocuments(), "documents are null");
+		List<Action> actions = parse(request);
+		long adds = 0;
+		long deletes = 0;
+		lock.writeLock().lock();
+		try {
+			for (Action action : actions) {
+				Integer previous = ordinals.remove(action.id);
+				if (previous != null) {
+					live.clear(previous);
+					documents.set(previous, null);
+				}
+				if (action.fields == null) {
+					deletes++;
+				} else {
+					add(action.id, action.fields);
+					adds++;
+				}
+			}
+			if (documents.size() >= MIN_COMPACT_ORDINALS && ordinals.size() < documents.size() / 2) {
+				compact();
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+		return new UploadDocumentsResult().withStatus("success").withAdds(adds).withDeletes(deletes);
+	}
+
+	@Override
+	public SearchResult search(SearchRequest request) {
+		long start = System.nanoTime();
+		delay();
+		if (!QueryParser.Structured.toString().equals(request.getQueryParser()))
+			throw new SearchException("Only the structured query parser is supported");
+		if (request.getQuery() == null)
+			throw new SearchException("The query is missing");
+		StructuredQueryBuilder query = parseQuery(request.getQuery());
+		StructuredQueryBuilder filter = request.getFilterQuery() == null ? null : parseQuery(request.getFilterQuery());
+		List<SortKey> sort = parseSort(request.getSort());
+		long size = request.getSize() == null ? DEFAULT_SIZE : request.getSize();
+		long offset = offset(request, size);
+
+		Hits hits = new Hits();
+		lock.readLock().lock();
+		try {
+			BitSet matches = evaluate(query);
+			if (filter != null) {
+				matches.and(evaluate(filter));
+			}
+			matches.and(live);
+			List<Integer> ordered = new ArrayList<>(matches.cardinality());
+			for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+				ordered.add(i);
+			}
+			if (!sort.isEmpty()) {
+				Collections.sort(ordered, comparator(sort));
+			}
+			List<String> returned = request.getReturn() == null ? null : COMMA.splitToList(request.getReturn());
+			List<Hit> page = new ArrayList<>();
+			for (long i = offset; i < ordered.size() && i < offset + size; i++) {
+				page.add(hit(documents.get(ordered.get((int) i)), returned));
+			}
+			hits.withFound((long) ordered.size()).withHit(page);
+			if (request.getCursor() != null) {
+				hits.setCursor(CURSOR_PREFIX + (offset + page.size()));
+			} else {
+				hits.setStart(offset);
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		SearchStatus status = new SearchStatus().withRid(UUID.randomUUID().toString())
+				.withTimems(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		return new SearchResult().withStatus(status).withHits(hits);
+	}
+
+	/**
+	 * Fails, as suggesters are not supported, rather than calling a live
+	 * domain.
+	 */
+	@Override
+	public SuggestResult suggest(SuggestRequest request) {
+		throw new UnsupportedOperationException("InMemoryCloudSearchDomainClient does not support suggest");
+	}
+
+	private void delay() {
+		if (latencyNanos > 0) {
+			Uninterruptibles.sleepUninterruptibly(latencyNanos, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	/**
+	 * Reads and validates the actions of an upload, before any is applied.
+	 */
+	private static List<Action> parse(UploadDocumentsRequest request) {
+		JsonNode batch;
+		try {
+			byte[] json = ByteStreams.toByteArray(ByteStreams.limit(request.getDocuments(), MAX_BATCH_BYTES + 1));
+			if (json.length > MAX_BATCH_BYTES)
+				throw error("Request size exceeded " + MAX_BATCH_BYTES + " bytes");
+			batch = SdfMapper.MAPPER.readTree(json);
+		} catch (IOException e) {
+			throw error("Unable to parse the batch: " + e.getMessage());
+		}
+		if (batch == null || !batch.isArray())
+			throw error("The batch must be a JSON array of actions");
+		List<Action> actions = new ArrayList<>(batch.size());
+		for (JsonNode action : batch) {
+			String type = action.path("type").asText();
+			String id = action.path("id").asText();
+			if (!ID.matcher(id).matches())
+				throw error("Invalid document id: " + id);
+			if ("delete".equals(type)) {
+				actions.add(new Action(id, null));
+			} else if ("add".equals(type)) {
+				JsonNode fields = action.get("fields");
+				if (fields == null || !fields.isObject())
+					throw error("The add of document " + id + " has no fields");
+				actions.add(new Action(id, values(fields)));
+			} else {
+				throw error("Invalid action type: " + type);
+			}
+		}
+		return actions;
+	}
+
+	/**
+	 * Reads the field values of a document as Strings, Longs and Doubles.
+	 */
+	private static Map<String, List<Object>> values(JsonNode fields) {
+		Map<String, List<Object>> values = new LinkedHashMap<>();
+		Iterator<Entry<String, JsonNode>> iterator = fields.fields();
+		while (iterator.hasNext()) {
+			Entry<String, JsonNode> field = iterator.next();
+			List<Object> list = new ArrayList<>();
+			if (field.getValue().isArray()) {
+				for (JsonNode element : field.getValue()) {
+					addValue(list, element);
+				}
+			} else {
+				addValue(list, field.getValue());
+			}
+			if (!list.isEmpty()) {
+				values.put(field.getKey(), list);
+			}
+		}
+		return values;
+	}
+
+	private static void addValue(List<Object> list, JsonNode node) {
+		if (node.isIntegralNumber() && node.canConvertToLong()) {
+			list.add(node.asLong());
+		} else if (node.isNumber()) {
+			list.add(node.asDouble());
+		} else if (node.isValueNode() && !node.isNull()) {
+			list.add(node.asText());
+		}
+	}
+
+	/**
+	 * Adds a document under a new ordinal and indexes the words of its
+	 * values.
+	 */
+	private void add(String id, Map<String, List<Object>> values) {
+		int ordinal = documents.size();
+		documents.add(new StoredDocument(id, values));
+		ordinals.put(id, ordinal);
+		live.set(ordinal);
+		for (Entry<String, List<Object>> field : values.entrySet()) {
+			FieldIndex index = fields.get(field.getKey());
+			if (index == null) {
+				index = new FieldIndex();
+				fields.put(field.getKey(), index);
+			}
+			index.documents.set(ordinal);
+			for (Object value : field.getValue()) {
+				if (value instanceof String) {
+					for (String word : QueryPredicate.tokenize((String) value)) {
+						Postings postings = index.words.get(word);
+						if (postings == null) {
+							postings = new Postings();
+							index.words.put(word, postings);
+						}
+						postings.add(ordinal);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Rebuilds the index with the live documents only, under new ordinals in
+	 * the order they were added. As this runs once at least half of the
+	 * ordinals are deleted, its cost is spread over the uploads that deleted
+	 * them.
+	 */
+	private void compact() {
+		List<StoredDocument> stored = new ArrayList<>(ordinals.size());
+		for (int i = live.nextSetBit(0); i >= 0; i = live.nextSetBit(i + 1)) {
+			stored.add(documents.get(i));
+		}
+		documents.clear();
+		ordinals.clear();
+		fields.clear();
+		live.clear();
+		for (StoredDocument document : stored) {
+			add(document.id, document.fields);
+		}
+	}
+
+	/**
+	 * @return The number of ordinals in the index, live or deleted.
+	 */
+	int ordinals() {
+		lock.readLock().lock();
+		try {
+			return documents.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Returns the ordinals of the documents matching a query. The result
+	 * may include deleted documents.
+	 */
+	private BitSet evaluate(StructuredQueryBuilder query) {
+		switch (query.getOperator()) {
+		case AND:
+			return intersection(query.getExpressions());
+		case OR:
+			BitSet union = new BitSet();
+			for (StructuredQueryBuilder expression : query.getExpressions()) {
+				union.or(evaluate(expression));
+			}
+			return union;
+		case NOT:
+			BitSet not = (BitSet) live.clone();
+			not.andNot(intersection(query.getExpressions()));
+			return not;
+		default:
+			break;
+		}
+		if (ExpressionType.MATCHALL.equals(query.getType())) {
+			return (BitSet) live.clone();
+		}
+		Predicate<Object> predicate = QueryPredicate.valuePredicate(query);
+		Collection<String> names = query.getField().isPresent() ? ImmutableList.of(query.getField().get())
+				: ImmutableList.copyOf(fields.keySet());
+		BitSet matches = new BitSet();
+		for (String name : names) {
+			FieldIndex index = fields.get(name);
+			if (index == null) {
+				continue;
+			}
+			BitSet candidates = candidates(query, index);
+			candidates.and(live);
+			for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+				for (Object value : documents.get(i).fields.get(name)) {
+					if (predicate.apply(value)) {
+						matches.set(i);
+						break;
+					}
+				}
+			}
+		}
+		return matches;
+	}
+
+	private BitSet intersection(Collection<StructuredQueryBuilder> expressions) {
+		BitSet intersection = null;
+		for (StructuredQueryBuilder expression : expressions) {
+			BitSet matches = evaluate(expression);
+			if (intersection == null) {
+				intersection = matches;
+			} else {
+				intersection.and(matches);
+			}
+		}
+		return intersection == null ? new BitSet() : intersection;
+	}
+
+	/**
+	 * Narrows a leaf expression down to the documents holding all its words,
+	 * or for a prefix, any word starting with it. Numbers, ranges and values
+	 * without words are matched against every document with the field.
+	 */
+	private static BitSet candidates(StructuredQueryBuilder query, FieldIndex index) {
+		Object value = query.getValue().orNull();
+		switch (query.getType()) {
+		case TERM:
+		case PHRASE:
+		case NEAR:
+			List<String> words = value instanceof String ? QueryPredicate.tokenize((String) value)
+					: ImmutableList.<String> of();
+			if (words.isEmpty()) {
+				break;
+			}
+			BitSet all = null;
+			for (String word : words) {
+				Postings postings = index.words.get(word);
+				if (postings == null) {
+					return new BitSet();
+				}
+				if (all == null) {
+					all = postings.toBitSet();
+				} else {
+					all.and(postings.toBitSet());
+				}
+			}
+			return all;
+		case PREFIX:
+			List<String> prefixWords = QueryPredicate.tokenize((String) value);
+			if (prefixWords.size() != 1 || prefixWords.get(0).length() != ((String) value).length()) {
+				break;
+			}
+			String prefix = prefixWords.get(0);
+			BitSet any = new BitSet();
+			for (Postings postings : index.words.subMap(prefix, prefix + Character.MAX_VALUE).values()) {
+				postings.or(any);
+			}
+			return any;
+		default:
+			break;
+		}
+		return (BitSet) index.documents.clone();
+	}
+
+	private static StructuredQueryBuilder parseQuery(String query) {
+		try {
+			return StructuredQueryParser.parse(query);
+		} catch (IllegalArgumentException e) {
+			throw new SearchException("Syntax error in query: " + e.getMessage());
+		}
+	}
+
+	private static List<SortKey> parseSort(String sort) {
+		List<SortKey> keys = new ArrayList<>();
+		if (sort == null) {
+			return keys;
+		}
+		for (String key : COMMA.split(sort)) {
+			List<String> parts = SPACE.splitToList(key);
+			if (parts.size() != 2 || !("asc".equals(parts.get(1)) || "desc".equals(parts.get(1))))
+				throw new SearchException("Invalid sort: " + key);
+			// there are no scores, so sorting on them keeps the index order
+			if (!"_score".equals(parts.get(0))) {
+				keys.add(new SortKey(parts.get(0), "asc".equals(parts.get(1))));
+			}
+		}
+		return keys;
+	}
+
+	private static long offset(SearchRequest request, long size) {
+		if (size < 0 || size > MAX_DEPTH)
+			throw new SearchException("The size must be from 0 to " + MAX_DEPTH);
+		String cursor = request.getCursor();
+		if (cursor == null) {
+			long start = request.getStart() == null ? 0L : request.getStart();
+			if (start < 0 || start + size > MAX_DEPTH)
+				throw new SearchException("The start plus size must be at most " + MAX_DEPTH
+						+ ", use a cursor to page deeper");
+			return start;
+		}
+		if (request.getStart() != null)
+			throw new SearchException("The start and cursor options can not be used together");
+		if (INITIAL_CURSOR.equals(cursor)) {
+			return 0L;
+		}
+		try {
+			if (cursor.startsWith(CURSOR_PREFIX)) {
+				return Long.parseLong(cursor.substring(CURSOR_PREFIX.length()));
+			}
+		} catch (NumberFormatException e) {
+			// invalid below
+		}
+		throw new SearchException("Invalid cursor: " + cursor);
+	}
+
+	private Comparator<Integer> comparator(final List<SortKey> sort) {
+		return new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				for (SortKey key : sort) {
+					List<Object> x = documents.get(a).fields.get(key.field);
+					List<Object> y = documents.get(b).fields.get(key.field);
+					// documents without the field sort last
+					if (x == null || y == null) {
+						if (x != y) {
+							return x == null ? 1 : -1;
+						}
+						continue;
+					}
+					Integer comparison = QueryPredicate.compare(x.get(0), y.get(0));
+					if (comparison != null && comparison != 0) {
+						return key.ascending ? comparison : -comparison;
+					}
+				}
+				return a.compareTo(b);
+			}
+		};
+	}
+
+	private static Hit hit(StoredDocument document, List<String> returned) {
+		Map<String, List<String>> fields = new LinkedHashMap<>();
+		for (Entry<String, List<Object>> field : document.fields.entrySet()) {
+			if (returned == null || returned.contains(ALL_FIELDS)
+					|| (!returned.contains(NO_FIELDS) && returned.contains(field.getKey()))) {
+				List<String> values = new ArrayList<>(field.getValue().size());
+				for (Object value : field.getValue()) {
+					values.add(value.toString());
+				}
+				fields.put(field.getKey(), values);
+			}
+		}
+		return new Hit().withId(document.id).withFields(fields);
+	}
+
+	private static DocumentServiceException error(String message) {
+		DocumentServiceException e = new DocumentServiceException(message);
+		e.setStatus("error");
+		return e;
+	}
+
+	/**
+	 * An add, or a delete if there are no fields.
+	 */
+	private static final class Action {
+		private final String id;
+		private final Map<String, List<Object>> fields;
+
+		private Action(String id, Map<String, List<Object>> fields) {
+			this.id = id;
+			this.fields = fields;
+		}
+	}
+
+	private static final class StoredDocument {
+		private final String id;
+		private final Map<String, List<Object>> fields;
+
+		private StoredDocument(String id, Map<String, List<Object>> fields) {
+			this.id = id;
+			this.fields = fields;
+		}
+	}
+
+	/**
+	 * The documents holding a field, and the postings of its words.
+	 */
+	private static final class FieldIndex {
+		private final BitSet documents = new BitSet();
+		private final TreeMap<String, Postings> words = new TreeMap<>();
+	}
+
+	/**
+	 * The ordinals of the documents holding a word, in ascending order.
+	 */
+	private static final class Postings {
+		private int[] ordinals = new int[2];
+		private int size;
+
+		private void add(int ordinal) {
+			if (size > 0 && ordinals[size - 1] == ordinal) {
+				return;
+			}
+			if (size == ordinals.length) {
+				int[] grown = new int[size * 2];
+				System.arraycopy(ordinals, 0, grown, 0, size);
+				ordinals = grown;
+			}
+			ordinals[size++] = ordinal;
+		}
+
+		private void or(BitSet bits) {
+			for (int i = 0; i < size; i++) {
+				bits.set(ordinals[i]);
+			}
+		}
+
+		private BitSet toBitSet() {
+			BitSet bits = new BitSet();
+			or(bits);
+			return bits;
+		}
+	}
+
+	private static final class SortKey {
+		private final String field;
+		private final boolean ascending;
+
+		private SortKey(String field, boolean ascending) {
+			this.field = field;
+			this.ascending = ascending;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An add or delete of a document, produced from a queue message for the
+ * {@link SQueueIndexer}.
+ * <p>
+ * This class is immutable if the document is.
+ *
+ * @author kiblerj
+ *
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class IndexAction<T> {
+
+	private final UploadAction<T> action;
+
+	private IndexAction(UploadAction<T> action) {
+		this.action = action;
+	}
+
+	/**
+	 * Adds or replaces the <code>document</code> with the specified
+	 * <code>id</code>.
+	 *
+	 * @param id
+	 *            The id of the document.
+	 * @param document
+	 *            The document.
+	 * @return IndexAction
+	 */
+	public static <T> IndexAction<T> add(String id, T document) {
+		checkNotNull(id, "Document id is null");
+		checkNotNull(document, "Document to add is null");
+		return new IndexAction<>(new UploadAction<>(id, document));
+	}
+
+	/**
+	 * Deletes the document with the specified <code>id</code>.
+	 *
+	 * @param id
+	 *            The id of the document.
+	 * @return IndexAction
+	 */
+	public static <T> IndexAction<T> delete(String id) {
+		checkNotNull(id, "Document id is null");
+		return new IndexAction<>(new UploadAction<T>(id));
+	}
+
+	/**
+	 * Returns the id of the document.
+	 *
+	 * @return String
+	 */
+	public String getId() {
+		return action.getId();
+	}
+
+	UploadAction<T> toUploadAction() {
+		return action;
+	}
+
+	@Override
+	public String toString() {
+		return action.toString();
+	}
+}
@@ -0,0 +1,107 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interns {@link StructuredQueryBuilder} expressions, so that equal
+ * expressions, and equal nested expressions, resolve to one shared instance.
+ * <p>
+ * Expressions are immutable and cache their hash code and rendered query, so
+ * a shared instance is hashed and rendered once. Interning is worthwhile for
+ * expressions which recur across many queries, such as tenant, visibility or
+ * locale filters:
+ *
+ * <pre>
+ * QueryInterner interner = new QueryInterner(4096);
+ * StructuredQueryBuilder query = interner.intern(and(eq(&quot;tenant&quot;, tenant), eq(&quot;visible&quot;, 1L), phrase(&quot;title&quot;, title)));
+ * </pre>
+ *
+ * Expressions are interned bottom up. The table has a fixed number of slots
+ * and holds the expressions weakly: an expression is dropped when it is no
+ * longer used elsewhere, or when an expression with a colliding hash code
+ * replaces it. Interning is always safe, it only shares less when entries are
+ * dropped.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class QueryInterner {
+
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	private final AtomicReferenceArray<WeakReference<StructuredQueryBuilder>> table;
+	private final int mask;
+
+	/**
+	 * Constructor
+	 *
+	 * @param capacity
+	 *            The number of slots, rounded up to a power of two.
+	 */
+	public QueryInterner(int capacity) {
+		if (capacity < 1 || capacity > MAXIMUM_CAPACITY)
+			throw new IllegalArgumentException("capacity must be between 1 and " + MAXIMUM_CAPACITY);
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		this.table = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Returns the shared instance of an expression.
+	 *
+	 * @param query
+	 *            The {@link StructuredQueryBuilder}
+	 * @return {@link StructuredQueryBuilder} equal to <code>query</code>, whose
+	 *         nested expressions are shared instances.
+	 */
+	public StructuredQueryBuilder intern(StructuredQueryBuilder query) {
+		checkNotNull(query, "query is null");
+		int slot = slot(query);
+		StructuredQueryBuilder existing = get(slot, query);
+		if (existing != null) {
+			// an interned expression was interned bottom up
+			return existing;
+		}
+
+		StructuredQueryBuilder canonical = query;
+		if (!query.getExpressions().isEmpty()) {
+			List<StructuredQueryBuilder> expressions = new ArrayList<>(query.getExpressions().size());
+			boolean changed = false;
+			for (StructuredQueryBuilder expression : query.getExpressions()) {
+				StructuredQueryBuilder interned = intern(expression);
+				changed |= interned != expression;
+				expressions.add(interned);
+			}
+			if (changed) {
+				canonical = StructuredQueryBuilder.compound(query.getOperator(), expressions);
+			}
+		}
+		table.set(slot, new WeakReference<>(canonical));
+		return canonical;
+	}
+
+	private StructuredQueryBuilder get(int slot, StructuredQueryBuilder query) {
+		WeakReference<StructuredQueryBuilder> reference = table.get(slot);
+		StructuredQueryBuilder existing = reference == null ? null : reference.get();
+		if (existing != null && existing.equals(query)) {
+			return existing;
+		}
+		return null;
+	}
+
+	private int slot(StructuredQueryBuilder query) {
+		int h = query.hashCode();
+		// spread the high bits, as the table is indexed by the low bits
+		return (h ^ (h >>> 16)) & mask;
+	}
+}
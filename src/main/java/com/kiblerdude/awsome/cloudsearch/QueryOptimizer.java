@@ -0,0 +1,302 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+
+/**
+ * Rewrites a {@link StructuredQueryBuilder} expression into an equivalent,
+ * shorter expression.
+ * <p>
+ * The optimizer:
+ * <ul>
+ * <li>flattens nested <code>and</code> and <code>or</code> expressions, e.g.
+ * <code>(and (and a b) c)</code> becomes <code>(and a b c)</code></li>
+ * <li>removes duplicate expressions</li>
+ * <li>replaces an <code>and</code> or <code>or</code> of a single expression
+ * with the expression</li>
+ * <li>folds <code>(not (not a))</code> into <code>a</code></li>
+ * <li>drops <code>matchall</code> from an <code>and</code>, and replaces an
+ * <code>or</code> containing <code>matchall</code> with
+ * <code>matchall</code></li>
+ * <li>merges <code>range</code> expressions on the same field, intersecting
+ * them in an <code>and</code> and joining overlapping ranges in an
+ * <code>or</code></li>
+ * <li>renders an <code>or</code> of several <code>term</code> expressions on
+ * the same field in the compact <code>field:'value'</code> form</li>
+ * </ul>
+ * Ranges are only merged when their bounds are of the same type, or are both
+ * numbers. Bounds bound later through a {@link QueryTemplate} are never
+ * merged.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * String query = QueryOptimizer.optimize(and(and(eq(&quot;a&quot;, &quot;x&quot;), eq(&quot;a&quot;, &quot;x&quot;)),
+ * 		range(&quot;b&quot;, 1L, 10L), range(&quot;b&quot;, 5L, 20L))).build();
+ * </pre>
+ *
+ * results in <code>( and ( term field= a 'x' ) ( range field= b { 5 , 10 } ) )</code>.
+ *
+ * @author kiblerj
+ *
+ */
+public final class QueryOptimizer {
+
+	private QueryOptimizer() {
+	}
+
+	/**
+	 * Optimizes a query.
+	 *
+	 * @param query
+	 *            {@link StructuredQueryBuilder}
+	 * @return {@link StructuredQueryBuilder} equivalent to <code>query</code>;
+	 *         <code>query</code> itself if it can not be simplified.
+	 */
+	public static StructuredQueryBuilder optimize(StructuredQueryBuilder query) {
+		checkNotNull(query, "query is null");
+		switch (query.getOperator()) {
+		case NOT:
+			return optimizeNot(query);
+		case AND:
+		case OR:
+			return optimizeCompound(query);
+		default:
+			return query;
+		}
+	}
+
+	private static StructuredQueryBuilder optimizeNot(StructuredQueryBuilder query) {
+		List<StructuredQueryBuilder> expressions = new ArrayList<>();
+		for (StructuredQueryBuilder expression : query.getExpressions()) {
+			expressions.add(optimize(expression));
+		}
+		// only a single negated expression can be folded
+		StructuredQueryBuilder optimized = expressions.get(0);
+		if (expressions.size() == 1 && ExpressionOperator.NOT.equals(optimized.getOperator())
+				&& optimized.getExpressions().size() == 1) {
+			return optimized.getExpressions().iterator().next();
+		}
+		if (unchanged(query, expressions)) {
+			return query;
+		}
+		return StructuredQueryBuilder.compound(ExpressionOperator.NOT, expressions);
+	}
+
+	private static StructuredQueryBuilder optimizeCompound(StructuredQueryBuilder query) {
+		ExpressionOperator op = query.getOperator();
+		boolean and = ExpressionOperator.AND.equals(op);
+
+		// optimize and flatten the nested expressions, removing duplicates
+		Set<StructuredQueryBuilder> flattened = new LinkedHashSet<>();
+		for (StructuredQueryBuilder expression : query.getExpressions()) {
+			StructuredQueryBuilder optimized = optimize(expression);
+			if (op.equals(optimized.getOperator())) {
+				flattened.addAll(optimized.getExpressions());
+			} else {
+				flattened.add(optimized);
+			}
+		}
+
+		StructuredQueryBuilder matchall = StructuredQueryBuilder.matchall();
+		if (flattened.contains(matchall)) {
+			if (!and)
+				return matchall;
+			flattened.remove(matchall);
+			if (flattened.isEmpty())
+				return matchall;
+		}
+
+		List<StructuredQueryBuilder> expressions = mergeRanges(flattened, and);
+		if (!and) {
+			compactTerms(expressions);
+		}
+
+		if (expressions.size() == 1) {
+			return expressions.get(0);
+		}
+		if (unchanged(query, expressions)) {
+			return query;
+		}
+		return StructuredQueryBuilder.compound(op, expressions);
+	}
+
+	/**
+	 * Returns true if the optimized expressions are the same instances, in the
+	 * same order, as the expressions of <code>query</code>.
+	 */
+	private static boolean unchanged(StructuredQueryBuilder query, List<StructuredQueryBuilder> expressions) {
+		if (query.getExpressions().size() != expressions.size())
+			return false;
+		int i = 0;
+		for (StructuredQueryBuilder expression : query.getExpressions()) {
+			if (expression != expressions.get(i++))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Merges the ranges on the same field, keeping the merged range at the
+	 * position of the first.
+	 */
+	private static List<StructuredQueryBuilder> mergeRanges(Set<StructuredQueryBuilder> expressions, boolean and) {
+		List<StructuredQueryBuilder> merged = new ArrayList<>(expressions);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			outer: for (int i = 0; i < merged.size(); i++) {
+				StructuredQueryBuilder first = merged.get(i);
+				if (!ExpressionType.RANGE.equals(first.getType()))
+					continue;
+				for (int j = i + 1; j < merged.size(); j++) {
+					StructuredQueryBuilder second = merged.get(j);
+					if (!ExpressionType.RANGE.equals(second.getType()) || !first.getField().equals(second.getField()))
+						continue;
+					StructuredQueryBuilder range = and ? intersect(first, second) : join(first, second);
+					if (range != null) {
+						merged.set(i, range);
+						merged.remove(j);
+						changed = true;
+						break outer;
+					}
+				}
+			}
+		}
+		return merged;
+	}
+
+	/**
+	 * Returns the intersection of two ranges, or null if the bounds can not
+	 * be compared.
+	 */
+	private static StructuredQueryBuilder intersect(StructuredQueryBuilder first, StructuredQueryBuilder second) {
+		Bound from = bound(first.getFrom(), first.isFromInclusive(), second.getFrom(), second.isFromInclusive(),
+				true, false);
+		Bound to = bound(first.getTo(), first.isToInclusive(), second.getTo(), second.isToInclusive(), false, false);
+		if (from == null || to == null)
+			return null;
+		return StructuredQueryBuilder.rangeOf(first.getField().get(), from.value, from.inclusive, to.value,
+				to.inclusive);
+	}
+
+	/**
+	 * Returns the union of two overlapping ranges, or null if the ranges do not
+	 * overlap or the bounds can not be compared.
+	 */
+	private static StructuredQueryBuilder join(StructuredQueryBuilder first, StructuredQueryBuilder second) {
+		if (!overlaps(first.getFrom(), first.isFromInclusive(), second.getTo(), second.isToInclusive())
+				|| !overlaps(second.getFrom(), second.isFromInclusive(), first.getTo(), first.isToInclusive()))
+			return null;
+		Bound from = bound(first.getFrom(), first.isFromInclusive(), second.getFrom(), second.isFromInclusive(),
+				false, true);
+		Bound to = bound(first.getTo(), first.isToInclusive(), second.getTo(), second.isToInclusive(), true, true);
+		if (from == null || to == null)
+			return null;
+		return StructuredQueryBuilder.rangeOf(first.getField().get(), from.value, from.inclusive, to.value,
+				to.inclusive);
+	}
+
+	/**
+	 * Returns true if the lower bound <code>from</code> is below the upper
+	 * bound <code>to</code>, or equal to it and either bound is inclusive, so
+	 * that the ranges leave no gap. An absent bound is unbounded.
+	 */
+	private static boolean overlaps(Optional<Object> from, boolean fromInclusive, Optional<Object> to,
+			boolean toInclusive) {
+		if (!from.isPresent() || !to.isPresent())
+			return true;
+		Integer comparison = compare(from.get(), to.get());
+		return comparison != null && (comparison < 0 || comparison == 0 && (fromInclusive || toInclusive));
+	}
+
+	/**
+	 * Returns the greater (or the lesser) of two bounds, or null if the bounds
+	 * can not be compared. An absent bound is unbounded, so it is the result
+	 * when widening a range, and the other bound is the result when narrowing
+	 * it. Equal bounds are inclusive if either is when widening, and if both
+	 * are when narrowing.
+	 */
+	private static Bound bound(Optional<Object> a, boolean aInclusive, Optional<Object> b, boolean bInclusive,
+			boolean greater, boolean widen) {
+		if (!a.isPresent())
+			return widen ? Bound.UNBOUNDED : new Bound(b.orNull(), bInclusive);
+		if (!b.isPresent())
+			return widen ? Bound.UNBOUNDED : new Bound(a.get(), aInclusive);
+		Integer comparison = compare(a.get(), b.get());
+		if (comparison == null)
+			return null;
+		if (comparison == 0)
+			return new Bound(a.get(), widen ? aInclusive || bInclusive : aInclusive && bInclusive);
+		return (comparison > 0) == greater ? new Bound(a.get(), aInclusive) : new Bound(b.get(), bInclusive);
+	}
+
+	/**
+	 * Compares two literal values, or returns null if they are not comparable.
+	 */
+	private static Integer compare(Object a, Object b) {
+		if (a instanceof Long && b instanceof Long) {
+			return ((Long) a).compareTo((Long) b);
+		}
+		if (isNumber(a) && isNumber(b)) {
+			return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+		}
+		if (a instanceof String && b instanceof String) {
+			return ((String) a).compareTo((String) b);
+		}
+		if (a instanceof Date && b instanceof Date) {
+			return ((Date) a).compareTo((Date) b);
+		}
+		return null;
+	}
+
+	private static boolean isNumber(Object value) {
+		return value instanceof Long || value instanceof Double;
+	}
+
+	/**
+	 * A range bound; a null value is unbounded.
+	 */
+	private static final class Bound {
+		private static final Bound UNBOUNDED = new Bound(null, false);
+
+		private final Object value;
+		private final boolean inclusive;
+
+		private Bound(Object value, boolean inclusive) {
+			this.value = value;
+			this.inclusive = inclusive;
+		}
+	}
+
+	/**
+	 * Renders the terms in compact form where there are several terms on the
+	 * same field.
+	 */
+	private static void compactTerms(List<StructuredQueryBuilder> expressions) {
+		Map<String, Integer> terms = new LinkedHashMap<>();
+		for (StructuredQueryBuilder expression : expressions) {
+			if (ExpressionType.TERM.equals(expression.getType()) && expression.getField().isPresent()) {
+				String field = expression.getField().get();
+				Integer count = terms.get(field);
+				terms.put(field, count == null ? 1 : count + 1);
+			}
+		}
+		for (int i = 0; i < expressions.size(); i++) {
+			StructuredQueryBuilder expression = expressions.get(i);
+			if (ExpressionType.TERM.equals(expression.getType()) && expression.getField().isPresent()
+					&& terms.get(expression.getField().get()) > 1) {
+				expressions.set(i, expression.compact());
+			}
+		}
+	}
+}
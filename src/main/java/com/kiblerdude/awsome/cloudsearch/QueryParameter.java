@@ -0,0 +1,49 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A named placeholder for a value in a {@link QueryTemplate}.
+ * <p>
+ * Parameters are created with {@link StructuredQueryBuilder#param(String)}
+ * and used in place of a value:
+ *
+ * <pre>
+ * QueryTemplate template = QueryTemplate.compile(eq(&quot;category&quot;, param(&quot;cat&quot;)));
+ * </pre>
+ *
+ * @author kiblerj
+ *
+ */
+public final class QueryParameter {
+
+	private final String name;
+
+	QueryParameter(String name) {
+		this.name = checkNotNull(name, "name is null");
+	}
+
+	/**
+	 * Returns the name of the parameter.
+	 *
+	 * @return String
+	 */
+	public String getName() {
+		return name;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		return obj instanceof QueryParameter && name.equals(((QueryParameter) obj).name);
+	}
+
+	@Override
+	public int hashCode() {
+		return name.hashCode();
+	}
+
+	@Override
+	public String toString() {
+		return "?" + name;
+	}
+}
@@ -0,0 +1,399 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.BeanDescription;
+import com.fasterxml.jackson.databind.introspect.AnnotatedMember;
+import com.fasterxml.jackson.databind.introspect.BeanPropertyDefinition;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A structured query compiled to a {@link Predicate} over documents held in
+ * memory, to filter documents locally with the same criteria sent to
+ * Cloudsearch.
+ * <p>
+ * The query is compiled once against the Jackson annotated document class:
+ * each field in the query is resolved to the accessor of the document
+ * property with that name, and literal values are tokenized up front. Fields
+ * not in the document class are rejected when compiling. Evaluating the
+ * predicate only reads the properties used by the query.
+ * <p>
+ * Cloudsearch analyzes text fields, and the predicate can only approximate
+ * it. Text is split into words at any character that is not a letter or a
+ * digit and compared ignoring case; there is no stemming, stopwords or
+ * synonyms. A String <code>term</code> matches a value equal to the term or
+ * containing its words in order; <code>phrase</code> matches the words in
+ * order, <code>prefix</code> a value or word starting with the prefix, and
+ * <code>near</code> all the words within the distance of each other.
+ * Numbers, dates and literal Strings are compared exactly, and a
+ * multi-valued property matches if any of its values matches. Expressions
+ * without a field are evaluated against every property.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * Predicate&lt;MyDocument&gt; predicate = QueryPredicate.compile(and(eq(&quot;genre&quot;, &quot;drama&quot;), range(&quot;year&quot;, 1990L, 2000L)),
+ * 		MyDocument.class);
+ * Iterable&lt;MyDocument&gt; matching = Iterables.filter(documents, predicate);
+ * </pre>
+ *
+ * This class is immutable and thread safe.
+ *
+ * @author kiblerj
+ *
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class QueryPredicate<T> implements Predicate<T> {
+
+	private final Predicate<Object> predicate;
+	private final String query;
+
+	private QueryPredicate(Predicate<Object> predicate, String query) {
+		this.predicate = predicate;
+		this.query = query;
+	}
+
+	/**
+	 * Compiles a query to a predicate over documents of
+	 * <code>documentClass</code>.
+	 *
+	 * @param query
+	 *            The {@link StructuredQueryBuilder}
+	 * @param documentClass
+	 *            The Jackson annotated document class.
+	 * @return {@link QueryPredicate}
+	 * @throws IllegalArgumentException
+	 *             If the query uses a field which is not a property of the
+	 *             document class.
+	 * @throws IllegalStateException
+	 *             If the query contains parameters.
+	 */
+	public static <T> QueryPredicate<T> compile(StructuredQueryBuilder query, Class<T> documentClass) {
+		checkNotNull(query, "query is null");
+		checkNotNull(documentClass, "documentClass is null");
+		String rendered = query.build();
+		BeanDescription description = SdfMapper.MAPPER.getSerializationConfig().introspect(
+				SdfMapper.MAPPER.constructType(documentClass));
+		Map<String, AnnotatedMember> accessors = new LinkedHashMap<>();
+		for (BeanPropertyDefinition property : description.findProperties()) {
+			AnnotatedMember accessor = property.getAccessor();
+			if (accessor != null) {
+				accessor.fixAccess();
+				accessors.put(property.getName(), accessor);
+			}
+		}
+		return new QueryPredicate<>(compile(query, accessors), rendered);
+	}
+
+	@Override
+	public boolean apply(T document) {
+		return document != null && predicate.apply(document);
+	}
+
+	@Override
+	public String toString() {
+		return query;
+	}
+
+	private static Predicate<Object> compile(StructuredQueryBuilder query, Map<String, AnnotatedMember> accessors) {
+		switch (query.getOperator()) {
+		case AND:
+			return Predicates.and(compileAll(query, accessors));
+		case OR:
+			return Predicates.or(compileAll(query, accessors));
+		case NOT:
+			return Predicates.not(Predicates.and(compileAll(query, accessors)));
+		default:
+			break;
+		}
+
+		if (ExpressionType.MATCHALL.equals(query.getType())) {
+			return Predicates.alwaysTrue();
+		}
+		List<AnnotatedMember> members;
+		if (query.getField().isPresent()) {
+			AnnotatedMember accessor = accessors.get(query.getField().get());
+			if (accessor == null)
+				throw new IllegalArgumentException("Unknown field " + query.getField().get());
+			members = ImmutableList.of(accessor);
+		} else {
+			members = ImmutableList.copyOf(accessors.values());
+		}
+		return new PropertyPredicate(members, valuePredicate(query));
+	}
+
+	/**
+	 * Compiles a <code>term</code>, <code>phrase</code>, <code>prefix</code>,
+	 * <code>near</code> or <code>range</code> expression to a predicate over
+	 * a single field value, ignoring its field.
+	 *
+	 * @throws IllegalArgumentException
+	 *             If the expression is of another type.
+	 */
+	static Predicate<Object> valuePredicate(StructuredQueryBuilder query) {
+		switch (query.getType()) {
+		case TERM:
+			return new TermPredicate(query.getValue().get());
+		case PHRASE:
+			return new PhrasePredicate((String) query.getValue().get());
+		case PREFIX:
+			return new PrefixPredicate((String) query.getValue().get());
+		case NEAR:
+			return new NearPredicate((String) query.getValue().get(), query.getDistance());
+		case RANGE:
+			return new RangePredicate(query.getFrom().orNull(), query.isFromInclusive(), query.getTo().orNull(),
+					query.isToInclusive());
+		default:
+			throw new IllegalArgumentException("Unsupported expression " + query);
+		}
+	}
+
+	private static List<Predicate<Object>> compileAll(StructuredQueryBuilder query,
+			Map<String, AnnotatedMember> accessors) {
+		List<Predicate<Object>> predicates = new ArrayList<>();
+		for (StructuredQueryBuilder expression : query.getExpressions()) {
+			predicates.add(compile(expression, accessors));
+		}
+		return predicates;
+	}
+
+	/**
+	 * Splits text into lower case words.
+	 */
+	static List<String> tokenize(String text) {
+		List<String> tokens = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= text.length(); i++) {
+			boolean part = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+			if (part && start < 0) {
+				start = i;
+			} else if (!part && start >= 0) {
+				tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+				start = -1;
+			}
+		}
+		return tokens;
+	}
+
+	/**
+	 * Compares a property value to a literal value, or returns null if they
+	 * are not comparable. Dates compare to Strings in their Cloudsearch
+	 * format.
+	 */
+	static Integer compare(Object value, Object literal) {
+		if (value instanceof Number && literal instanceof Number) {
+			if (isIntegral(value) && isIntegral(literal)) {
+				long a = ((Number) value).longValue();
+				long b = ((Number) literal).longValue();
+				return a < b ? -1 : (a == b ? 0 : 1);
+			}
+			return Double.compare(((Number) value).doubleValue(), ((Number) literal).doubleValue());
+		}
+		if (value instanceof Date) {
+			if (literal instanceof Date) {
+				return ((Date) value).compareTo((Date) literal);
+			}
+			value = StructuredQueryBuilder.formatDate((Date) value);
+		}
+		if (literal instanceof Date) {
+			literal = StructuredQueryBuilder.formatDate((Date) literal);
+		}
+		if (value instanceof String && literal instanceof String) {
+			return ((String) value).compareTo((String) literal);
+		}
+		return null;
+	}
+
+	private static boolean isIntegral(Object value) {
+		return value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte;
+	}
+
+	/**
+	 * Returns true if <code>words</code> occur in order in
+	 * <code>tokens</code>.
+	 */
+	private static boolean containsPhrase(List<String> tokens, List<String> words) {
+		if (words.isEmpty())
+			return false;
+		for (int i = 0; i + words.size() <= tokens.size(); i++) {
+			if (tokens.subList(i, i + words.size()).equals(words)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Matches the values of document properties; a multi-valued property
+	 * matches if any of its values matches.
+	 */
+	private static final class PropertyPredicate implements Predicate<Object> {
+		private final List<AnnotatedMember> members;
+		private final Predicate<Object> value;
+
+		PropertyPredicate(List<AnnotatedMember> members, Predicate<Object> value) {
+			this.members = members;
+			this.value = value;
+		}
+
+		@Override
+		public boolean apply(Object document) {
+			for (AnnotatedMember member : members) {
+				if (matchesAny(member.getValue(document))) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		private boolean matchesAny(Object value) {
+			if (value == null) {
+				return false;
+			}
+			if (value instanceof Collection) {
+				for (Object element : (Collection<?>) value) {
+					if (element != null && this.value.apply(element)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			if (value instanceof Object[]) {
+				for (Object element : (Object[]) value) {
+					if (element != null && this.value.apply(element)) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return this.value.apply(value);
+		}
+	}
+
+	private static final class TermPredicate implements Predicate<Object> {
+		private final Object term;
+		private final List<String> words;
+
+		TermPredicate(Object term) {
+			this.term = term;
+			this.words = term instanceof String ? tokenize((String) term) : ImmutableList.<String> of();
+		}
+
+		@Override
+		public boolean apply(Object value) {
+			if (term instanceof String && value instanceof String) {
+				return term.equals(value) || containsPhrase(tokenize((String) value), words);
+			}
+			Integer comparison = compare(value, term);
+			return comparison != null && comparison == 0;
+		}
+	}
+
+	private static final class PhrasePredicate implements Predicate<Object> {
+		private final List<String> words;
+
+		PhrasePredicate(String phrase) {
+			this.words = tokenize(phrase);
+		}
+
+		@Override
+		public boolean apply(Object value) {
+			return value instanceof String && containsPhrase(tokenize((String) value), words);
+		}
+	}
+
+	private static final class PrefixPredicate implements Predicate<Object> {
+		private final String prefix;
+		private final String lowerCasePrefix;
+
+		PrefixPredicate(String prefix) {
+			this.prefix = prefix;
+			this.lowerCasePrefix = prefix.toLowerCase(Locale.ROOT);
+		}
+
+		@Override
+		public boolean apply(Object value) {
+			if (!(value instanceof String)) {
+				return false;
+			}
+			if (((String) value).startsWith(prefix)) {
+				return true;
+			}
+			for (String token : tokenize((String) value)) {
+				if (token.startsWith(lowerCasePrefix)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class NearPredicate implements Predicate<Object> {
+		private final List<String> words;
+		private final int distance;
+
+		NearPredicate(String phrase, int distance) {
+			this.words = tokenize(phrase);
+			this.distance = distance;
+		}
+
+		@Override
+		public boolean apply(Object value) {
+			if (!(value instanceof String) || words.isEmpty()) {
+				return false;
+			}
+			// look for a window of the words plus the distance which holds all
+			// the words
+			List<String> tokens = tokenize((String) value);
+			int window = words.size() + distance;
+			for (int i = 0; i < tokens.size(); i++) {
+				if (words.contains(tokens.get(i))
+						&& tokens.subList(i, Math.min(tokens.size(), i + window)).containsAll(words)) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	private static final class RangePredicate implements Predicate<Object> {
+		private final Object from;
+		private final boolean fromInclusive;
+		private final Object to;
+		private final boolean toInclusive;
+
+		RangePredicate(Object from, boolean fromInclusive, Object to, boolean toInclusive) {
+			this.from = from;
+			this.fromInclusive = fromInclusive;
+			this.to = to;
+			this.toInclusive = toInclusive;
+		}
+
+		@Override
+		public boolean apply(Object value) {
+			if (from != null) {
+				Integer comparison = compare(value, from);
+				if (comparison == null || comparison < 0 || (comparison == 0 && !fromInclusive))
+					return false;
+			}
+			if (to != null) {
+				Integer comparison = compare(value, to);
+				if (comparison == null || comparison > 0 || (comparison == 0 && !toInclusive))
+					return false;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,136 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * A structured query compiled once with named parameters, whose values are
+ * bound for each search.
+ * <p>
+ * Compiling renders the query into the fixed fragments between parameters.
+ * Binding only formats the parameter values and splices them between the
+ * fragments, so it does not rebuild or render the expression tree. Values are
+ * quoted and escaped the same way as in {@link StructuredQueryBuilder}.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * QueryTemplate template = QueryTemplate.compile(and(eq(&quot;category&quot;, param(&quot;cat&quot;)),
+ * 		range(&quot;price&quot;, param(&quot;min&quot;), param(&quot;max&quot;))));
+ *
+ * String query = template.bind(ImmutableMap.&lt;String, Object&gt; of(&quot;cat&quot;, &quot;books&quot;, &quot;min&quot;, 10L, &quot;max&quot;, 20L));
+ * </pre>
+ *
+ * This class is immutable and thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class QueryTemplate {
+
+	// estimated length of a bound value, used to size the query buffer
+	private static final int VALUE_LENGTH_ESTIMATE = 16;
+
+	private final String[] fragments;
+	private final QueryParameter[] parameters;
+	// parameters of phrase and prefix expressions, which only take a String
+	private final boolean[] text;
+	private final int length;
+
+	private QueryTemplate(String[] fragments, QueryParameter[] parameters, boolean[] text) {
+		this.fragments = fragments;
+		this.parameters = parameters;
+		this.text = text;
+		int length = 0;
+		for (String fragment : fragments) {
+			length += fragment.length();
+		}
+		this.length = length;
+	}
+
+	/**
+	 * Compiles a query containing parameters.
+	 *
+	 * @param query
+	 *            The query, with parameters created by
+	 *            {@link StructuredQueryBuilder#param(String)}.
+	 * @return {@link QueryTemplate}
+	 */
+	public static QueryTemplate compile(StructuredQueryBuilder query) {
+		checkNotNull(query, "query is null");
+		List<Object> parts = new ArrayList<>();
+		StringBuilder builder = new StringBuilder(64);
+		query.renderTemplate(builder, parts);
+		parts.add(builder.toString());
+
+		int count = parts.size() / 3;
+		String[] fragments = new String[count + 1];
+		QueryParameter[] parameters = new QueryParameter[count];
+		boolean[] text = new boolean[count];
+		for (int i = 0; i < count; i++) {
+			fragments[i] = (String) parts.get(3 * i);
+			parameters[i] = (QueryParameter) parts.get(3 * i + 1);
+			text[i] = (Boolean) parts.get(3 * i + 2);
+		}
+		fragments[count] = (String) parts.get(3 * count);
+		return new QueryTemplate(fragments, parameters, text);
+	}
+
+	/**
+	 * Returns the names of the parameters of the template.
+	 *
+	 * @return {@link ImmutableSet}
+	 */
+	public ImmutableSet<String> getParameterNames() {
+		ImmutableSet.Builder<String> names = ImmutableSet.builder();
+		for (QueryParameter parameter : parameters) {
+			names.add(parameter.getName());
+		}
+		return names.build();
+	}
+
+	/**
+	 * Binds values to the parameters and builds the AWS Cloudsearch Structured
+	 * Query as a String.
+	 *
+	 * @param values
+	 *            The value of each parameter, by name. Values may be a String,
+	 *            Number or Date, and must be a String in a phrase or prefix
+	 *            expression.
+	 * @return {@link String} representation of the AWS Cloudsearch Structured
+	 *         Query.
+	 * @throws IllegalArgumentException
+	 *             If a parameter has no value, or a value of an unsupported
+	 *             type for its expression.
+	 */
+	public String bind(Map<String, ?> values) {
+		checkNotNull(values, "values are null");
+		StringBuilder builder = new StringBuilder(length + VALUE_LENGTH_ESTIMATE * parameters.length);
+		for (int i = 0; i < parameters.length; i++) {
+			builder.append(fragments[i]);
+			Object value = values.get(parameters[i].getName());
+			if (value == null)
+				throw new IllegalArgumentException("No value bound to parameter " + parameters[i].getName());
+			if (text[i] && !(value instanceof String))
+				throw new IllegalArgumentException("Parameter " + parameters[i].getName()
+						+ " of a phrase or prefix expression must be bound to a String");
+			StructuredQueryBuilder.appendLiteral(builder, value);
+		}
+		builder.append(fragments[parameters.length]);
+		return builder.toString();
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder(length + VALUE_LENGTH_ESTIMATE * parameters.length);
+		for (int i = 0; i < parameters.length; i++) {
+			builder.append(fragments[i]).append(parameters[i]);
+		}
+		return builder.append(fragments[parameters.length]).toString();
+	}
+}
@@ -0,0 +1,78 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+/**
+ * Formats dates as Cloudsearch expects them: in UTC according to IETF
+ * RFC3339, to the second, for example <code>1970-01-01T00:00:00Z</code>.
+ * <p>
+ * The date is computed from the epoch milliseconds with integer arithmetic
+ * and written directly into the buffer, without a formatter, calendar or
+ * intermediate strings, so it is safe to use from any thread. Dates use the
+ * proleptic Gregorian calendar, as RFC3339 does.
+ * <p>
+ * This class is package protected.
+ *
+ * @author kiblerj
+ *
+ */
+final class Rfc3339 {
+
+	private static final long MILLIS_PER_SECOND = 1000L;
+	private static final long SECONDS_PER_DAY = 86400L;
+
+	private Rfc3339() {
+	}
+
+	/**
+	 * Appends the date at <code>epochMillis</code>.
+	 *
+	 * @param builder
+	 *            The buffer to append to.
+	 * @param epochMillis
+	 *            Milliseconds since 1970-01-01T00:00:00Z.
+	 */
+	static void append(StringBuilder builder, long epochMillis) {
+		long epochSeconds = floorDiv(epochMillis, MILLIS_PER_SECOND);
+		long days = floorDiv(epochSeconds, SECONDS_PER_DAY);
+		int secondOfDay = (int) (epochSeconds - days * SECONDS_PER_DAY);
+
+		// civil from days, shifting the year to start in March so that the
+		// leap day is the last day of the year
+		long z = days + 719468;
+		long era = floorDiv(z, 146097);
+		long dayOfEra = z - era * 146097;
+		long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+		long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+		long shiftedMonth = (5 * dayOfYear + 2) / 153;
+		int day = (int) (dayOfYear - (153 * shiftedMonth + 2) / 5 + 1);
+		int month = (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+		long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+		if (year >= 0 && year < 10000) {
+			appendDigits(builder, (int) year, 4);
+		} else {
+			builder.append(year);
+		}
+		builder.append('-');
+		appendDigits(builder, month, 2);
+		builder.append('-');
+		appendDigits(builder, day, 2);
+		builder.append('T');
+		appendDigits(builder, secondOfDay / 3600, 2);
+		builder.append(':');
+		appendDigits(builder, secondOfDay / 60 % 60, 2);
+		builder.append(':');
+		appendDigits(builder, secondOfDay % 60, 2);
+		builder.append('Z');
+	}
+
+	private static void appendDigits(StringBuilder builder, int value, int digits) {
+		for (int divisor = digits == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+			builder.append((char) ('0' + value / divisor % 10));
+		}
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+	}
+}
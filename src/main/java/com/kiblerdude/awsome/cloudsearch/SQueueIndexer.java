@@ -0,0 +1,352 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
+import com.kiblerdude.awsome.sqs.ReceivedMessage;
+import com.kiblerdude.awsome.sqs.SQueue;
+
+/**
+ * Indexes the messages of a {@link SQueue} into Cloudsearch.
+ * <p>
+ * Each message is mapped to an {@link IndexAction} and added to a batch of
+ * up to 5 MB. A later action for a document id already in the batch replaces
+ * the earlier one, so a document changed several times is uploaded once. The
+ * batch is uploaded when the next action does not fit or when its first
+ * message is older than the maximum delay, and the messages of the batch are
+ * deleted from the queue only after the upload succeeds. A failed upload
+ * leaves its messages on the queue to be delivered again, so every message is
+ * indexed at least once. The visibility timeout of the queue must be longer
+ * than the maximum delay.
+ * <p>
+ * A message that can not be read or mapped, or whose action is larger than a
+ * batch, is left on the queue and is delivered again until the redrive policy
+ * of the queue moves it to a dead letter queue. A mapping function may return
+ * <code>null</code> to skip a message, which is then deleted with its batch.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * SQueueIndexer&lt;MyEvent, MyDocument&gt; indexer = SQueueIndexer.builder(queue, client,
+ * 		new Function&lt;MyEvent, IndexAction&lt;MyDocument&gt;&gt;() {
+ * 			public IndexAction&lt;MyDocument&gt; apply(MyEvent event) {
+ * 				return event.isDeleted() ? IndexAction.&lt;MyDocument&gt; delete(event.getId())
+ * 						: IndexAction.add(event.getId(), event.getDocument());
+ * 			}
+ * 		}).maxDelay(1, TimeUnit.SECONDS).build();
+ * executor.submit(indexer);
+ * ...
+ * indexer.close();
+ * </pre>
+ *
+ * This class is not thread safe, except for {@link #close()}. It is meant to
+ * be run by a single thread; several indexers may consume the same queue.
+ *
+ * @author kiblerj
+ *
+ * @param <M>
+ *            A Jackson annotated class representing the messages in the
+ *            queue.
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class SQueueIndexer<M, T> implements Runnable, Closeable {
+
+	private static final long DEFAULT_MAX_DELAY_MILLIS = 1000L;
+	private static final long ERROR_BACKOFF_MILLIS = 1000L;
+
+	private final SQueue<M> queue;
+	private final AmazonCloudSearchDomainClient client;
+	private final Function<? super M, IndexAction<T>> mapper;
+	private final long maxBatchBytes;
+	private final long maxDelayNanos;
+	private final Metrics metrics;
+	private final Ticker ticker;
+
+	// the serialized action of each document id in the batch, in arrival order
+	private final Map<String, byte[]> actions;
+	private final List<ReceivedMessage<M>> received;
+	private final SdfBatch batch;
+	private long actionBytes;
+	private long batchStarted;
+	private volatile boolean running = true;
+
+	private SQueueIndexer(Builder<M, T> builder) {
+		this.queue = builder.queue;
+		this.client = builder.client;
+		this.mapper = builder.mapper;
+		this.maxBatchBytes = builder.maxBatchBytes;
+		this.maxDelayNanos = builder.maxDelayNanos;
+		this.metrics = builder.metrics;
+		this.ticker = builder.ticker;
+		this.actions = new LinkedHashMap<>();
+		this.received = new ArrayList<>();
+		this.batch = new SdfBatch(maxBatchBytes);
+	}
+
+	/**
+	 * Returns a {@link Builder} for an indexer with optional settings.
+	 *
+	 * @param queue
+	 *            The {@link SQueue} to consume
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param mapper
+	 *            Maps each message to an {@link IndexAction}, or
+	 *            <code>null</code> to skip the message
+	 * @return {@link Builder}
+	 */
+	public static <M, T> Builder<M, T> builder(SQueue<M> queue, AmazonCloudSearchDomainClient client,
+			Function<? super M, IndexAction<T>> mapper) {
+		return new Builder<>(queue, client, mapper);
+	}
+
+	/**
+	 * Indexes messages until {@link #close()} is called or the thread is
+	 * interrupted, then uploads the last batch. After a failed receive or
+	 * upload the indexer waits a second and carries on; the messages of a
+	 * failed upload are delivered again.
+	 */
+	@Override
+	public void run() {
+		while (running && !Thread.currentThread().isInterrupted()) {
+			try {
+				poll();
+			} catch (AmazonClientException e) {
+				try {
+					Thread.sleep(ERROR_BACKOFF_MILLIS);
+				} catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					running = false;
+				}
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Receives one message from the queue and adds it to the batch, uploading
+	 * the batch first if the action does not fit, and afterwards if the batch
+	 * is older than the maximum delay.
+	 *
+	 * @return <code>true</code> if a message was received
+	 */
+	public boolean poll() {
+		Optional<ReceivedMessage<M>> message;
+		try {
+			message = queue.receive();
+		} catch (IOException e) {
+			metrics.count(MetricNames.CLOUDSEARCH_INDEX_ERRORS, 1L);
+			return true;
+		}
+		if (message.isPresent()) {
+			metrics.count(MetricNames.CLOUDSEARCH_INDEX_MESSAGES, 1L);
+			add(message.get());
+		}
+		if (!received.isEmpty() && ticker.read() - batchStarted >= maxDelayNanos) {
+			flush();
+		}
+		return message.isPresent();
+	}
+
+	/**
+	 * Uploads the batch and deletes its messages from the queue. If the upload
+	 * fails the messages are left on the queue and the exception is thrown.
+	 */
+	public void flush() {
+		if (received.isEmpty())
+			return;
+		try {
+			if (!actions.isEmpty()) {
+				batch.clear();
+				for (byte[] action : actions.values()) {
+					batch.add(action);
+				}
+				metrics.record(MetricNames.CLOUDSEARCH_UPLOAD_ACTIONS, batch.count());
+				metrics.record(MetricNames.CLOUDSEARCH_UPLOAD_BYTES, batchBytes(actionBytes, actions.size()));
+				client.uploadDocuments(batch.toRequest());
+			}
+			queue.ack(received);
+			metrics.record(MetricNames.CLOUDSEARCH_INDEX_LATENCY, ticker.read() - batchStarted);
+		} catch (AmazonClientException e) {
+			metrics.count(MetricNames.CLOUDSEARCH_INDEX_ERRORS, received.size());
+			throw e;
+		} finally {
+			actions.clear();
+			received.clear();
+			actionBytes = 0;
+		}
+	}
+
+	/**
+	 * Stops {@link #run()} after the message being received, and uploads the
+	 * last batch.
+	 */
+	@Override
+	public void close() {
+		running = false;
+	}
+
+	private void add(ReceivedMessage<M> message) {
+		IndexAction<T> action;
+		try {
+			action = mapper.apply(message.getMessage());
+		} catch (RuntimeException e) {
+			// one bad message must not stop the indexer, it is delivered again
+			metrics.count(MetricNames.CLOUDSEARCH_INDEX_ERRORS, 1L);
+			return;
+		}
+		if (action == null) {
+			track(message);
+			return;
+		}
+		byte[] json;
+		try {
+			json = SdfMapper.MAPPER.writeValueAsBytes(action.toUploadAction());
+		} catch (JsonProcessingException e) {
+			metrics.count(MetricNames.CLOUDSEARCH_INDEX_ERRORS, 1L);
+			return;
+		}
+		if (batchBytes(json.length, 1) > maxBatchBytes) {
+			metrics.count(MetricNames.CLOUDSEARCH_INDEX_ERRORS, 1L);
+			return;
+		}
+
+		byte[] previous = actions.get(action.getId());
+		long bytes = previous == null ? batchBytes(actionBytes + json.length, actions.size() + 1)
+				: batchBytes(actionBytes - previous.length + json.length, actions.size());
+		if (bytes > maxBatchBytes) {
+			flush();
+			previous = null;
+		}
+		if (previous != null) {
+			actionBytes -= previous.length;
+			metrics.count(MetricNames.CLOUDSEARCH_INDEX_COALESCED, 1L);
+		}
+		actions.put(action.getId(), json);
+		actionBytes += json.length;
+		track(message);
+	}
+
+	private void track(ReceivedMessage<M> message) {
+		if (received.isEmpty()) {
+			batchStarted = ticker.read();
+		}
+		received.add(message);
+	}
+
+	/**
+	 * Returns the size of a JSON array of <code>count</code> actions totalling
+	 * <code>bytes</code>.
+	 */
+	private static long batchBytes(long bytes, int count) {
+		return bytes + Math.max(0, count - 1) + 2;
+	}
+
+	/**
+	 * Builds a {@link SQueueIndexer} with optional settings.
+	 *
+	 * @param <M>
+	 *            A Jackson annotated class representing the messages in the
+	 *            queue.
+	 * @param <T>
+	 *            A class representing the documents in the Cloudsearch schema.
+	 */
+	public static final class Builder<M, T> {
+		private final SQueue<M> queue;
+		private final AmazonCloudSearchDomainClient client;
+		private final Function<? super M, IndexAction<T>> mapper;
+		private long maxBatchBytes = SdfBatch.MAX_BATCH_BYTES;
+		private long maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_DELAY_MILLIS);
+		private Metrics metrics = Metrics.NOOP;
+		private Ticker ticker = Ticker.systemTicker();
+
+		private Builder(SQueue<M> queue, AmazonCloudSearchDomainClient client,
+				Function<? super M, IndexAction<T>> mapper) {
+			this.queue = checkNotNull(queue, "queue is null");
+			this.client = checkNotNull(client, "client is null");
+			this.mapper = checkNotNull(mapper, "mapper is null");
+		}
+
+		/**
+		 * Sets the maximum size of each upload batch in bytes. Defaults to the
+		 * Cloudsearch limit of 5 MB.
+		 *
+		 * @param maxBatchBytes
+		 * @return Builder
+		 */
+		public Builder<M, T> maxBatchBytes(long maxBatchBytes) {
+			if (maxBatchBytes > SdfBatch.MAX_BATCH_BYTES)
+				throw new IllegalArgumentException("maxBatchBytes exceeds the Cloudsearch batch limit");
+			if (maxBatchBytes < 3)
+				throw new IllegalArgumentException("maxBatchBytes is too small");
+			this.maxBatchBytes = maxBatchBytes;
+			return this;
+		}
+
+		/**
+		 * Sets how long the first message of a batch may wait before the
+		 * batch is uploaded. Defaults to one second. The queue's long polling
+		 * adds up to two seconds while the queue is empty.
+		 *
+		 * @param maxDelay
+		 * @param unit
+		 * @return Builder
+		 */
+		public Builder<M, T> maxDelay(long maxDelay, TimeUnit unit) {
+			if (maxDelay < 0)
+				throw new IllegalArgumentException("maxDelay is negative");
+			this.maxDelayNanos = checkNotNull(unit, "unit is null").toNanos(maxDelay);
+			return this;
+		}
+
+		/**
+		 * Sets the {@link Metrics} receiving the batch sizes and counts.
+		 * Defaults to {@link Metrics#NOOP}.
+		 *
+		 * @param metrics
+		 * @return Builder
+		 */
+		public Builder<M, T> metrics(Metrics metrics) {
+			this.metrics = checkNotNull(metrics, "metrics is null");
+			return this;
+		}
+
+		/**
+		 * Sets the {@link Ticker} measuring the age of batches. Defaults to
+		 * the system ticker.
+		 *
+		 * @param ticker
+		 * @return Builder
+		 */
+		public Builder<M, T> ticker(Ticker ticker) {
+			this.ticker = checkNotNull(ticker, "ticker is null");
+			return this;
+		}
+
+		/**
+		 * Builds the {@link SQueueIndexer}.
+		 *
+		 * @return {@link SQueueIndexer}
+		 */
+		public SQueueIndexer<M, T> build() {
+			return new SQueueIndexer<>(this);
+		}
+	}
+}
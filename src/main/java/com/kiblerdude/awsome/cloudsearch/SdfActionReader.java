@@ -0,0 +1,170 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Reads SDF (Search Data Format) actions from a channel one JSON object at a
+ * time, without parsing or buffering the whole source in memory.
+ * <p>
+ * Both newline delimited JSON (one action per line) and one or more SDF action
+ * arrays are supported: whitespace, commas and array brackets between actions
+ * are skipped. The end offset of every action is tracked so that reading can
+ * be resumed from a checkpoint.
+ * <p>
+ * This class is package protected and is not thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+final class SdfActionReader {
+
+	private final ReadableByteChannel channel;
+	private final ByteBuffer buffer;
+
+	// offset in the source of the next byte in the buffer
+	private long position;
+	private byte[] action;
+	private int actionLength;
+	private boolean eof;
+
+	/**
+	 * Constructor
+	 *
+	 * @param channel
+	 *            The channel to read from, positioned at <code>offset</code>.
+	 * @param offset
+	 *            The offset of the channel in the source.
+	 * @param bufferSize
+	 *            The size of the read buffer in bytes.
+	 */
+	SdfActionReader(ReadableByteChannel channel, long offset, int bufferSize) {
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocate(bufferSize);
+		this.buffer.flip();
+		this.position = offset;
+		this.action = new byte[1024];
+	}
+
+	/**
+	 * Reads the next action.
+	 *
+	 * @return <code>true</code> if an action was read, or <code>false</code>
+	 *         at the end of the source.
+	 * @throws IOException
+	 *             If the source could not be read or is malformed.
+	 */
+	boolean next() throws IOException {
+		actionLength = 0;
+		int depth = 0;
+		boolean inString = false;
+		boolean escaped = false;
+		while (fill()) {
+			byte[] bytes = buffer.array();
+			int i = buffer.position();
+			int limit = buffer.limit();
+			if (depth == 0) {
+				// skip to the start of the next action
+				while (i < limit && isSeparator(bytes[i])) {
+					i++;
+				}
+				if (i == limit) {
+					advance(i);
+					continue;
+				}
+				if (bytes[i] != '{') {
+					throw new IOException("Malformed action at offset " + (position + i - buffer.position()));
+				}
+			}
+			int start = i;
+			for (; i < limit; i++) {
+				byte b = bytes[i];
+				if (inString) {
+					if (escaped) {
+						escaped = false;
+					} else if (b == '\\') {
+						escaped = true;
+					} else if (b == '"') {
+						inString = false;
+					}
+				} else if (b == '"') {
+					inString = true;
+				} else if (b == '{' || b == '[') {
+					depth++;
+				} else if (b == '}' || b == ']') {
+					if (--depth == 0) {
+						i++;
+						break;
+					}
+				}
+			}
+			append(bytes, start, i - start);
+			advance(i);
+			if (depth == 0) {
+				return true;
+			}
+		}
+		if (actionLength > 0) {
+			throw new IOException("Truncated action at offset " + (position - actionLength));
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the buffer holding the action last read by {@link #next()}. Only
+	 * the first {@link #actionLength()} bytes are valid.
+	 */
+	byte[] action() {
+		return action;
+	}
+
+	int actionLength() {
+		return actionLength;
+	}
+
+	/**
+	 * Returns the offset in the source just past the action last read.
+	 */
+	long offset() {
+		return position;
+	}
+
+	private boolean fill() throws IOException {
+		if (buffer.hasRemaining()) {
+			return true;
+		}
+		if (eof) {
+			return false;
+		}
+		buffer.clear();
+		int read = 0;
+		while (read == 0) {
+			read = channel.read(buffer);
+		}
+		buffer.flip();
+		if (read < 0) {
+			eof = true;
+			return false;
+		}
+		return true;
+	}
+
+	private void advance(int index) {
+		position += index - buffer.position();
+		buffer.position(index);
+	}
+
+	private void append(byte[] bytes, int offset, int len) {
+		if (actionLength + len > action.length) {
+			action = Arrays.copyOf(action, Math.max(actionLength + len, action.length * 2));
+		}
+		System.arraycopy(bytes, offset, action, actionLength, len);
+		actionLength += len;
+	}
+
+	private static boolean isSeparator(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == ',' || b == '[' || b == ']';
+	}
+}
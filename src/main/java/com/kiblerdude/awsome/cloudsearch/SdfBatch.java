@@ -0,0 +1,113 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+
+import org.apache.http.entity.ContentType;
+
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+
+/**
+ * Accumulates pre-serialized SDF (Search Data Format) actions into a single
+ * JSON array, bounded by a maximum number of bytes.
+ * <p>
+ * The batch buffer is reused after {@link #clear()}, so a request obtained
+ * from {@link #toRequest()} must be uploaded before the batch is cleared.
+ * <p>
+ * This class is package protected and is not thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+final class SdfBatch {
+
+	/**
+	 * The maximum size of a single Cloudsearch upload batch.
+	 */
+	static final long MAX_BATCH_BYTES = 5L * 1024L * 1024L;
+
+	private final long maxBytes;
+	private byte[] buffer;
+	private int length;
+	private int count;
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxBytes
+	 *            The maximum size of the batch in bytes, including the
+	 *            enclosing array brackets.
+	 */
+	SdfBatch(long maxBytes) {
+		if (maxBytes < 3)
+			throw new IllegalArgumentException("maxBytes is too small");
+		this.maxBytes = maxBytes;
+		this.buffer = new byte[(int) Math.min(maxBytes, 64 * 1024)];
+		clear();
+	}
+
+	/**
+	 * Returns <code>true</code> if an action of <code>actionBytes</code> can be
+	 * added without exceeding the size of the batch.
+	 */
+	boolean fits(int actionBytes) {
+		// a separator if the batch is not empty and the closing bracket
+		return length + actionBytes + (count > 0 ? 2 : 1) <= maxBytes;
+	}
+
+	/**
+	 * Appends a serialized action to the batch.
+	 */
+	void add(byte[] action, int offset, int len) {
+		ensureCapacity(length + len + 2);
+		if (count > 0) {
+			buffer[length++] = ',';
+		}
+		System.arraycopy(action, offset, buffer, length, len);
+		length += len;
+		count++;
+	}
+
+	void add(byte[] action) {
+		add(action, 0, action.length);
+	}
+
+	/**
+	 * Returns the number of actions in the batch.
+	 */
+	int count() {
+		return count;
+	}
+
+	boolean isEmpty() {
+		return count == 0;
+	}
+
+	/**
+	 * Builds a {@link UploadDocumentsRequest} backed by the batch buffer.
+	 */
+	UploadDocumentsRequest toRequest() {
+		ensureCapacity(length + 1);
+		buffer[length] = ']';
+		UploadDocumentsRequest request = new UploadDocumentsRequest();
+		request.setContentType(ContentType.APPLICATION_JSON.getMimeType());
+		request.setContentLength((long) length + 1);
+		request.setDocuments(new ByteArrayInputStream(buffer, 0, length + 1));
+		return request;
+	}
+
+	/**
+	 * Removes all of the actions from the batch.
+	 */
+	void clear() {
+		buffer[0] = '[';
+		length = 1;
+		count = 0;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > buffer.length) {
+			buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+		}
+	}
+}
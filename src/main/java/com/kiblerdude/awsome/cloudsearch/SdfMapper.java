@@ -0,0 +1,41 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Holds the {@link ObjectMapper} shared by the Cloudsearch document models.
+ * <p>
+ * Creating an <code>ObjectMapper</code> is expensive, and each new instance
+ * starts with an empty serializer cache, so every document class would be
+ * introspected again. A single shared mapper is thread safe once configured.
+ * <p>
+ * This class is package protected.
+ *
+ * @author kiblerj
+ *
+ */
+final class SdfMapper {
+
+	static final ObjectMapper MAPPER = new ObjectMapper();
+
+	private static final ConcurrentMap<Class<?>, Boolean> WARMED = new ConcurrentHashMap<>();
+
+	private SdfMapper() {
+	}
+
+	/**
+	 * Builds and caches the serializer for <code>documentClass</code> ahead of
+	 * the first serialization.
+	 *
+	 * @param documentClass
+	 *            A Jackson annotated document class.
+	 */
+	static void warm(Class<?> documentClass) {
+		if (WARMED.putIfAbsent(documentClass, Boolean.TRUE) == null) {
+			MAPPER.canSerialize(documentClass);
+		}
+	}
+}
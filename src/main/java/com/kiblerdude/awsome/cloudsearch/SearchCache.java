@@ -0,0 +1,213 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.QueryParser;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.google.common.base.Objects;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Searches Cloudsearch with structured queries, caching the results in
+ * memory.
+ * <p>
+ * Results are cached by the query and the search options (cursor, paging,
+ * sort, return fields, filter query, facets and so on). Queries are compared
+ * by structure, so queries which only differ in the order of the expressions
+ * in an <code>and</code> or <code>or</code> share a result. The cache holds at
+ * most <code>maximumSize</code> results, each for at most <code>ttl</code>.
+ * <p>
+ * Concurrent searches for the same query and options are collapsed into a
+ * single request to Cloudsearch; the other callers wait for its result. Failed
+ * searches are not cached.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * SearchCache cache = new SearchCache(client, 10000, 30, TimeUnit.SECONDS);
+ * SearchResult result = cache.search(and(eq(&quot;title&quot;, &quot;star wars&quot;)), new SearchRequest().withSize(10L));
+ * </pre>
+ *
+ * Cached results are shared between callers and must not be modified.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class SearchCache {
+
+	private final AmazonCloudSearchDomainClient client;
+	private final Cache<SearchKey, SearchResult> cache;
+	private final Metrics metrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param maximumSize
+	 *            The maximum number of cached results.
+	 * @param ttl
+	 *            How long a result is cached.
+	 * @param unit
+	 *            The {@link TimeUnit} of <code>ttl</code>.
+	 */
+	public SearchCache(AmazonCloudSearchDomainClient client, long maximumSize, long ttl, TimeUnit unit) {
+		this(client, maximumSize, ttl, unit, Metrics.NOOP);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param maximumSize
+	 *            The maximum number of cached results.
+	 * @param ttl
+	 *            How long a result is cached.
+	 * @param unit
+	 *            The {@link TimeUnit} of <code>ttl</code>.
+	 * @param metrics
+	 *            The {@link Metrics} receiving the timings and counts of the
+	 *            searches sent to Cloudsearch, that is, of the cache misses.
+	 */
+	public SearchCache(AmazonCloudSearchDomainClient client, long maximumSize, long ttl, TimeUnit unit,
+			Metrics metrics) {
+		this.client = checkNotNull(client, "client is null");
+		this.cache = CacheBuilder.newBuilder().maximumSize(maximumSize).expireAfterWrite(ttl, unit).recordStats()
+				.build();
+		this.metrics = checkNotNull(metrics, "metrics is null");
+	}
+
+	/**
+	 * Searches with a structured query.
+	 *
+	 * @param query
+	 *            The {@link StructuredQueryBuilder}
+	 * @return {@link SearchResult}
+	 */
+	public SearchResult search(StructuredQueryBuilder query) {
+		return search(query, new SearchRequest());
+	}
+
+	/**
+	 * Searches with a structured query and search options.
+	 *
+	 * @param query
+	 *            The {@link StructuredQueryBuilder}
+	 * @param options
+	 *            The {@link SearchRequest} holding the search options. The query
+	 *            and query parser of <code>options</code> are ignored.
+	 * @return {@link SearchResult}
+	 */
+	public SearchResult search(StructuredQueryBuilder query, SearchRequest options) {
+		checkNotNull(query, "query is null");
+		checkNotNull(options, "options are null");
+		final SearchKey key = new SearchKey(query, options);
+		try {
+			return cache.get(key, new Callable<SearchResult>() {
+				@Override
+				public SearchResult call() {
+					return Searches.search(client, key.toRequest(), metrics);
+				}
+			});
+		} catch (ExecutionException | UncheckedExecutionException | ExecutionError e) {
+			throw Throwables.propagate(e.getCause());
+		}
+	}
+
+	/**
+	 * Removes all cached results.
+	 */
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	/**
+	 * Returns the hit and miss statistics of the cache.
+	 *
+	 * @return {@link CacheStats}
+	 */
+	public CacheStats stats() {
+		return cache.stats();
+	}
+
+	/**
+	 * The cache key: the query and a copy of the search options, so that
+	 * changing the options after a search does not change the key.
+	 */
+	private static final class SearchKey {
+		private final StructuredQueryBuilder query;
+		private final String cursor;
+		private final String expr;
+		private final String facet;
+		private final String filterQuery;
+		private final String highlight;
+		private final Boolean partial;
+		private final String queryOptions;
+		private final String returnFields;
+		private final Long size;
+		private final String sort;
+		private final Long start;
+		private final int hash;
+
+		private SearchKey(StructuredQueryBuilder query, SearchRequest options) {
+			this.query = query;
+			this.cursor = options.getCursor();
+			this.expr = options.getExpr();
+			this.facet = options.getFacet();
+			this.filterQuery = options.getFilterQuery();
+			this.highlight = options.getHighlight();
+			this.partial = options.getPartial();
+			this.queryOptions = options.getQueryOptions();
+			this.returnFields = options.getReturn();
+			this.size = options.getSize();
+			this.sort = options.getSort();
+			this.start = options.getStart();
+			this.hash = Objects.hashCode(query, cursor, expr, facet, filterQuery, highlight, partial, queryOptions,
+					returnFields, size, sort, start);
+		}
+
+		private SearchRequest toRequest() {
+			return new SearchRequest().withQueryParser(QueryParser.Structured).withQuery(query.build())
+					.withCursor(cursor).withExpr(expr).withFacet(facet).withFilterQuery(filterQuery)
+					.withHighlight(highlight).withPartial(partial).withQueryOptions(queryOptions)
+					.withReturn(returnFields).withSize(size).withSort(sort).withStart(start);
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof SearchKey)) {
+				return false;
+			}
+			SearchKey other = (SearchKey) obj;
+			return hash == other.hash && query.equals(other.query) && Objects.equal(cursor, other.cursor)
+					&& Objects.equal(expr, other.expr) && Objects.equal(facet, other.facet)
+					&& Objects.equal(filterQuery, other.filterQuery) && Objects.equal(highlight, other.highlight)
+					&& Objects.equal(partial, other.partial) && Objects.equal(queryOptions, other.queryOptions)
+					&& Objects.equal(returnFields, other.returnFields) && Objects.equal(size, other.size)
+					&& Objects.equal(sort, other.sort) && Objects.equal(start, other.start);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+}
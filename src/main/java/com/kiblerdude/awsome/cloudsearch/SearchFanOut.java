@@ -0,0 +1,200 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.QueryParser;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Sends several structured queries to Cloudsearch concurrently, so that the
+ * latency of a page issuing many queries follows the slowest query rather
+ * than the sum of the queries.
+ * <p>
+ * At most <code>maxConcurrency</code> searches are in flight at once, across
+ * all callers. Each call has a deadline: searches which have not completed
+ * by then are cancelled, and their results are absent, as are the results
+ * of failed searches. The other results are returned, so a caller can render
+ * a partial page. Failed searches are counted as
+ * {@link MetricNames#CLOUDSEARCH_SEARCH_ERRORS} and cancelled ones as
+ * {@link MetricNames#CLOUDSEARCH_SEARCH_TIMEOUTS}, so a broken query or a
+ * service error can be told from a slow search.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * try (SearchFanOut&lt;MyDocument&gt; fanOut = new SearchFanOut&lt;&gt;(client, MyDocument.class, 8)) {
+ * 	List&lt;Optional&lt;SearchPage&lt;MyDocument&gt;&gt;&gt; pages = fanOut.search(
+ * 			ImmutableList.of(eq(&quot;genre&quot;, &quot;drama&quot;), eq(&quot;genre&quot;, &quot;comedy&quot;)), new SearchRequest().withSize(10L),
+ * 			200, TimeUnit.MILLISECONDS);
+ * 	List&lt;SearchHit&lt;MyDocument&gt;&gt; hits = SearchFanOut.merge(pages);
+ * }
+ * </pre>
+ *
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class SearchFanOut<T> implements Closeable {
+
+	private final AmazonCloudSearchDomainClient client;
+	private final HitReader<T> reader;
+	private final ExecutorService executor;
+	private final Metrics metrics;
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param documentClass
+	 *            The Jackson annotated document class.
+	 * @param maxConcurrency
+	 *            The maximum number of searches in flight at once.
+	 */
+	public SearchFanOut(AmazonCloudSearchDomainClient client, Class<T> documentClass, int maxConcurrency) {
+		this(client, documentClass, maxConcurrency, Metrics.NOOP);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param client
+	 *            The {@link AmazonCloudSearchDomainClient}
+	 * @param documentClass
+	 *            The Jackson annotated document class.
+	 * @param maxConcurrency
+	 *            The maximum number of searches in flight at once.
+	 * @param metrics
+	 *            The {@link Metrics} receiving the timings and counts of the
+	 *            searches.
+	 */
+	public SearchFanOut(AmazonCloudSearchDomainClient client, Class<T> documentClass, int maxConcurrency,
+			Metrics metrics) {
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("maxConcurrency must be at least 1");
+		this.client = checkNotNull(client, "client is null");
+		this.reader = new HitReader<>(checkNotNull(documentClass, "documentClass is null"));
+		this.executor = Executors.newFixedThreadPool(maxConcurrency, new ThreadFactoryBuilder().setDaemon(true)
+				.setNameFormat("cloudsearch-fanout-%d").build());
+		this.metrics = checkNotNull(metrics, "metrics is null");
+	}
+
+	/**
+	 * Searches with several structured queries concurrently.
+	 *
+	 * @param queries
+	 *            The {@link StructuredQueryBuilder} queries.
+	 * @param options
+	 *            The {@link SearchRequest} holding the search options for all
+	 *            the queries. The query and query parser of
+	 *            <code>options</code> are ignored.
+	 * @param timeout
+	 *            The deadline for all the searches.
+	 * @param unit
+	 *            The {@link TimeUnit} of <code>timeout</code>.
+	 * @return The result of each query, in the order of <code>queries</code>;
+	 *         absent if the search failed or did not complete in time.
+	 * @throws InterruptedException
+	 *             If interrupted while waiting; the searches are cancelled.
+	 */
+	public List<Optional<SearchPage<T>>> search(List<StructuredQueryBuilder> queries, SearchRequest options,
+			long timeout, TimeUnit unit) throws InterruptedException {
+		checkNotNull(queries, "queries are null");
+		checkNotNull(options, "options are null");
+		List<Callable<SearchPage<T>>> tasks = new ArrayList<>(queries.size());
+		for (StructuredQueryBuilder query : queries) {
+			final SearchRequest request = new SearchRequest().withQueryParser(QueryParser.Structured)
+					.withQuery(query.build()).withCursor(options.getCursor()).withExpr(options.getExpr())
+					.withFacet(options.getFacet()).withFilterQuery(options.getFilterQuery())
+					.withHighlight(options.getHighlight()).withPartial(options.getPartial())
+					.withQueryOptions(options.getQueryOptions()).withReturn(options.getReturn())
+					.withSize(options.getSize()).withSort(options.getSort()).withStart(options.getStart());
+			tasks.add(new Callable<SearchPage<T>>() {
+				@Override
+				public SearchPage<T> call() {
+					// failed requests are counted by Searches, unreadable results here
+					SearchResult result = Searches.search(client, request, metrics);
+					try {
+						return reader.read(result);
+					} catch (RuntimeException e) {
+						metrics.count(MetricNames.CLOUDSEARCH_SEARCH_ERRORS, 1L);
+						throw e;
+					}
+				}
+			});
+		}
+
+		// invokeAll cancels the searches still running at the deadline
+		List<Future<SearchPage<T>>> futures = executor.invokeAll(tasks, timeout, unit);
+		List<Optional<SearchPage<T>>> pages = new ArrayList<>(futures.size());
+		for (Future<SearchPage<T>> future : futures) {
+			pages.add(result(future));
+		}
+		return pages;
+	}
+
+	private Optional<SearchPage<T>> result(Future<SearchPage<T>> future) throws InterruptedException {
+		try {
+			return Optional.of(future.get());
+		} catch (CancellationException e) {
+			metrics.count(MetricNames.CLOUDSEARCH_SEARCH_TIMEOUTS, 1L);
+			return Optional.absent();
+		} catch (ExecutionException e) {
+			return Optional.absent();
+		}
+	}
+
+	/**
+	 * Merges the hits of several pages, dropping hits of documents already
+	 * returned by an earlier page.
+	 *
+	 * @param pages
+	 *            The pages to merge; absent pages are skipped.
+	 * @return The hits in page order, with unique ids.
+	 */
+	public static <T> ImmutableList<SearchHit<T>> merge(Iterable<Optional<SearchPage<T>>> pages) {
+		Map<String, SearchHit<T>> hits = new LinkedHashMap<>();
+		for (Optional<SearchPage<T>> page : pages) {
+			if (page.isPresent()) {
+				for (SearchHit<T> hit : page.get().getHits()) {
+					if (!hits.containsKey(hit.getId())) {
+						hits.put(hit.getId(), hit);
+					}
+				}
+			}
+		}
+		return ImmutableList.copyOf(hits.values());
+	}
+
+	/**
+	 * Stops the searches in flight.
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,56 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A document returned by a search, with its id.
+ * <p>
+ * This class is immutable if the document is.
+ *
+ * @author kiblerj
+ *
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class SearchHit<T> {
+
+	private final String id;
+	private final T document;
+
+	/**
+	 * Constructor
+	 *
+	 * @param id
+	 *            The id of the document.
+	 * @param document
+	 *            The document.
+	 */
+	public SearchHit(String id, T document) {
+		this.id = checkNotNull(id, "id is null");
+		this.document = checkNotNull(document, "document is null");
+	}
+
+	/**
+	 * Returns the id of the document.
+	 *
+	 * @return String
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * Returns the document.
+	 *
+	 * @return T
+	 */
+	public T getDocument() {
+		return document;
+	}
+
+	@Override
+	public String toString() {
+		return id + "=" + document;
+	}
+}
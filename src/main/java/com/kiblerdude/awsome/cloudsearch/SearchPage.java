@@ -0,0 +1,54 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A page of search results, with the hits read into documents.
+ * <p>
+ * This class is immutable if the documents are.
+ *
+ * @author kiblerj
+ *
+ * @param <T>
+ *            A class representing the documents in the Cloudsearch schema,
+ *            properly annotated with Jackson annotations.
+ */
+public final class SearchPage<T> {
+
+	private final SearchResult result;
+	private final ImmutableList<SearchHit<T>> hits;
+
+	SearchPage(SearchResult result, ImmutableList<SearchHit<T>> hits) {
+		this.result = result;
+		this.hits = hits;
+	}
+
+	/**
+	 * Returns the number of documents matching the query.
+	 *
+	 * @return long
+	 */
+	public long getFound() {
+		return result.getHits() == null || result.getHits().getFound() == null ? 0L : result.getHits().getFound();
+	}
+
+	/**
+	 * Returns the hits of this page.
+	 *
+	 * @return {@link ImmutableList}
+	 */
+	public ImmutableList<SearchHit<T>> getHits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the search result, for the facets, status and cursor. It must not
+	 * be modified.
+	 *
+	 * @return {@link SearchResult}
+	 */
+	public SearchResult getResult() {
+		return result;
+	}
+}
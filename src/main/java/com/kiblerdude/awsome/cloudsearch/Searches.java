@@ -0,0 +1,38 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Sends search requests, recording their count, failures and durations.
+ * <p>
+ * This class is package protected.
+ *
+ * @author kiblerj
+ *
+ */
+final class Searches {
+
+	private Searches() {
+	}
+
+	static SearchResult search(AmazonCloudSearchDomainClient client, SearchRequest request, Metrics metrics) {
+		long start = System.nanoTime();
+		boolean succeeded = false;
+		try {
+			SearchResult result = client.search(request);
+			succeeded = true;
+			return result;
+		} finally {
+			metrics.record(MetricNames.CLOUDSEARCH_SEARCH_TIME, System.nanoTime() - start);
+			metrics.count(MetricNames.CLOUDSEARCH_SEARCH, 1L);
+			// a search aborted by an interrupt was cancelled, it did not fail
+			if (!succeeded && !Thread.currentThread().isInterrupted()) {
+				metrics.count(MetricNames.CLOUDSEARCH_SEARCH_ERRORS, 1L);
+			}
+		}
+	}
+}
@@ -1,10 +1,12 @@
 package com.kiblerdude.awsome.cloudsearch;
 
-import java.text.SimpleDateFormat;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Collection;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.List;
 
-import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableSet;
 
@@ -32,33 +34,46 @@ import com.google.common.collect.ImmutableSet;
  * (and (term field=field1 'value') (range field=field2 {100,200}))
  * </pre>
  * 
+ * Expressions are immutable. The query is rendered once, in a single pass, and
+ * cached on the expression. Two expressions are equal if they have the same
+ * structure, values and term form; the order of nested expressions is not
+ * significant.
+ * 
  * @author kiblerj
  */
 public final class StructuredQueryBuilder {
 
-	// strings and dates need to be surrounded by single quotes
-	private static final String QUOTED_FORMAT = "'%s'";
+	// strings and dates need to be surrounded by single quotes, and quotes and
+	// backslashes within them escaped with a backslash
+	private static final char QUOTE = '\'';
+	private static final char ESCAPE = '\\';
 
-	// dates must be UTC (Coordinated Universal Time) and formatted according to
-	// IETF RFC3339
-	private static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
-
-	private static final ThreadLocal<SimpleDateFormat> formatter = new ThreadLocal<SimpleDateFormat>() {
-		@Override
-		protected SimpleDateFormat initialValue() {
-			SimpleDateFormat format = new SimpleDateFormat(DATE_FORMAT);
-			format.setTimeZone(TimeZone.getTimeZone("GMT"));
-			return format;
-		}
-	};
+	// doubles of integral value below this are rendered without Double.toString,
+	// which switches to scientific notation from 10^7
+	private static final double PLAIN_DOUBLE_LIMIT = 1e7;
 
 	private final ExpressionOperator operator;
 	private final ExpressionType type;
 	private final Optional<ImmutableSet<StructuredQueryBuilder>> nested;
 	private final Optional<String> field;
-	private final Optional<String> value;
-	private final Optional<String> from;
-	private final Optional<String> to;
+	// literal values are kept as String, Long, Double, Date or QueryParameter
+	// and formatted when rendered
+	private final Optional<Object> value;
+	private final Optional<Object> from;
+	private final Optional<Object> to;
+	// range bounds are exclusive unless marked inclusive
+	private final boolean fromInclusive;
+	private final boolean toInclusive;
+	// the maximum distance between the words of a near expression
+	private final int distance;
+	private final boolean parameterized;
+	// render a term in the compact field:value form
+	private final boolean compact;
+
+	// the rendered query and hash code; racy single-check caching is safe as
+	// String is immutable and int writes are atomic
+	private String rendered;
+	private int hash;
 
 	/**
 	 * Default constructor. Creates a <code>matchall</code> expression.
@@ -71,6 +86,11 @@ public final class StructuredQueryBuilder {
 		this.value = Optional.absent();
 		this.from = Optional.absent();
 		this.to = Optional.absent();
+		this.fromInclusive = false;
+		this.toInclusive = false;
+		this.distance = 0;
+		this.parameterized = false;
+		this.compact = false;
 	}
 
 	/**
@@ -80,14 +100,53 @@ public final class StructuredQueryBuilder {
 	 * @param value
 	 */
 	private StructuredQueryBuilder(ExpressionType type, String field,
-			String value) {
+			Object value) {
+		this(type, Optional.of(field), value, 0);
+	}
+
+	/**
+	 * Constructor for expressions on an optional field. Expressions without a
+	 * field search the default search fields.
+	 * 
+	 * @param type
+	 * @param field
+	 * @param value
+	 * @param distance
+	 */
+	private StructuredQueryBuilder(ExpressionType type, Optional<String> field,
+			Object value, int distance) {
 		this.operator = ExpressionOperator.NONE;
 		this.type = type;
 		this.nested = Optional.absent();
-		this.field = Optional.of(field);
-		this.value = Optional.of(value);
+		this.field = field;
+		this.value = Optional.of(checkNotNull(value, "value is null"));
 		this.from = Optional.absent();
 		this.to = Optional.absent();
+		this.fromInclusive = false;
+		this.toInclusive = false;
+		this.distance = distance;
+		this.parameterized = value instanceof QueryParameter;
+		this.compact = false;
+	}
+
+	/**
+	 * Copy constructor for <code>term</code> expressions in compact form.
+	 * 
+	 * @param term
+	 */
+	private StructuredQueryBuilder(StructuredQueryBuilder term) {
+		this.operator = ExpressionOperator.NONE;
+		this.type = ExpressionType.TERM;
+		this.nested = Optional.absent();
+		this.field = term.field;
+		this.value = term.value;
+		this.from = Optional.absent();
+		this.to = Optional.absent();
+		this.fromInclusive = false;
+		this.toInclusive = false;
+		this.distance = 0;
+		this.parameterized = term.parameterized;
+		this.compact = true;
 	}
 
 	/**
@@ -98,14 +157,34 @@ public final class StructuredQueryBuilder {
 	 * @param to
 	 */
 	private StructuredQueryBuilder(ExpressionType type, String field,
-			String from, String to) {
+			Object from, Object to) {
+		this(field, from, false, to, false);
+	}
+
+	/**
+	 * Constructor for <code>range</code> expressions with inclusive or
+	 * exclusive bounds. A null bound leaves the range open.
+	 * 
+	 * @param field
+	 * @param from
+	 * @param fromInclusive
+	 * @param to
+	 * @param toInclusive
+	 */
+	private StructuredQueryBuilder(String field, Object from,
+			boolean fromInclusive, Object to, boolean toInclusive) {
 		this.operator = ExpressionOperator.NONE;
-		this.type = type;
+		this.type = ExpressionType.RANGE;
 		this.nested = Optional.absent();
 		this.field = Optional.of(field);
 		this.value = Optional.absent();
 		this.from = Optional.fromNullable(from);
 		this.to = Optional.fromNullable(to);
+		this.fromInclusive = from != null && fromInclusive;
+		this.toInclusive = to != null && toInclusive;
+		this.distance = 0;
+		this.parameterized = from instanceof QueryParameter || to instanceof QueryParameter;
+		this.compact = false;
 	}
 
 	/**
@@ -116,13 +195,33 @@ public final class StructuredQueryBuilder {
 	 */
 	private StructuredQueryBuilder(ExpressionOperator op,
 			StructuredQueryBuilder... expressions) {
+		this(op, ImmutableSet.copyOf(expressions));
+	}
+
+	/**
+	 * Constructor for nested expressions.
+	 * 
+	 * @param op
+	 * @param expressions
+	 */
+	private StructuredQueryBuilder(ExpressionOperator op,
+			ImmutableSet<StructuredQueryBuilder> expressions) {
 		this.operator = op;
 		this.type = ExpressionType.NONE;
-		this.nested = Optional.of(ImmutableSet.copyOf(expressions));
+		this.nested = Optional.of(expressions);
 		this.field = Optional.absent();
 		this.value = Optional.absent();
 		this.from = Optional.absent();
 		this.to = Optional.absent();
+		this.fromInclusive = false;
+		this.toInclusive = false;
+		this.distance = 0;
+		boolean parameterized = false;
+		for (StructuredQueryBuilder expression : expressions) {
+			parameterized |= expression.parameterized;
+		}
+		this.parameterized = parameterized;
+		this.compact = false;
 	}
 
 	/**
@@ -134,11 +233,35 @@ public final class StructuredQueryBuilder {
 	 *         <pre>
 	 * ( and ( term field='field1' 'value1' ) )
 	 * </pre>
+	 * 
+	 * @throws IllegalStateException
+	 *             If the query contains parameters, which must be bound with a
+	 *             {@link QueryTemplate}.
 	 */
 	public String build() {
+		if (parameterized)
+			throw new IllegalStateException(
+					"Query contains parameters, use a QueryTemplate to bind them");
 		return toString();
 	}
 
+	/**
+	 * Creates a named parameter, to be used in place of a value in a query
+	 * compiled to a {@link QueryTemplate}. For example:
+	 * 
+	 * <pre>
+	 * QueryTemplate template = QueryTemplate.compile(eq(&quot;category&quot;, param(&quot;cat&quot;)));
+	 * String query = template.bind(ImmutableMap.of(&quot;cat&quot;, &quot;books&quot;));
+	 * </pre>
+	 * 
+	 * @param name
+	 *            The name of the parameter.
+	 * @return {@link QueryParameter}
+	 */
+	public static QueryParameter param(String name) {
+		return new QueryParameter(name);
+	}
+
 	/**
 	 * Compound expressions with the <code>and</code> operator. For example:
 	 * 
@@ -223,8 +346,21 @@ public final class StructuredQueryBuilder {
 	 * @return {@link StructuredQueryBuilder}
 	 */
 	public static StructuredQueryBuilder phrase(String field, String phrase) {
-		return new StructuredQueryBuilder(ExpressionType.PHRASE, field,
-				String.format(QUOTED_FORMAT, phrase));
+		return new StructuredQueryBuilder(ExpressionType.PHRASE, field, phrase);
+	}
+
+	/**
+	 * Creates a <code>phrase</code> search expression with a parameter, for a
+	 * {@link QueryTemplate}.
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the phrase in.
+	 * @param phrase
+	 *            The parameter bound to the phrase to search for.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder phrase(String field, QueryParameter phrase) {
+		return new StructuredQueryBuilder(ExpressionType.PHRASE, field, phrase);
 	}
 
 	/**
@@ -241,8 +377,43 @@ public final class StructuredQueryBuilder {
 	 * @return {@link StructuredQueryBuilder}
 	 */
 	public static StructuredQueryBuilder prefix(String field, String prefix) {
-		return new StructuredQueryBuilder(ExpressionType.PREFIX, field,
-				String.format(QUOTED_FORMAT, prefix));
+		return new StructuredQueryBuilder(ExpressionType.PREFIX, field, prefix);
+	}
+
+	/**
+	 * Creates a <code>prefix</code> search expression with a parameter, for a
+	 * {@link QueryTemplate}.
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the prefix.
+	 * @param prefix
+	 *            The parameter bound to the prefix to search for.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder prefix(String field, QueryParameter prefix) {
+		return new StructuredQueryBuilder(ExpressionType.PREFIX, field, prefix);
+	}
+
+	/**
+	 * Creates a <code>near</code> search expression, which matches the words
+	 * of a phrase within a distance of each other. For example:
+	 * 
+	 * <pre>
+	 * ( near field=field1 distance=3 'the phrase' )
+	 * </pre>
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the phrase in.
+	 * @param phrase
+	 *            The words to search for.
+	 * @param distance
+	 *            The maximum distance between the words.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder near(String field, String phrase, int distance) {
+		if (distance < 0)
+			throw new IllegalArgumentException("distance is negative");
+		return new StructuredQueryBuilder(ExpressionType.NEAR, Optional.of(field), phrase, distance);
 	}
 
 	/**
@@ -260,8 +431,7 @@ public final class StructuredQueryBuilder {
 	 * @return {@link StructuredQueryBuilder}
 	 */
 	public static StructuredQueryBuilder eq(String field, String value) {
-		return new StructuredQueryBuilder(ExpressionType.TERM, field,
-				String.format(QUOTED_FORMAT, value));
+		return new StructuredQueryBuilder(ExpressionType.TERM, field, value);
 	}
 
 	/**
@@ -279,8 +449,7 @@ public final class StructuredQueryBuilder {
 	 * @return {@link StructuredQueryBuilder}
 	 */
 	public static StructuredQueryBuilder eq(String field, Long value) {
-		return new StructuredQueryBuilder(ExpressionType.TERM, field,
-				value.toString());
+		return new StructuredQueryBuilder(ExpressionType.TERM, field, value);
 	}
 
 	/**
@@ -298,8 +467,43 @@ public final class StructuredQueryBuilder {
 	 * @return {@link StructuredQueryBuilder}
 	 */
 	public static StructuredQueryBuilder eq(String field, Double value) {
-		return new StructuredQueryBuilder(ExpressionType.TERM, field,
-				value.toString());
+		return new StructuredQueryBuilder(ExpressionType.TERM, field, value);
+	}
+
+	/**
+	 * Creates a <code>term</code> search expression for long values. For
+	 * example:
+	 * 
+	 * <pre>
+	 * ( term field=field1 100 )
+	 * </pre>
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the term.
+	 * @param value
+	 *            The value to search for.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder eq(String field, long value) {
+		return new StructuredQueryBuilder(ExpressionType.TERM, field, Long.valueOf(value));
+	}
+
+	/**
+	 * Creates a <code>term</code> search expression for double values. For
+	 * example:
+	 * 
+	 * <pre>
+	 * ( term field=field1 100.0 )
+	 * </pre>
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the term.
+	 * @param value
+	 *            The value to search for.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder eq(String field, double value) {
+		return new StructuredQueryBuilder(ExpressionType.TERM, field, Double.valueOf(value));
 	}
 
 	/**
@@ -317,9 +521,26 @@ public final class StructuredQueryBuilder {
 	 * @return {@link StructuredQueryBuilder}
 	 */
 	public static StructuredQueryBuilder eq(String field, Date value) {
-		String date = formatter.get().format(value);
 		return new StructuredQueryBuilder(ExpressionType.TERM, field,
-				String.format(QUOTED_FORMAT, date));
+				new Date(value.getTime()));
+	}
+
+	/**
+	 * Creates a <code>term</code> search expression with a parameter, for a
+	 * {@link QueryTemplate}. For example:
+	 * 
+	 * <pre>
+	 * ( term field=field1 ?value )
+	 * </pre>
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the term.
+	 * @param value
+	 *            The parameter bound to the value to search for.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder eq(String field, QueryParameter value) {
+		return new StructuredQueryBuilder(ExpressionType.TERM, field, value);
 	}
 
 	/**
@@ -341,8 +562,7 @@ public final class StructuredQueryBuilder {
 	public static StructuredQueryBuilder range(String field, String from,
 			String to) {
 		return new StructuredQueryBuilder(ExpressionType.RANGE, field,
-				String.format(QUOTED_FORMAT, from), String.format(
-						QUOTED_FORMAT, to));
+				checkNotNull(from, "from is null"), checkNotNull(to, "to is null"));
 	}
 
 	/**
@@ -363,7 +583,7 @@ public final class StructuredQueryBuilder {
 	 */
 	public static StructuredQueryBuilder range(String field, Long from, Long to) {
 		return new StructuredQueryBuilder(ExpressionType.RANGE, field,
-				from.toString(), to.toString());
+				checkNotNull(from, "from is null"), checkNotNull(to, "to is null"));
 	}
 
 	/**
@@ -385,7 +605,50 @@ public final class StructuredQueryBuilder {
 	public static StructuredQueryBuilder range(String field, Double from,
 			Double to) {
 		return new StructuredQueryBuilder(ExpressionType.RANGE, field,
-				from.toString(), to.toString());
+				checkNotNull(from, "from is null"), checkNotNull(to, "to is null"));
+	}
+
+	/**
+	 * Creates a <code>range</code> search expression for long values. For
+	 * example:
+	 * 
+	 * <pre>
+	 * ( range field=field1 { 100 , 200 } )
+	 * </pre>
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the range.
+	 * @param from
+	 *            The value to search from.
+	 * @param to
+	 *            The value to search to.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder range(String field, long from, long to) {
+		return new StructuredQueryBuilder(ExpressionType.RANGE, field,
+				Long.valueOf(from), Long.valueOf(to));
+	}
+
+	/**
+	 * Creates a <code>range</code> search expression for double values. For
+	 * example:
+	 * 
+	 * <pre>
+	 * ( range field=field1 { 0.0 , 100.0 } )
+	 * </pre>
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the range.
+	 * @param from
+	 *            The value to search from.
+	 * @param to
+	 *            The value to search to.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder range(String field, double from,
+			double to) {
+		return new StructuredQueryBuilder(ExpressionType.RANGE, field,
+				Double.valueOf(from), Double.valueOf(to));
 	}
 
 	/**
@@ -405,38 +668,300 @@ public final class StructuredQueryBuilder {
 	 * @return {@link StructuredQueryBuilder}
 	 */
 	public static StructuredQueryBuilder range(String field, Date from, Date to) {
-		String fromDate = formatter.get().format(from);
-		String toDate = formatter.get().format(to);
 		return new StructuredQueryBuilder(ExpressionType.RANGE, field,
-				String.format(QUOTED_FORMAT, fromDate), String.format(
-						QUOTED_FORMAT, toDate));
+				new Date(from.getTime()), new Date(to.getTime()));
+	}
+
+	/**
+	 * Creates a <code>range</code> search expression with parameters, for a
+	 * {@link QueryTemplate}. For example:
+	 * 
+	 * <pre>
+	 * ( range field=field1 { ?from , ?to } )
+	 * </pre>
+	 * 
+	 * @param field
+	 *            The name of the indexed field to search for the range.
+	 * @param from
+	 *            The parameter bound to the value to search from.
+	 * @param to
+	 *            The parameter bound to the value to search to.
+	 * @return {@link StructuredQueryBuilder}
+	 */
+	public static StructuredQueryBuilder range(String field, QueryParameter from,
+			QueryParameter to) {
+		return new StructuredQueryBuilder(ExpressionType.RANGE, field,
+				checkNotNull(from, "from is null"), checkNotNull(to, "to is null"));
+	}
+
+	/**
+	 * Creates a compound expression from a collection of expressions.
+	 */
+	static StructuredQueryBuilder compound(ExpressionOperator op,
+			Collection<StructuredQueryBuilder> expressions) {
+		if (expressions.isEmpty())
+			throw new IllegalArgumentException(
+					"At least one expression is required");
+		return new StructuredQueryBuilder(op, ImmutableSet.copyOf(expressions));
+	}
+
+	/**
+	 * Creates a <code>term</code>, <code>phrase</code>, <code>prefix</code> or
+	 * <code>near</code> expression from a literal value. A null field searches
+	 * the default search fields.
+	 */
+	static StructuredQueryBuilder valueOf(ExpressionType type, String field, Object value, int distance) {
+		return new StructuredQueryBuilder(type, Optional.fromNullable(field), value, distance);
+	}
+
+	/**
+	 * Creates a <code>range</code> expression from literal values. A null
+	 * bound leaves the range open.
+	 */
+	static StructuredQueryBuilder rangeOf(String field, Object from, boolean fromInclusive, Object to,
+			boolean toInclusive) {
+		return new StructuredQueryBuilder(checkNotNull(field, "field is null"), from, fromInclusive, to, toInclusive);
+	}
+
+	/**
+	 * Returns this <code>term</code> expression in the compact
+	 * <code>field:value</code> form.
+	 */
+	StructuredQueryBuilder compact() {
+		if (!ExpressionType.TERM.equals(type) || !field.isPresent())
+			throw new IllegalStateException("Only term expressions on a field have a compact form");
+		return compact ? this : new StructuredQueryBuilder(this);
+	}
+
+	ExpressionOperator getOperator() {
+		return operator;
+	}
+
+	ExpressionType getType() {
+		return type;
+	}
+
+	/**
+	 * Returns the nested expressions, or an empty set if this is not a
+	 * compound expression.
+	 */
+	ImmutableSet<StructuredQueryBuilder> getExpressions() {
+		return nested.or(ImmutableSet.<StructuredQueryBuilder> of());
+	}
+
+	Optional<String> getField() {
+		return field;
+	}
+
+	Optional<Object> getValue() {
+		return value;
+	}
+
+	Optional<Object> getFrom() {
+		return from;
+	}
+
+	Optional<Object> getTo() {
+		return to;
+	}
+
+	boolean isFromInclusive() {
+		return fromInclusive;
+	}
+
+	boolean isToInclusive() {
+		return toInclusive;
+	}
+
+	int getDistance() {
+		return distance;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof StructuredQueryBuilder)) {
+			return false;
+		}
+		StructuredQueryBuilder other = (StructuredQueryBuilder) obj;
+		return hashCode() == other.hashCode() && operator == other.operator
+				&& type == other.type && field.equals(other.field)
+				&& value.equals(other.value) && from.equals(other.from)
+				&& to.equals(other.to) && fromInclusive == other.fromInclusive
+				&& toInclusive == other.toInclusive && distance == other.distance
+				&& compact == other.compact && nested.equals(other.nested);
+	}
+
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0) {
+			h = Objects.hashCode(operator.ordinal(), type.ordinal(), nested, field, value, from, to,
+					fromInclusive, toInclusive, distance, compact);
+			hash = h;
+		}
+		return h;
 	}
 
 	@Override
 	public String toString() {
+		String query = rendered;
+		if (query == null) {
+			StringBuilder builder = new StringBuilder(64);
+			render(builder, null);
+			query = builder.toString();
+			rendered = query;
+		}
+		return query;
+	}
+
+	/**
+	 * Renders the query as the fragments of a {@link QueryTemplate}.
+	 * <code>parts</code> receives the rendered text between parameters,
+	 * followed by each parameter, whether it only takes text as a Boolean, and
+	 * the text after it; the text after the last parameter is left in
+	 * <code>builder</code>.
+	 */
+	void renderTemplate(StringBuilder builder, List<Object> parts) {
+		render(builder, parts);
+	}
+
+	/**
+	 * Appends this expression to <code>builder</code>, reusing the cached
+	 * rendering if there is one.
+	 */
+	private void appendTo(StringBuilder builder, List<Object> parts) {
+		String query = rendered;
+		if (query != null && !(parameterized && parts != null)) {
+			builder.append(query);
+		} else {
+			render(builder, parts);
+		}
+	}
+
+	private void render(StringBuilder builder, List<Object> parts) {
 		// there are a few conditions to check:
 		// 1. matchall queries
 		// 2. compound (nested) queries
 		// 3. value queries
 		// 4. range queries
+		if (compact) {
+			// compact terms are not enclosed in parentheses
+			builder.append(field.get()).append(':');
+			appendValue(builder, value.get(), parts, false);
+			return;
+		}
+		builder.append("( ");
 		if (ExpressionType.MATCHALL.equals(type)) {
-			ImmutableSet<String> queryParts = ImmutableSet.of("(",
-					type.toString(), ")");
-			return Joiner.on(' ').join(queryParts);
+			builder.append(type);
 		} else if (nested.isPresent()) {
-			String nestedQuery = Joiner.on(' ').join(nested.get());
-			ImmutableSet<String> queryParts = ImmutableSet.of("(",
-					operator.toString(), nestedQuery, ")");
-			return Joiner.on(' ').join(queryParts);
+			builder.append(operator);
+			for (StructuredQueryBuilder expression : nested.get()) {
+				builder.append(' ');
+				expression.appendTo(builder, parts);
+			}
 		} else if (value.isPresent()) {
-			ImmutableSet<String> queryParts = ImmutableSet.of("(",
-					type.toString(), "field=", field.get(), value.get(), ")");
-			return Joiner.on(' ').join(queryParts);
+			builder.append(type).append(' ');
+			if (field.isPresent()) {
+				builder.append("field= ").append(field.get()).append(' ');
+			}
+			if (ExpressionType.NEAR.equals(type)) {
+				builder.append("distance= ").append(distance).append(' ');
+			}
+			appendValue(builder, value.get(), parts, ExpressionType.PHRASE.equals(type)
+					|| ExpressionType.PREFIX.equals(type));
+		} else {
+			builder.append(type).append(" field= ").append(field.get())
+					.append(fromInclusive ? " [" : " {");
+			if (from.isPresent()) {
+				builder.append(' ');
+				appendValue(builder, from.get(), parts, false);
+			}
+			builder.append(" ,");
+			if (to.isPresent()) {
+				builder.append(' ');
+				appendValue(builder, to.get(), parts, false);
+			}
+			builder.append(toInclusive ? " ]" : " }");
+		}
+		builder.append(" )");
+	}
+
+	private static void appendValue(StringBuilder builder, Object value, List<Object> parts, boolean text) {
+		if (value instanceof QueryParameter) {
+			if (parts == null) {
+				builder.append(value);
+			} else {
+				parts.add(builder.toString());
+				parts.add(value);
+				parts.add(text);
+				builder.setLength(0);
+			}
+		} else {
+			appendLiteral(builder, value);
+		}
+	}
+
+	/**
+	 * Formats a date as Cloudsearch expects it, in UTC according to IETF
+	 * RFC3339.
+	 */
+	static String formatDate(Date date) {
+		StringBuilder builder = new StringBuilder(20);
+		Rfc3339.append(builder, date.getTime());
+		return builder.toString();
+	}
+
+	/**
+	 * Appends a literal value, quoting and escaping strings and dates.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             If the value is not a String, Number or Date.
+	 */
+	static void appendLiteral(StringBuilder builder, Object literal) {
+		if (literal instanceof String) {
+			String string = (String) literal;
+			builder.append(QUOTE);
+			for (int i = 0; i < string.length(); i++) {
+				char c = string.charAt(i);
+				if (c == QUOTE || c == ESCAPE) {
+					builder.append(ESCAPE);
+				}
+				builder.append(c);
+			}
+			builder.append(QUOTE);
+		} else if (literal instanceof Double) {
+			appendDouble(builder, ((Double) literal).doubleValue());
+		} else if (literal instanceof Float) {
+			builder.append(((Float) literal).floatValue());
+		} else if (literal instanceof Long || literal instanceof Integer
+				|| literal instanceof Short || literal instanceof Byte) {
+			builder.append(((Number) literal).longValue());
+		} else if (literal instanceof Date) {
+			// dates must be UTC (Coordinated Universal Time) and formatted
+			// according to IETF RFC3339
+			builder.append(QUOTE);
+			Rfc3339.append(builder, ((Date) literal).getTime());
+			builder.append(QUOTE);
+		} else {
+			throw new IllegalArgumentException("Unsupported value type "
+					+ (literal == null ? null : literal.getClass().getName()));
+		}
+	}
+
+	/**
+	 * Appends a double as {@link Double#toString(double)} would, appending
+	 * integral values as digits directly.
+	 */
+	private static void appendDouble(StringBuilder builder, double value) {
+		if (value == Math.rint(value) && Math.abs(value) < PLAIN_DOUBLE_LIMIT
+				&& Double.doubleToRawLongBits(value) != Long.MIN_VALUE) {
+			// the bits of -0.0 are excluded, as (long) -0.0 loses the sign
+			builder.append((long) value).append(".0");
 		} else {
-			ImmutableSet<String> queryParts = ImmutableSet.of("(",
-					type.toString(), "field=", field.get(), "{", from.or(""),
-					",", to.or(""), "}", ")");
-			return Joiner.on(' ').join(queryParts);
+			builder.append(value);
 		}
 	}
 }
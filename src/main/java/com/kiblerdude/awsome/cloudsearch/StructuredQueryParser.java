@@ -0,0 +1,318 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses AWS Cloudsearch Structured Query strings into
+ * {@link StructuredQueryBuilder} expressions, so that queries received as
+ * strings can be optimized, cached and validated like the queries built in
+ * code.
+ * <p>
+ * The parser supports the <code>and</code>, <code>or</code> and
+ * <code>not</code> operators and the <code>term</code>, <code>phrase</code>,
+ * <code>prefix</code>, <code>range</code>, <code>near</code> and
+ * <code>matchall</code> expressions, as well as the compact forms
+ * <code>field:'value'</code>, <code>field:[from,to}</code> and
+ * <code>'value'</code>. Both the Cloudsearch form <code>field=name</code> and
+ * the form <code>field= name</code> rendered by
+ * {@link StructuredQueryBuilder} are accepted.
+ * <p>
+ * Quoted values are parsed as Strings, including dates, and unquoted values
+ * as Longs, or Doubles if they have a fraction or an exponent. The
+ * <code>boost</code> option is not supported.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * StructuredQueryBuilder query = StructuredQueryParser.parse(&quot;(and title:'star' (range field=year [1977,}))&quot;);
+ * </pre>
+ *
+ * The query is parsed in a single pass over the string. This class is thread
+ * safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class StructuredQueryParser {
+
+	private final String query;
+	private int position;
+
+	private StructuredQueryParser(String query) {
+		this.query = query;
+	}
+
+	/**
+	 * Parses a structured query.
+	 *
+	 * @param query
+	 *            The AWS Cloudsearch Structured Query.
+	 * @return {@link StructuredQueryBuilder}
+	 * @throws IllegalArgumentException
+	 *             If the query is not a valid structured query, or uses
+	 *             unsupported options.
+	 */
+	public static StructuredQueryBuilder parse(String query) {
+		checkNotNull(query, "query is null");
+		StructuredQueryParser parser = new StructuredQueryParser(query);
+		StructuredQueryBuilder expression = parser.expression();
+		parser.skipWhitespace();
+		if (parser.position < query.length())
+			throw parser.error("Unexpected input");
+		return expression;
+	}
+
+	private StructuredQueryBuilder expression() {
+		skipWhitespace();
+		if (position >= query.length())
+			throw error("Expected an expression");
+		char c = query.charAt(position);
+		if (c == '(') {
+			position++;
+			StructuredQueryBuilder expression = parenthesized();
+			expect(')');
+			return expression;
+		}
+		if (c == '\'') {
+			return StructuredQueryBuilder.valueOf(ExpressionType.TERM, null, string(), 0);
+		}
+		// field:value or field:[from,to}
+		String field = identifier();
+		expect(':');
+		skipWhitespace();
+		if (peek('[') || peek('{')) {
+			return range(field);
+		}
+		return StructuredQueryBuilder.valueOf(ExpressionType.TERM, field, value(), 0);
+	}
+
+	private StructuredQueryBuilder parenthesized() {
+		skipWhitespace();
+		int start = position;
+		String keyword = identifier();
+		switch (keyword) {
+		case "and":
+			return compound(ExpressionOperator.AND);
+		case "or":
+			return compound(ExpressionOperator.OR);
+		case "not":
+			return compound(ExpressionOperator.NOT);
+		case "matchall":
+			return StructuredQueryBuilder.matchall();
+		case "term":
+			return value(ExpressionType.TERM);
+		case "phrase":
+			return value(ExpressionType.PHRASE);
+		case "prefix":
+			return value(ExpressionType.PREFIX);
+		case "near":
+			return value(ExpressionType.NEAR);
+		case "range":
+			return range();
+		default:
+			position = start;
+			throw error("Unknown expression " + keyword);
+		}
+	}
+
+	private StructuredQueryBuilder compound(ExpressionOperator op) {
+		String option = option();
+		if (option != null)
+			throw error("Unsupported option " + option);
+		List<StructuredQueryBuilder> expressions = new ArrayList<>();
+		skipWhitespace();
+		while (position < query.length() && query.charAt(position) != ')') {
+			expressions.add(expression());
+			skipWhitespace();
+		}
+		if (expressions.isEmpty())
+			throw error("Expected an expression");
+		return StructuredQueryBuilder.compound(op, expressions);
+	}
+
+	private StructuredQueryBuilder value(ExpressionType type) {
+		String field = null;
+		int distance = -1;
+		String option;
+		while ((option = option()) != null) {
+			if ("field".equals(option)) {
+				field = identifier();
+			} else if ("distance".equals(option) && ExpressionType.NEAR.equals(type)) {
+				int start = position;
+				Object number = value();
+				if (!(number instanceof Long) || (Long) number < 0 || (Long) number > Integer.MAX_VALUE) {
+					position = start;
+					throw error("Invalid distance");
+				}
+				distance = ((Long) number).intValue();
+			} else {
+				throw error("Unsupported option " + option);
+			}
+		}
+		if (ExpressionType.NEAR.equals(type) && distance < 0)
+			throw error("near requires a distance");
+		skipWhitespace();
+		Object value = ExpressionType.TERM.equals(type) ? value() : string();
+		return StructuredQueryBuilder.valueOf(type, field, value, Math.max(distance, 0));
+	}
+
+	private StructuredQueryBuilder range() {
+		String field = null;
+		String option;
+		while ((option = option()) != null) {
+			if (!"field".equals(option))
+				throw error("Unsupported option " + option);
+			field = identifier();
+		}
+		if (field == null)
+			throw error("A range requires a field");
+		skipWhitespace();
+		if (!peek('[') && !peek('{'))
+			throw error("Expected [ or {");
+		return range(field);
+	}
+
+	private StructuredQueryBuilder range(String field) {
+		boolean fromInclusive = query.charAt(position++) == '[';
+		skipWhitespace();
+		Object from = peek(',') ? null : value();
+		skipWhitespace();
+		expect(',');
+		skipWhitespace();
+		Object to = peek(']') || peek('}') ? null : value();
+		skipWhitespace();
+		boolean toInclusive;
+		if (peek(']')) {
+			toInclusive = true;
+		} else if (peek('}')) {
+			toInclusive = false;
+		} else {
+			throw error("Expected ] or }");
+		}
+		position++;
+		return StructuredQueryBuilder.rangeOf(field, from, fromInclusive, to, toInclusive);
+	}
+
+	/**
+	 * Parses an option name followed by <code>=</code>, and the whitespace
+	 * after it, or returns null if there is no option at the current position.
+	 */
+	private String option() {
+		skipWhitespace();
+		int start = position;
+		while (position < query.length() && isIdentifierPart(query.charAt(position))) {
+			position++;
+		}
+		if (position == start || !peek('=')) {
+			position = start;
+			return null;
+		}
+		String option = query.substring(start, position);
+		position++;
+		skipWhitespace();
+		return option;
+	}
+
+	private String identifier() {
+		int start = position;
+		while (position < query.length() && isIdentifierPart(query.charAt(position))) {
+			position++;
+		}
+		if (position == start)
+			throw error("Expected a name");
+		return query.substring(start, position);
+	}
+
+	/**
+	 * Parses a quoted String or an unquoted number.
+	 */
+	private Object value() {
+		if (peek('\'')) {
+			return string();
+		}
+		int start = position;
+		boolean decimal = false;
+		if (peek('-') || peek('+')) {
+			position++;
+		}
+		while (position < query.length()) {
+			char c = query.charAt(position);
+			if (c == '.' || c == 'e' || c == 'E' || (decimal && (c == '-' || c == '+'))) {
+				decimal = true;
+			} else if (c < '0' || c > '9') {
+				break;
+			}
+			position++;
+		}
+		String number = query.substring(start, position);
+		try {
+			if (decimal) {
+				return Double.valueOf(number);
+			}
+			return Long.valueOf(number);
+		} catch (NumberFormatException e) {
+			position = start;
+			throw error("Expected a value");
+		}
+	}
+
+	/**
+	 * Parses a quoted String, removing the escapes.
+	 */
+	private String string() {
+		expect('\'');
+		int start = position;
+		StringBuilder builder = null;
+		while (position < query.length()) {
+			char c = query.charAt(position);
+			if (c == '\'') {
+				String string = builder == null ? query.substring(start, position) : builder.toString();
+				position++;
+				return string;
+			}
+			if (c == '\\') {
+				if (builder == null) {
+					builder = new StringBuilder(query.length() - start);
+					builder.append(query, start, position);
+				}
+				position++;
+				if (position >= query.length())
+					break;
+				c = query.charAt(position);
+			}
+			if (builder != null) {
+				builder.append(c);
+			}
+			position++;
+		}
+		throw error("Unterminated string");
+	}
+
+	private void expect(char c) {
+		skipWhitespace();
+		if (!peek(c))
+			throw error("Expected " + c);
+		position++;
+	}
+
+	private boolean peek(char c) {
+		return position < query.length() && query.charAt(position) == c;
+	}
+
+	private void skipWhitespace() {
+		while (position < query.length() && Character.isWhitespace(query.charAt(position))) {
+			position++;
+		}
+	}
+
+	private static boolean isIdentifierPart(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_';
+	}
+
+	private IllegalArgumentException error(String message) {
+		return new IllegalArgumentException(message + " at position " + position + " of query: " + query);
+	}
+}
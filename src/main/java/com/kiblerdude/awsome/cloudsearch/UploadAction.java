@@ -1,30 +1,25 @@
 package com.kiblerdude.awsome.cloudsearch;
 
-import com.fasterxml.jackson.annotation.JsonInclude;
-import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
  * Model for adding or deleting documents in Cloudsearch.
  * <p>
+ * Actions are written by {@link UploadActionSerializer}.
+ * <p>
  * This class is package protected.
  * 
  * @author kiblerj
  * 
  */
-@JsonSerialize
-@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonSerialize(using = UploadActionSerializer.class)
 class UploadAction<T extends Object> {
 
-	@JsonProperty(value = "type")
 	private final String type;
 
-	@JsonProperty(value = "id")
 	private final String id;
 
-	@JsonProperty(value = "fields")
 	private final T fields;
 
 	/**
@@ -67,9 +62,8 @@ class UploadAction<T extends Object> {
 	
 	@Override
 	public String toString() {
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			return mapper.writeValueAsString(this);
+			return SdfMapper.MAPPER.writeValueAsString(this);
 		} catch (JsonProcessingException e) {
 			return "error";
 		}
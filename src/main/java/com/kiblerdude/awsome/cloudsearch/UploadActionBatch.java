@@ -4,7 +4,6 @@ import java.util.List;
 
 import com.fasterxml.jackson.annotation.JsonValue;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 
 /**
@@ -31,9 +30,8 @@ class UploadActionBatch<T extends Object> {
 	
 	@Override
 	public String toString() {
-		ObjectMapper mapper = new ObjectMapper();
 		try {
-			return mapper.writeValueAsString(this);
+			return SdfMapper.MAPPER.writeValueAsString(this);
 		} catch (JsonProcessingException e) {
 			return "error";
 		}		
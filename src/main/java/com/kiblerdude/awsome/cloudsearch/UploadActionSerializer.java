@@ -0,0 +1,35 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+/**
+ * Writes an {@link UploadAction} directly as <code>type</code>,
+ * <code>id</code> and <code>fields</code>, without bean introspection of the
+ * action itself. The <code>fields</code> serializer is resolved through the
+ * provider's serializer cache.
+ * <p>
+ * This class is package protected.
+ *
+ * @author kiblerj
+ *
+ */
+final class UploadActionSerializer extends JsonSerializer<UploadAction<?>> {
+
+	@Override
+	public void serialize(UploadAction<?> action, JsonGenerator generator, SerializerProvider provider)
+			throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("type", action.getType());
+		generator.writeStringField("id", action.getId());
+		Object fields = action.getFields();
+		if (fields != null) {
+			generator.writeFieldName("fields");
+			provider.defaultSerializeValue(fields, generator);
+		}
+		generator.writeEndObject();
+	}
+}
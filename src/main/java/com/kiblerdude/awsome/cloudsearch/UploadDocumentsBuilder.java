@@ -2,7 +2,7 @@ package com.kiblerdude.awsome.cloudsearch;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
-import java.io.UnsupportedEncodingException;
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -12,10 +12,9 @@ import java.util.Map.Entry;
 import org.apache.http.entity.ContentType;
 
 import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
-import com.amazonaws.util.StringInputStream;
 import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.collect.ImmutableSet;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
 
 /**
  * Builds AWS Cloudsearch {@link UploadDocumentsRequest}.
@@ -49,15 +48,47 @@ import com.google.common.collect.ImmutableSet;
  */
 public final class UploadDocumentsBuilder<T extends Object> {
 	
-	private ImmutableSet<UploadAction<T>> adds;
-	private ImmutableSet<UploadAction<T>> deletes;
+	private final List<UploadAction<T>> adds;
+	private final List<UploadAction<T>> deletes;
+	private final Metrics metrics;
 	
 	/**
 	 * Constructor
 	 */
 	public UploadDocumentsBuilder() {
-		adds = ImmutableSet.of();
-		deletes = ImmutableSet.of();
+		this(Metrics.NOOP);
+	}
+	
+	private UploadDocumentsBuilder(Metrics metrics) {
+		adds = new ArrayList<>();
+		deletes = new ArrayList<>();
+		this.metrics = checkNotNull(metrics, "metrics is null");
+	}
+	
+	/**
+	 * Constructor. Prepares the serializer for <code>documentClass</code> so
+	 * the first {@link #build()} does not pay for introspecting it.
+	 * 
+	 * @param documentClass
+	 *            The class of the documents being added.
+	 */
+	public UploadDocumentsBuilder(Class<T> documentClass) {
+		this(documentClass, Metrics.NOOP);
+	}
+	
+	/**
+	 * Constructor. Prepares the serializer for <code>documentClass</code>, and
+	 * records the size and serialization time of each {@link #build()}.
+	 * 
+	 * @param documentClass
+	 *            The class of the documents being added.
+	 * @param metrics
+	 *            The {@link Metrics} receiving the batch sizes.
+	 */
+	public UploadDocumentsBuilder(Class<T> documentClass, Metrics metrics) {
+		this(metrics);
+		checkNotNull(documentClass, "Document class is null");
+		SdfMapper.warm(documentClass);
 	}
 	
 	/**
@@ -68,16 +99,19 @@ public final class UploadDocumentsBuilder<T extends Object> {
 		UploadDocumentsRequest request = new UploadDocumentsRequest();
 		request.setContentType(ContentType.APPLICATION_JSON.getMimeType());
 		try {
-			ObjectMapper mapper = new ObjectMapper();
 			List<UploadAction<T>> actions = new ArrayList<>(adds.size() + deletes.size());
-			actions.addAll(adds.asList());
-			actions.addAll(deletes.asList());
+			actions.addAll(adds);
+			actions.addAll(deletes);
 			UploadActionBatch<T> batch = new UploadActionBatch<>(actions);
-			String json = mapper.writeValueAsString(batch);
-			request.setContentLength((long)json.length());
-			request.setDocuments(new StringInputStream(json));
+			long start = System.nanoTime();
+			byte[] json = SdfMapper.MAPPER.writeValueAsBytes(batch);
+			metrics.record(MetricNames.CLOUDSEARCH_UPLOAD_SERIALIZE_TIME, System.nanoTime() - start);
+			metrics.record(MetricNames.CLOUDSEARCH_UPLOAD_ACTIONS, actions.size());
+			metrics.record(MetricNames.CLOUDSEARCH_UPLOAD_BYTES, json.length);
+			request.setContentLength((long)json.length);
+			request.setDocuments(new ByteArrayInputStream(json));
 			return request;
-		} catch (JsonProcessingException | UnsupportedEncodingException e) {
+		} catch (JsonProcessingException e) {
 			return null;
 		}
 	}
@@ -95,10 +129,7 @@ public final class UploadDocumentsBuilder<T extends Object> {
 	public UploadDocumentsBuilder<T> add(String id, T document) {
 		checkNotNull(id, "Document id is null");
 		checkNotNull(document, "Document to add is null");
-		ImmutableSet.Builder<UploadAction<T>> builder = new ImmutableSet.Builder<>();
-		builder.addAll(adds);
-		builder.add(new UploadAction<>(id, document));
-		adds = builder.build();
+		adds.add(new UploadAction<>(id, document));
 		return this;
 	}
 
@@ -112,12 +143,9 @@ public final class UploadDocumentsBuilder<T extends Object> {
 	 */
 	public UploadDocumentsBuilder<T> add(Map<String, T> documents) {
 		checkNotNull(documents, "Documents to add is null");
-		ImmutableSet.Builder<UploadAction<T>> builder = new ImmutableSet.Builder<>();
-		builder.addAll(adds);
 		for (Entry<String, T> entry : documents.entrySet()) {
-			builder.add(new UploadAction<T>(entry.getKey(), entry.getValue()));
+			adds.add(new UploadAction<T>(entry.getKey(), entry.getValue()));
 		}
-		adds = builder.build();
 		return this;
 	}
 	
@@ -130,12 +158,9 @@ public final class UploadDocumentsBuilder<T extends Object> {
 	 */
 	public UploadDocumentsBuilder<T> delete(Iterable<String> ids) {
 		checkNotNull(ids, "Document ids to delete are null");
-		ImmutableSet.Builder<UploadAction<T>> builder = new ImmutableSet.Builder<>();
-		builder.addAll(deletes);
 		for (String id : ids) {
-			builder.add(new UploadAction<T>(id));
+			deletes.add(new UploadAction<T>(id));
 		}
-		deletes = builder.build();
 		return this;
 	}
 	
@@ -0,0 +1,137 @@
+package com.kiblerdude.awsome.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values.
+ * <p>
+ * Values are counted in log-linear buckets, in the manner of HdrHistogram:
+ * values below 64 are counted exactly, and larger values in 32 buckets per
+ * power of two, so that percentiles are accurate to about 3% over the whole
+ * range of long. Recording is a few shifts and an atomic increment, and the
+ * histogram is a fixed 1888 counters, whatever the number of values.
+ * <p>
+ * Negative values are recorded as 0. Reads are not atomic with respect to
+ * concurrent writes, so a percentile may miss the values recorded while it
+ * is computed.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class Histogram {
+
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records a value.
+	 *
+	 * @param value
+	 *            The value.
+	 */
+	public void record(long value) {
+		long v = Math.max(value, 0L);
+		counts.incrementAndGet(index(v));
+		count.incrementAndGet();
+		sum.addAndGet(v);
+		long current = max.get();
+		while (v > current && !max.compareAndSet(current, v)) {
+			current = max.get();
+		}
+	}
+
+	/**
+	 * @return The number of values recorded.
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return The sum of the values recorded.
+	 */
+	public long getSum() {
+		return sum.get();
+	}
+
+	/**
+	 * @return The largest value recorded, or 0 if none were.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * @return The mean of the values recorded, or 0 if none were.
+	 */
+	public double getMean() {
+		long n = count.get();
+		return n == 0 ? 0.0 : (double) sum.get() / n;
+	}
+
+	/**
+	 * Returns the value at a percentile, as the highest value of the bucket
+	 * holding it.
+	 *
+	 * @param percentile
+	 *            The percentile, from 0 to 100.
+	 * @return The value at <code>percentile</code>, or 0 if no values were
+	 *         recorded.
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (percentile < 0.0 || percentile > 100.0)
+			throw new IllegalArgumentException("percentile must be from 0 to 100");
+		long total = 0;
+		long[] snapshot = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0L;
+		}
+		long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * Values below <code>2 * SUB_BUCKETS</code> have their own bucket. Larger
+	 * values are shifted right until their top <code>SUB_BUCKET_BITS + 1</code>
+	 * bits remain, and the shift picks the run of buckets.
+	 */
+	static int index(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/**
+	 * The highest value counted in bucket <code>index</code>.
+	 */
+	static long highestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long top = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((top + 1) << shift) - 1;
+	}
+}
@@ -0,0 +1,107 @@
+package com.kiblerdude.awsome.metrics;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * Keeps counters and {@link Histogram}s in memory, for tests, benchmarks, or
+ * to be read periodically by a reporter.
+ * <p>
+ * Counters and histograms are created on first use; after that, recording
+ * is lock-free and does not allocate.
+ * <p>
+ * Example:
+ *
+ * <pre>
+ * InMemoryMetrics metrics = new InMemoryMetrics();
+ * SQueue&lt;MyMessage&gt; queue = SQueue.builder(&quot;myqueue&quot;, client, MyMessage.class).metrics(metrics).build();
+ * ...
+ * long p99 = metrics.getHistogram(MetricNames.SQS_RECEIVE_TIME).get().getValueAtPercentile(99.0);
+ * </pre>
+ *
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class InMemoryMetrics implements Metrics {
+
+	private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+
+	@Override
+	public void count(String name, long delta) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			checkNotNull(name, "name is null");
+			AtomicLong created = new AtomicLong();
+			counter = counters.putIfAbsent(name, created);
+			if (counter == null) {
+				counter = created;
+			}
+		}
+		counter.addAndGet(delta);
+	}
+
+	@Override
+	public void record(String name, long value) {
+		Histogram histogram = histograms.get(name);
+		if (histogram == null) {
+			checkNotNull(name, "name is null");
+			Histogram created = new Histogram();
+			histogram = histograms.putIfAbsent(name, created);
+			if (histogram == null) {
+				histogram = created;
+			}
+		}
+		histogram.record(value);
+	}
+
+	/**
+	 * Returns the value of a counter.
+	 *
+	 * @param name
+	 *            The name of the counter.
+	 * @return The value of the counter, or 0 if nothing was counted.
+	 */
+	public long getCount(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter == null ? 0L : counter.get();
+	}
+
+	/**
+	 * Returns a distribution.
+	 *
+	 * @param name
+	 *            The name of the distribution.
+	 * @return The {@link Histogram}, or absent if nothing was recorded.
+	 */
+	public Optional<Histogram> getHistogram(String name) {
+		return Optional.fromNullable(histograms.get(name));
+	}
+
+	/**
+	 * @return The current value of every counter, by name.
+	 */
+	public ImmutableMap<String, Long> getCounts() {
+		ImmutableMap.Builder<String, Long> counts = ImmutableMap.builder();
+		for (Map.Entry<String, AtomicLong> counter : counters.entrySet()) {
+			counts.put(counter.getKey(), counter.getValue().get());
+		}
+		return counts.build();
+	}
+
+	/**
+	 * @return Every distribution, by name.
+	 */
+	public ImmutableMap<String, Histogram> getHistograms() {
+		return ImmutableMap.copyOf(histograms);
+	}
+}
@@ -0,0 +1,86 @@
+package com.kiblerdude.awsome.metrics;
+
+/**
+ * The names of the counters and distributions recorded by the library.
+ * Durations are in nanoseconds and sizes in bytes, unless noted.
+ *
+ * @author kiblerj
+ *
+ */
+public final class MetricNames {
+
+	/** Counter of messages sent. */
+	public static final String SQS_SEND = "sqs.send";
+	/** Counter of messages which could not be serialized, and were not sent. */
+	public static final String SQS_SEND_ERRORS = "sqs.send.errors";
+	/** Distribution of send request durations. */
+	public static final String SQS_SEND_TIME = "sqs.send.time";
+	/** Distribution of serialized message lengths, in characters. */
+	public static final String SQS_SEND_LENGTH = "sqs.send.length";
+	/** Distribution of message serialization durations. */
+	public static final String SQS_SERIALIZE_TIME = "sqs.serialize.time";
+	/** Counter of receive requests. */
+	public static final String SQS_RECEIVE = "sqs.receive";
+	/** Counter of receive requests which returned no messages. */
+	public static final String SQS_RECEIVE_EMPTY = "sqs.receive.empty";
+	/** Distribution of receive request durations. */
+	public static final String SQS_RECEIVE_TIME = "sqs.receive.time";
+	/** Distribution of the number of messages returned by each receive request. */
+	public static final String SQS_RECEIVE_MESSAGES = "sqs.receive.messages";
+	/** Distribution of message deserialization durations. */
+	public static final String SQS_DESERIALIZE_TIME = "sqs.deserialize.time";
+	/** Distribution of the number of messages buffered after each receive request. */
+	public static final String SQS_BUFFER_DEPTH = "sqs.buffer.depth";
+	/** Distribution of the UTF-8 size of the message bodies buffered after each receive request. */
+	public static final String SQS_BUFFER_BYTES = "sqs.buffer.bytes";
+	/** Counter of messages popped or received. */
+	public static final String SQS_POP = "sqs.pop";
+	/** Counter of received messages deleted. */
+	public static final String SQS_ACK = "sqs.ack";
+	/** Counter of received messages that could not be deleted. */
+	public static final String SQS_ACK_ERRORS = "sqs.ack.errors";
+	/** Counter of repeated deliveries dropped by a deduplicator. */
+	public static final String SQS_DUPLICATES = "sqs.duplicates";
+	/** Counter of delayed messages received before they were due and sent on again. */
+	public static final String SQS_DELAY_HOPS = "sqs.delay.hops";
+	/** Counter of messages handled and acknowledged by a weighted consumer. */
+	public static final String SQS_CONSUMER_HANDLED = "sqs.consumer.handled";
+	/** Counter of failed receives, handlers and acknowledgements in a weighted consumer. */
+	public static final String SQS_CONSUMER_ERRORS = "sqs.consumer.errors";
+	/** Counter of queues a weighted consumer served out of turn because they waited too long. */
+	public static final String SQS_CONSUMER_STARVED = "sqs.consumer.starved";
+	/** Distribution of message handling durations in a weighted consumer. */
+	public static final String SQS_CONSUMER_HANDLE_TIME = "sqs.consumer.handle.time";
+	/** Counter of queue URLs resolved with a getQueueUrl request. */
+	public static final String SQS_RESOLVE = "sqs.resolve";
+	/** Counter of queue URLs found in the registry cache. */
+	public static final String SQS_RESOLVE_CACHED = "sqs.resolve.cached";
+	/** Distribution of getQueueUrl request durations. */
+	public static final String SQS_RESOLVE_TIME = "sqs.resolve.time";
+
+	/** Distribution of the number of actions in each upload batch. */
+	public static final String CLOUDSEARCH_UPLOAD_ACTIONS = "cloudsearch.upload.actions";
+	/** Distribution of upload batch sizes. */
+	public static final String CLOUDSEARCH_UPLOAD_BYTES = "cloudsearch.upload.bytes";
+	/** Distribution of upload batch serialization durations. */
+	public static final String CLOUDSEARCH_UPLOAD_SERIALIZE_TIME = "cloudsearch.upload.serialize.time";
+	/** Counter of search requests. */
+	public static final String CLOUDSEARCH_SEARCH = "cloudsearch.search";
+	/** Counter of failed search requests. */
+	public static final String CLOUDSEARCH_SEARCH_ERRORS = "cloudsearch.search.errors";
+	/** Counter of searches cancelled at the deadline of a fan out. */
+	public static final String CLOUDSEARCH_SEARCH_TIMEOUTS = "cloudsearch.search.timeouts";
+	/** Distribution of search request durations. */
+	public static final String CLOUDSEARCH_SEARCH_TIME = "cloudsearch.search.time";
+	/** Counter of queue messages consumed by the indexer. */
+	public static final String CLOUDSEARCH_INDEX_MESSAGES = "cloudsearch.index.messages";
+	/** Counter of actions replaced by a later action for the same document id in the same batch. */
+	public static final String CLOUDSEARCH_INDEX_COALESCED = "cloudsearch.index.coalesced";
+	/** Counter of queue messages that could not be indexed and are left on the queue. */
+	public static final String CLOUDSEARCH_INDEX_ERRORS = "cloudsearch.index.errors";
+	/** Distribution of the time from the first message of a batch to its upload. */
+	public static final String CLOUDSEARCH_INDEX_LATENCY = "cloudsearch.index.latency";
+
+	private MetricNames() {
+	}
+}
@@ -0,0 +1,54 @@
+package com.kiblerdude.awsome.metrics;
+
+/**
+ * Receives the counts and measurements of SQS and Cloudsearch operations, so
+ * that pollers and batch sizes can be tuned from data.
+ * <p>
+ * Implementations are called on the hot path of every operation, from many
+ * threads at once: they must be thread safe, should not block, and should
+ * not allocate. {@link #NOOP} is the default, and {@link InMemoryMetrics}
+ * keeps lock-free counters and histograms in memory. To report elsewhere,
+ * implement this interface over your metrics library.
+ * <p>
+ * The names recorded by the library are listed in {@link MetricNames}.
+ * Durations are recorded in nanoseconds.
+ *
+ * @author kiblerj
+ *
+ */
+public interface Metrics {
+
+	/**
+	 * Discards everything.
+	 */
+	Metrics NOOP = new Metrics() {
+		@Override
+		public void count(String name, long delta) {
+		}
+
+		@Override
+		public void record(String name, long value) {
+		}
+	};
+
+	/**
+	 * Adds <code>delta</code> to the counter <code>name</code>.
+	 *
+	 * @param name
+	 *            The name of the counter.
+	 * @param delta
+	 *            The amount to add.
+	 */
+	void count(String name, long delta);
+
+	/**
+	 * Records a measurement, such as a duration or a size, in the
+	 * distribution <code>name</code>.
+	 *
+	 * @param name
+	 *            The name of the distribution.
+	 * @param value
+	 *            The measurement.
+	 */
+	void record(String name, long value);
+}
@@ -0,0 +1,140 @@
+package com.kiblerdude.awsome.sqs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnel;
+import com.google.common.hash.Funnels;
+
+/**
+ * A {@link Deduplicator} for very high volumes that remembers recent keys in two generations of
+ * {@link BloomFilter}s.
+ * <p>
+ * New keys go into the current filter.  When it holds <code>expectedInsertions</code> keys, or
+ * the window has passed since it was started, it becomes the previous filter and a new current
+ * filter is started.  A key found in the previous filter is added to the current one.  A key is
+ * remembered for at least the window, and at most twice the window, unless more than
+ * <code>expectedInsertions</code> keys arrive within the window.
+ * <p>
+ * The memory used is fixed by the expected insertions and the false positive probability, about
+ * 1.2 bytes per key at 1%, but a key that was never added is reported as a duplicate with up to
+ * twice that probability.  Use it only where dropping that share of unique messages is
+ * acceptable, and {@link LruDeduplicator} otherwise.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class BloomDeduplicator implements Deduplicator {
+
+    private static final Funnel<CharSequence> FUNNEL = Funnels.stringFunnel(StandardCharsets.UTF_8);
+
+    private final int expectedInsertions;
+    private final double fpp;
+    private final long windowNanos;
+    private final Ticker ticker;
+    private BloomFilter<CharSequence> current;
+    private BloomFilter<CharSequence> previous;
+    private int count;
+    private long started;
+
+    /**
+     * Constructor
+     *
+     * @param expectedInsertions
+     *            The number of keys remembered in each generation
+     * @param fpp
+     *            The false positive probability of each generation
+     * @param window
+     *            The time a key is remembered for
+     * @param unit
+     *            The unit of the window
+     */
+    public BloomDeduplicator(int expectedInsertions, double fpp, long window, TimeUnit unit) {
+        this(expectedInsertions, fpp, window, unit, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param expectedInsertions
+     *            The number of keys remembered in each generation
+     * @param fpp
+     *            The false positive probability of each generation
+     * @param window
+     *            The time a key is remembered for
+     * @param unit
+     *            The unit of the window
+     * @param ticker
+     *            The {@link Ticker} measuring the window
+     */
+    public BloomDeduplicator(int expectedInsertions, double fpp, long window, TimeUnit unit, Ticker ticker) {
+        if (expectedInsertions < 1)
+            throw new IllegalArgumentException("expectedInsertions must be at least 1");
+        if (fpp <= 0.0 || fpp >= 1.0)
+            throw new IllegalArgumentException("fpp must be between 0 and 1");
+        if (window < 1)
+            throw new IllegalArgumentException("window must be positive");
+        this.expectedInsertions = expectedInsertions;
+        this.fpp = fpp;
+        this.windowNanos = checkNotNull(unit, "unit is null").toNanos(window);
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        this.current = BloomFilter.create(FUNNEL, expectedInsertions, fpp);
+        this.previous = BloomFilter.create(FUNNEL, expectedInsertions, fpp);
+        this.started = ticker.read();
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        checkNotNull(key, "key is null");
+        expire();
+        if (current.mightContain(key)) {
+            return true;
+        }
+        if (previous.mightContain(key)) {
+            insert(key);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void add(String key) {
+        checkNotNull(key, "key is null");
+        expire();
+        if (!current.mightContain(key)) {
+            insert(key);
+        }
+    }
+
+    private void expire() {
+        long now = ticker.read();
+        if (now - started >= 2 * windowNanos) {
+            // both generations are out of the window
+            current = BloomFilter.create(FUNNEL, expectedInsertions, fpp);
+            rotate(now);
+        } else if (now - started >= windowNanos) {
+            rotate(started + windowNanos);
+        }
+    }
+
+    private void insert(String key) {
+        if (count == expectedInsertions) {
+            rotate(ticker.read());
+        }
+        current.put(key);
+        count++;
+    }
+
+    private void rotate(long now) {
+        previous = current;
+        current = BloomFilter.create(FUNNEL, expectedInsertions, fpp);
+        count = 0;
+        started = now;
+    }
+}
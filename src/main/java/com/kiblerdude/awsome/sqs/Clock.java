@@ -0,0 +1,28 @@
+package com.kiblerdude.awsome.sqs;
+
+/**
+ * Reads the wall clock time, against which the delivery times of delayed messages are measured.
+ * Unlike a {@link com.google.common.base.Ticker}, whose origin is arbitrary, the time is
+ * measured from the epoch, so it can be stored in a message and compared on another host.
+ *
+ * @author kiblerj
+ *
+ */
+public interface Clock {
+
+    /**
+     * The system clock.
+     */
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+    };
+
+    /**
+     * Returns the current time.
+     * @return The milliseconds since the epoch
+     */
+    long currentTimeMillis();
+}
@@ -0,0 +1,27 @@
+package com.kiblerdude.awsome.sqs;
+
+/**
+ * Remembers the keys of recently handled messages so a {@link SQueue} can drop repeated
+ * deliveries before deserializing them.
+ * <p>
+ * Implementations are bounded in memory and forget keys after a time window, so a key is only
+ * reported for duplicates that arrive within the window.  Implementations must be thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public interface Deduplicator {
+
+    /**
+     * Returns <code>true</code> if the key was added within the window.
+     * @param key
+     * @return boolean
+     */
+    boolean contains(String key);
+
+    /**
+     * Remembers the key of a handled message.
+     * @param key
+     */
+    void add(String key);
+}
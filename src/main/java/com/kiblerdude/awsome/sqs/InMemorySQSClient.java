@@ -0,0 +1,833 @@
+package com.kiblerdude.awsome.sqs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.AmazonServiceException.ErrorType;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.AddPermissionRequest;
+import com.amazonaws.services.sqs.model.BatchEntryIdsNotDistinctException;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchRequest;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityBatchResult;
+import com.amazonaws.services.sqs.model.ChangeMessageVisibilityRequest;
+import com.amazonaws.services.sqs.model.CreateQueueRequest;
+import com.amazonaws.services.sqs.model.CreateQueueResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequest;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageRequest;
+import com.amazonaws.services.sqs.model.DeleteQueueRequest;
+import com.amazonaws.services.sqs.model.EmptyBatchRequestException;
+import com.amazonaws.services.sqs.model.GetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
+import com.amazonaws.services.sqs.model.GetQueueUrlRequest;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.ListDeadLetterSourceQueuesRequest;
+import com.amazonaws.services.sqs.model.ListDeadLetterSourceQueuesResult;
+import com.amazonaws.services.sqs.model.ListQueuesRequest;
+import com.amazonaws.services.sqs.model.ListQueuesResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.PurgeQueueRequest;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiptHandleIsInvalidException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.RemovePermissionRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageResult;
+import com.amazonaws.services.sqs.model.SetQueueAttributesRequest;
+import com.amazonaws.services.sqs.model.TooManyEntriesInBatchRequestException;
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.base.Utf8;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+/**
+ * An in-memory, thread safe stand-in for SQS, so that producers and consumers can be tested and
+ * benchmarked offline with the semantics of a real queue.
+ * <p>
+ * Supported operations are create queue, get queue url, send and send batch, receive, delete and
+ * delete batch, change message visibility, get queue attributes and purge.  The other operations
+ * of the client fail with an {@link UnsupportedOperationException}, and never call AWS.  The
+ * supported operations follow SQS:
+ * <ul>
+ * <li>received messages are invisible for the visibility timeout, and are delivered again unless
+ * deleted before it ends;
+ * <li>messages may be delayed, by <code>DelaySeconds</code> on the send or on the queue;
+ * <li>receives wait up to <code>WaitTimeSeconds</code>, or the queue's
+ * <code>ReceiveMessageWaitTimeSeconds</code>, for a message to arrive;
+ * <li>the <code>ApproximateNumberOfMessages</code>, <code>ApproximateNumberOfMessagesNotVisible</code>
+ * and <code>ApproximateNumberOfMessagesDelayed</code> attributes are exact;
+ * <li>deleting with the receipt handle of an earlier delivery is ignored, and the message stays
+ * on the queue;
+ * <li>batches hold 1 to 10 entries with distinct ids, and bodies are at most 256 KB.
+ * </ul>
+ * Queues whose names end with <code>.fifo</code> are first in, first out within a message group.
+ * This version of the SDK has no message group parameter, so the group is given by the
+ * {@link #MESSAGE_GROUP_ID} message attribute.  While a message of a group is in flight, the
+ * later messages of the group are not delivered.
+ * <p>
+ * Every request can be slowed by a fixed latency and limited to a number of requests per second;
+ * a request over the limit fails with a <code>RequestThrottled</code> error, as SQS does.
+ * Visibility timeouts and delays are measured with a {@link Ticker}, which a test may control.
+ * Receives wait in real time.
+ * <p>
+ * Example:
+ * <pre>
+ * InMemorySQSClient client = InMemorySQSClient.builder().latency(5, TimeUnit.MILLISECONDS).build();
+ * client.createQueue("myqueue");
+ * SQueue&lt;MyMessage&gt; queue = new SQueue&lt;&gt;("myqueue", client, MyMessage.class);
+ * </pre>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class InMemorySQSClient extends AmazonSQSClient {
+
+    /**
+     * The message attribute holding the message group of messages sent to a FIFO queue.
+     */
+    public static final String MESSAGE_GROUP_ID = "MessageGroupId";
+
+    private static final String URL_PREFIX = "https://sqs.local/000000000000/";
+    private static final String FIFO_SUFFIX = ".fifo";
+    private static final String ALL = "All";
+    private static final String ATTR_VISIBILITY_TIMEOUT = "VisibilityTimeout";
+    private static final String ATTR_DELAY_SECONDS = "DelaySeconds";
+    private static final String ATTR_WAIT_TIME_SECONDS = "ReceiveMessageWaitTimeSeconds";
+    private static final String ATTR_MESSAGES = "ApproximateNumberOfMessages";
+    private static final String ATTR_MESSAGES_NOT_VISIBLE = "ApproximateNumberOfMessagesNotVisible";
+    private static final String ATTR_MESSAGES_DELAYED = "ApproximateNumberOfMessagesDelayed";
+    private static final String ATTR_SENT_TIMESTAMP = "SentTimestamp";
+    private static final String ATTR_RECEIVE_COUNT = "ApproximateReceiveCount";
+    private static final String ATTR_FIRST_RECEIVE_TIMESTAMP = "ApproximateFirstReceiveTimestamp";
+    private static final int DEFAULT_VISIBILITY_TIMEOUT_SECONDS = 30;
+    private static final int MAX_VISIBILITY_TIMEOUT_SECONDS = 43200;
+    private static final int MAX_DELAY_SECONDS = 900;
+    private static final int MAX_WAIT_TIME_SECONDS = 20;
+    private static final int MAX_MESSAGES = 10;
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024;
+
+    private final ConcurrentMap<String, LocalQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private final Ticker ticker;
+    private final long latencyNanos;
+    private final Optional<RateLimiter> rateLimiter;
+
+    /**
+     * Constructor, for a client without latency or throttling.
+     */
+    public InMemorySQSClient() {
+        this(new Builder());
+    }
+
+    private InMemorySQSClient(Builder builder) {
+        this.ticker = builder.ticker;
+        this.latencyNanos = builder.latencyNanos;
+        this.rateLimiter = builder.maxRequestsPerSecond > 0
+                ? Optional.of(RateLimiter.create(builder.maxRequestsPerSecond)) : Optional.<RateLimiter> absent();
+    }
+
+    /**
+     * Returns a {@link Builder} for a client with injected latency or throttling.
+     * @return {@link Builder}
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    @Override
+    public CreateQueueResult createQueue(CreateQueueRequest request) {
+        call();
+        String name = checkNotNull(request.getQueueName(), "queue name is null");
+        if (name.isEmpty() || name.length() > 80 || !name.matches("[A-Za-z0-9_-]+(\\.fifo)?"))
+            throw invalid("InvalidParameterValue", "Invalid queue name " + name);
+        String url = URL_PREFIX + name;
+        Map<String, String> attributes = request.getAttributes() == null
+                ? ImmutableMap.<String, String> of() : request.getAttributes();
+        LocalQueue created = new LocalQueue(name.endsWith(FIFO_SUFFIX),
+                seconds(attributes, ATTR_VISIBILITY_TIMEOUT, DEFAULT_VISIBILITY_TIMEOUT_SECONDS,
+                        MAX_VISIBILITY_TIMEOUT_SECONDS),
+                seconds(attributes, ATTR_DELAY_SECONDS, 0, MAX_DELAY_SECONDS),
+                seconds(attributes, ATTR_WAIT_TIME_SECONDS, 0, MAX_WAIT_TIME_SECONDS));
+        queues.putIfAbsent(url, created);
+        return new CreateQueueResult().withQueueUrl(url);
+    }
+
+    @Override
+    public GetQueueUrlResult getQueueUrl(GetQueueUrlRequest request) {
+        call();
+        String url = URL_PREFIX + request.getQueueName();
+        queue(url);
+        return new GetQueueUrlResult().withQueueUrl(url);
+    }
+
+    @Override
+    public SendMessageResult sendMessage(SendMessageRequest request) {
+        call();
+        LocalQueue queue = queue(request.getQueueUrl());
+        String messageId = queue.send(request.getMessageBody(), request.getDelaySeconds(),
+                request.getMessageAttributes());
+        return new SendMessageResult().withMessageId(messageId);
+    }
+
+    @Override
+    public SendMessageBatchResult sendMessageBatch(SendMessageBatchRequest request) {
+        call();
+        LocalQueue queue = queue(request.getQueueUrl());
+        List<SendMessageBatchRequestEntry> entries = request.getEntries();
+        Set<String> ids = new HashSet<>();
+        for (SendMessageBatchRequestEntry entry : checkBatch(entries)) {
+            ids.add(entry.getId());
+        }
+        if (ids.size() != entries.size())
+            throw new BatchEntryIdsNotDistinctException("Two or more batch entries have the same id");
+        List<SendMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (SendMessageBatchRequestEntry entry : entries) {
+            try {
+                String messageId = queue.send(entry.getMessageBody(), entry.getDelaySeconds(),
+                        entry.getMessageAttributes());
+                successful.add(new SendMessageBatchResultEntry().withId(entry.getId()).withMessageId(messageId));
+            } catch (AmazonServiceException e) {
+                failed.add(new BatchResultErrorEntry().withId(entry.getId()).withSenderFault(true)
+                        .withCode(e.getErrorCode()).withMessage(e.getMessage()));
+            }
+        }
+        return new SendMessageBatchResult().withSuccessful(successful).withFailed(failed);
+    }
+
+    @Override
+    public ReceiveMessageResult receiveMessage(ReceiveMessageRequest request) {
+        call();
+        LocalQueue queue = queue(request.getQueueUrl());
+        int maxMessages = request.getMaxNumberOfMessages() == null ? 1 : request.getMaxNumberOfMessages();
+        if (maxMessages < 1 || maxMessages > MAX_MESSAGES)
+            throw invalid("InvalidParameterValue", "MaxNumberOfMessages must be from 1 to " + MAX_MESSAGES);
+        int visibilityTimeout = check(request.getVisibilityTimeout(), queue.visibilityTimeout,
+                MAX_VISIBILITY_TIMEOUT_SECONDS, "VisibilityTimeout");
+        int waitTime = check(request.getWaitTimeSeconds(), queue.waitTime, MAX_WAIT_TIME_SECONDS,
+                "WaitTimeSeconds");
+        List<Message> messages = queue.receive(maxMessages, visibilityTimeout, waitTime,
+                request.getAttributeNames(), request.getMessageAttributeNames());
+        return new ReceiveMessageResult().withMessages(messages);
+    }
+
+    @Override
+    public void deleteMessage(DeleteMessageRequest request) {
+        call();
+        queue(request.getQueueUrl()).delete(request.getReceiptHandle());
+    }
+
+    @Override
+    public DeleteMessageBatchResult deleteMessageBatch(DeleteMessageBatchRequest request) {
+        call();
+        LocalQueue queue = queue(request.getQueueUrl());
+        List<DeleteMessageBatchRequestEntry> entries = request.getEntries();
+        Set<String> ids = new HashSet<>();
+        for (DeleteMessageBatchRequestEntry entry : checkBatch(entries)) {
+            ids.add(entry.getId());
+        }
+        if (ids.size() != entries.size())
+            throw new BatchEntryIdsNotDistinctException("Two or more batch entries have the same id");
+        List<DeleteMessageBatchResultEntry> successful = new ArrayList<>();
+        List<BatchResultErrorEntry> failed = new ArrayList<>();
+        for (DeleteMessageBatchRequestEntry entry : entries) {
+            try {
+                queue.delete(entry.getReceiptHandle());
+                successful.add(new DeleteMessageBatchResultEntry().withId(entry.getId()));
+            } catch (AmazonServiceException e) {
+                failed.add(new BatchResultErrorEntry().withId(entry.getId()).withSenderFault(true)
+                        .withCode(e.getErrorCode()).withMessage(e.getMessage()));
+            }
+        }
+        return new DeleteMessageBatchResult().withSuccessful(successful).withFailed(failed);
+    }
+
+    @Override
+    public void changeMessageVisibility(ChangeMessageVisibilityRequest request) {
+        call();
+        LocalQueue queue = queue(request.getQueueUrl());
+        Integer timeout = request.getVisibilityTimeout();
+        if (timeout == null || timeout < 0 || timeout > MAX_VISIBILITY_TIMEOUT_SECONDS)
+            throw invalid("InvalidParameterValue", "VisibilityTimeout must be from 0 to "
+                    + MAX_VISIBILITY_TIMEOUT_SECONDS);
+        queue.changeVisibility(request.getReceiptHandle(), timeout);
+    }
+
+    @Override
+    public GetQueueAttributesResult getQueueAttributes(GetQueueAttributesRequest request) {
+        call();
+        LocalQueue queue = queue(request.getQueueUrl());
+        Map<String, String> all = queue.attributes();
+        List<String> names = request.getAttributeNames();
+        Map<String, String> attributes = new HashMap<>();
+        if (names != null) {
+            for (String name : names) {
+                if (ALL.equals(name)) {
+                    attributes.putAll(all);
+                } else if (all.containsKey(name)) {
+                    attributes.put(name, all.get(name));
+                }
+            }
+        }
+        return new GetQueueAttributesResult().withAttributes(attributes);
+    }
+
+    @Override
+    public void purgeQueue(PurgeQueueRequest request) {
+        call();
+        queue(request.getQueueUrl()).purge();
+    }
+
+    @Override
+    public void setQueueAttributes(SetQueueAttributesRequest request) {
+        throw unsupported("setQueueAttributes");
+    }
+
+    @Override
+    public ChangeMessageVisibilityBatchResult changeMessageVisibilityBatch(ChangeMessageVisibilityBatchRequest request) {
+        throw unsupported("changeMessageVisibilityBatch");
+    }
+
+    @Override
+    public void addPermission(AddPermissionRequest request) {
+        throw unsupported("addPermission");
+    }
+
+    @Override
+    public void removePermission(RemovePermissionRequest request) {
+        throw unsupported("removePermission");
+    }
+
+    @Override
+    public ListQueuesResult listQueues(ListQueuesRequest request) {
+        throw unsupported("listQueues");
+    }
+
+    @Override
+    public ListDeadLetterSourceQueuesResult listDeadLetterSourceQueues(ListDeadLetterSourceQueuesRequest request) {
+        throw unsupported("listDeadLetterSourceQueues");
+    }
+
+    @Override
+    public void deleteQueue(DeleteQueueRequest request) {
+        throw unsupported("deleteQueue");
+    }
+
+    /**
+     * Throttles and delays a request.
+     */
+    private void call() {
+        if (rateLimiter.isPresent() && !rateLimiter.get().tryAcquire()) {
+            AmazonServiceException e = new AmazonServiceException("Rate exceeded");
+            e.setErrorCode("RequestThrottled");
+            e.setStatusCode(400);
+            e.setErrorType(ErrorType.Client);
+            e.setServiceName("AmazonSQS");
+            throw e;
+        }
+        if (latencyNanos > 0) {
+            Uninterruptibles.sleepUninterruptibly(latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private LocalQueue queue(String url) {
+        LocalQueue queue = url == null ? null : queues.get(url);
+        if (queue == null)
+            throw new QueueDoesNotExistException("The specified queue does not exist: " + url);
+        return queue;
+    }
+
+    private static <E> List<E> checkBatch(List<E> entries) {
+        if (entries == null || entries.isEmpty())
+            throw new EmptyBatchRequestException("There should be at least one entry in the request");
+        if (entries.size() > MAX_MESSAGES)
+            throw new TooManyEntriesInBatchRequestException("Maximum number of entries per request are "
+                    + MAX_MESSAGES);
+        return entries;
+    }
+
+    private static int seconds(Map<String, String> attributes, String name, int defaultValue, int max) {
+        String value = attributes.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return check(Integer.valueOf(value), defaultValue, max, name);
+        } catch (NumberFormatException e) {
+            throw invalid("InvalidAttributeValue", "Invalid value for " + name + ": " + value);
+        }
+    }
+
+    private static int check(Integer value, int defaultValue, int max, String name) {
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value < 0 || value > max)
+            throw invalid("InvalidParameterValue", name + " must be from 0 to " + max);
+        return value;
+    }
+
+    /**
+     * Fails an operation of the real client that the stand-in does not have, rather than letting
+     * it call AWS.
+     */
+    private static UnsupportedOperationException unsupported(String operation) {
+        return new UnsupportedOperationException("InMemorySQSClient does not support " + operation);
+    }
+
+    private static AmazonServiceException invalid(String code, String message) {
+        AmazonServiceException e = new AmazonServiceException(message);
+        e.setErrorCode(code);
+        e.setStatusCode(400);
+        e.setErrorType(ErrorType.Client);
+        e.setServiceName("AmazonSQS");
+        return e;
+    }
+
+    /**
+     * A queue.  All state is guarded by the lock.
+     * <p>
+     * Standard queues hand out the <code>ready</code> messages in order.  FIFO queues keep the
+     * messages of each group in order until they are deleted, and hand out the visible messages
+     * at the head of each group.  Delayed and in flight messages are in <code>pending</code> until
+     * they become visible.
+     */
+    private final class LocalQueue {
+        private final boolean fifo;
+        private final int visibilityTimeout;
+        private final int delay;
+        private final int waitTime;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition sent = lock.newCondition();
+        private final Map<Long, LocalMessage> messages = new HashMap<>();
+        private final ArrayDeque<LocalMessage> ready = new ArrayDeque<>();
+        private final LinkedHashMap<String, ArrayDeque<LocalMessage>> groups = new LinkedHashMap<>();
+        private final PriorityQueue<Pending> pending = new PriorityQueue<>();
+        private int inFlight;
+        private int delayed;
+
+        private LocalQueue(boolean fifo, int visibilityTimeout, int delay, int waitTime) {
+            this.fifo = fifo;
+            this.visibilityTimeout = visibilityTimeout;
+            this.delay = delay;
+            this.waitTime = waitTime;
+        }
+
+        private String send(String body, Integer delaySeconds, Map<String, MessageAttributeValue> attributes) {
+            if (body == null || body.isEmpty())
+                throw invalid("MissingParameter", "The request must contain the parameter MessageBody");
+            if (Utf8.encodedLength(body) > MAX_MESSAGE_BYTES)
+                throw invalid("InvalidParameterValue", "Message must be shorter than " + MAX_MESSAGE_BYTES + " bytes");
+            int seconds = check(delaySeconds, delay, MAX_DELAY_SECONDS, "DelaySeconds");
+            String group = null;
+            if (fifo) {
+                MessageAttributeValue value = attributes == null ? null : attributes.get(MESSAGE_GROUP_ID);
+                if (value == null || value.getStringValue() == null)
+                    throw invalid("MissingParameter", "The request must contain the message attribute "
+                            + MESSAGE_GROUP_ID);
+                group = value.getStringValue();
+            }
+            LocalMessage message = new LocalMessage(sequence.incrementAndGet(), body, attributes, group);
+            lock.lock();
+            try {
+                long now = ticker.read();
+                message.visibleAt = now + TimeUnit.SECONDS.toNanos(seconds);
+                messages.put(message.sequence, message);
+                if (fifo) {
+                    ArrayDeque<LocalMessage> messagesOfGroup = groups.get(group);
+                    if (messagesOfGroup == null) {
+                        messagesOfGroup = new ArrayDeque<>();
+                        groups.put(group, messagesOfGroup);
+                    }
+                    messagesOfGroup.add(message);
+                }
+                if (seconds > 0) {
+                    delayed++;
+                    pending.add(new Pending(message));
+                } else {
+                    if (!fifo) {
+                        ready.add(message);
+                    }
+                    sent.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+            return message.messageId;
+        }
+
+        private List<Message> receive(int maxMessages, int visibilityTimeout, int waitTime,
+                Collection<String> attributeNames, Collection<String> messageAttributeNames) {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(waitTime);
+            List<Message> received = new ArrayList<>(maxMessages);
+            lock.lock();
+            try {
+                while (true) {
+                    long now = ticker.read();
+                    promote(now);
+                    long hidden = now + TimeUnit.SECONDS.toNanos(visibilityTimeout);
+                    if (fifo) {
+                        receiveGroups(maxMessages, hidden, now, received, attributeNames, messageAttributeNames);
+                    } else {
+                        List<LocalMessage> visible = new ArrayList<>();
+                        LocalMessage message;
+                        while (received.size() < maxMessages && (message = ready.poll()) != null) {
+                            if (!message.deleted) {
+                                received.add(deliver(message, hidden, now, attributeNames, messageAttributeNames));
+                                if (hidden <= now) {
+                                    visible.add(message);
+                                }
+                            }
+                        }
+                        // with no visibility timeout, the messages are visible again after this receive
+                        ready.addAll(visible);
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    if (!received.isEmpty() || remaining <= 0) {
+                        return received;
+                    }
+                    // wake up for a send, or when the next delayed or in flight message is visible
+                    Pending next = pending.peek();
+                    long wait = next == null ? remaining : Math.min(remaining, Math.max(1L, next.visibleAt - now));
+                    sent.awaitNanos(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return received;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void receiveGroups(int maxMessages, long hidden, long now, List<Message> received,
+                Collection<String> attributeNames, Collection<String> messageAttributeNames) {
+            List<String> served = new ArrayList<>();
+            for (Map.Entry<String, ArrayDeque<LocalMessage>> group : groups.entrySet()) {
+                if (received.size() == maxMessages) {
+                    break;
+                }
+                boolean delivered = false;
+                for (LocalMessage message : group.getValue()) {
+                    if (received.size() == maxMessages || message.visibleAt > now) {
+                        break;
+                    }
+                    received.add(deliver(message, hidden, now, attributeNames, messageAttributeNames));
+                    delivered = true;
+                }
+                if (delivered) {
+                    served.add(group.getKey());
+                }
+            }
+            // move the groups just served to the back, so that busy groups do not starve the others
+            for (String group : served) {
+                groups.put(group, groups.remove(group));
+            }
+        }
+
+        private Message deliver(LocalMessage message, long hidden, long now, Collection<String> attributeNames,
+                Collection<String> messageAttributeNames) {
+            message.receiveCount++;
+            if (message.receiveCount == 1) {
+                message.firstReceiveMillis = System.currentTimeMillis();
+            }
+            message.visibleAt = hidden;
+            if (hidden > now) {
+                inFlight++;
+                pending.add(new Pending(message));
+            }
+            Message received = new Message().withMessageId(message.messageId).withBody(message.body)
+                    .withReceiptHandle(message.sequence + ":" + message.receiveCount);
+            Map<String, String> attributes = new HashMap<>();
+            if (attributeNames != null) {
+                for (String name : attributeNames) {
+                    boolean all = ALL.equals(name);
+                    if (all || ATTR_SENT_TIMESTAMP.equals(name)) {
+                        attributes.put(ATTR_SENT_TIMESTAMP, Long.toString(message.sentMillis));
+                    }
+                    if (all || ATTR_RECEIVE_COUNT.equals(name)) {
+                        attributes.put(ATTR_RECEIVE_COUNT, Integer.toString(message.receiveCount));
+                    }
+                    if (all || ATTR_FIRST_RECEIVE_TIMESTAMP.equals(name)) {
+                        attributes.put(ATTR_FIRST_RECEIVE_TIMESTAMP, Long.toString(message.firstReceiveMillis));
+                    }
+                }
+            }
+            received.setAttributes(attributes);
+            Map<String, MessageAttributeValue> messageAttributes = new HashMap<>();
+            if (messageAttributeNames != null && message.attributes != null) {
+                for (String name : messageAttributeNames) {
+                    for (Map.Entry<String, MessageAttributeValue> attribute : message.attributes.entrySet()) {
+                        if (ALL.equals(name) || ".*".equals(name) || name.equals(attribute.getKey())
+                                || (name.endsWith(".*")
+                                        && attribute.getKey().startsWith(name.substring(0, name.length() - 1)))) {
+                            messageAttributes.put(attribute.getKey(), attribute.getValue());
+                        }
+                    }
+                }
+            }
+            received.setMessageAttributes(messageAttributes);
+            return received;
+        }
+
+        /**
+         * Makes the delayed and in flight messages whose time has come visible.
+         */
+        private void promote(long now) {
+            Pending next;
+            while ((next = pending.peek()) != null && next.visibleAt <= now) {
+                pending.poll();
+                LocalMessage message = next.message;
+                // skip entries of deleted messages, and of visibility timeouts which were changed
+                if (message.deleted || message.generation != next.generation) {
+                    continue;
+                }
+                if (message.receiveCount == 0) {
+                    delayed--;
+                } else {
+                    inFlight--;
+                }
+                if (!fifo) {
+                    ready.add(message);
+                }
+            }
+        }
+
+        private void delete(String receiptHandle) {
+            lock.lock();
+            try {
+                long now = ticker.read();
+                promote(now);
+                Optional<LocalMessage> message = current(receiptHandle);
+                if (!message.isPresent()) {
+                    return;
+                }
+                LocalMessage deleted = message.get();
+                deleted.deleted = true;
+                messages.remove(deleted.sequence);
+                if (deleted.visibleAt > now) {
+                    inFlight--;
+                }
+                if (fifo) {
+                    ArrayDeque<LocalMessage> messagesOfGroup = groups.get(deleted.group);
+                    messagesOfGroup.remove(deleted);
+                    if (messagesOfGroup.isEmpty()) {
+                        groups.remove(deleted.group);
+                    }
+                    // the next message of the group may now be delivered
+                    sent.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void changeVisibility(String receiptHandle, int timeout) {
+            lock.lock();
+            try {
+                long now = ticker.read();
+                promote(now);
+                Optional<LocalMessage> message = current(receiptHandle);
+                if (!message.isPresent() || message.get().visibleAt <= now) {
+                    throw invalid("MessageNotInflight", "The message is not in flight");
+                }
+                LocalMessage changed = message.get();
+                changed.visibleAt = now + TimeUnit.SECONDS.toNanos(timeout);
+                pending.add(new Pending(changed));
+                if (timeout == 0) {
+                    promote(now);
+                    sent.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Returns the message of a receipt handle, if the handle is of its latest delivery.
+         */
+        private Optional<LocalMessage> current(String receiptHandle) {
+            int separator = receiptHandle == null ? -1 : receiptHandle.indexOf(':');
+            long messageSequence;
+            int receiveCount;
+            try {
+                messageSequence = Long.parseLong(receiptHandle.substring(0, separator));
+                receiveCount = Integer.parseInt(receiptHandle.substring(separator + 1));
+            } catch (RuntimeException e) {
+                throw new ReceiptHandleIsInvalidException("The receipt handle is not valid: " + receiptHandle);
+            }
+            LocalMessage message = messages.get(messageSequence);
+            if (message == null || message.receiveCount != receiveCount) {
+                return Optional.absent();
+            }
+            return Optional.of(message);
+        }
+
+        private Map<String, String> attributes() {
+            lock.lock();
+            try {
+                promote(ticker.read());
+                return ImmutableMap.<String, String> builder()
+                        .put(ATTR_MESSAGES, Integer.toString(messages.size() - inFlight - delayed))
+                        .put(ATTR_MESSAGES_NOT_VISIBLE, Integer.toString(inFlight))
+                        .put(ATTR_MESSAGES_DELAYED, Integer.toString(delayed))
+                        .put(ATTR_VISIBILITY_TIMEOUT, Integer.toString(visibilityTimeout))
+                        .put(ATTR_DELAY_SECONDS, Integer.toString(delay))
+                        .put(ATTR_WAIT_TIME_SECONDS, Integer.toString(waitTime)).build();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void purge() {
+            lock.lock();
+            try {
+                for (LocalMessage message : messages.values()) {
+                    message.deleted = true;
+                }
+                messages.clear();
+                ready.clear();
+                groups.clear();
+                pending.clear();
+                inFlight = 0;
+                delayed = 0;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A message on a queue.  The mutable state is guarded by the lock of the queue.
+     */
+    private static final class LocalMessage {
+        private final long sequence;
+        private final String messageId;
+        private final String body;
+        private final Map<String, MessageAttributeValue> attributes;
+        private final String group;
+        private final long sentMillis;
+        private long visibleAt;
+        // bumped by each new pending entry, so older entries are known to be stale
+        private int generation;
+        private int receiveCount;
+        private long firstReceiveMillis;
+        private boolean deleted;
+
+        private LocalMessage(long sequence, String body, Map<String, MessageAttributeValue> attributes, String group) {
+            this.sequence = sequence;
+            this.messageId = String.format("00000000-0000-0000-0000-%012x", sequence);
+            this.body = body;
+            this.attributes = attributes == null || attributes.isEmpty() ? null : ImmutableMap.copyOf(attributes);
+            this.group = group;
+            this.sentMillis = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * The time a delayed or in flight message becomes visible.  An entry is stale if the message
+     * has since been deleted or its visibility changed.
+     */
+    private static final class Pending implements Comparable<Pending> {
+        private final LocalMessage message;
+        private final long visibleAt;
+        private final int generation;
+
+        private Pending(LocalMessage message) {
+            this.message = message;
+            this.visibleAt = message.visibleAt;
+            this.generation = ++message.generation;
+        }
+
+        @Override
+        public int compareTo(Pending other) {
+            int compare = Long.compare(visibleAt, other.visibleAt);
+            return compare != 0 ? compare : Long.compare(message.sequence, other.message.sequence);
+        }
+    }
+
+    /**
+     * Builds a {@link InMemorySQSClient} with injected latency or throttling.
+     */
+    public static final class Builder {
+        private Ticker ticker = Ticker.systemTicker();
+        private long latencyNanos;
+        private double maxRequestsPerSecond;
+
+        private Builder() {
+        }
+
+        /**
+         * Sets the latency added to every request.  Defaults to none.
+         * @param latency
+         * @param unit
+         * @return Builder
+         */
+        public Builder latency(long latency, TimeUnit unit) {
+            if (latency < 0)
+                throw new IllegalArgumentException("latency must not be negative");
+            this.latencyNanos = checkNotNull(unit, "unit is null").toNanos(latency);
+            return this;
+        }
+
+        /**
+         * Sets the number of requests per second above which requests are throttled.  Defaults to
+         * no limit.
+         * @param maxRequestsPerSecond
+         * @return Builder
+         */
+        public Builder maxRequestsPerSecond(double maxRequestsPerSecond) {
+            if (maxRequestsPerSecond <= 0)
+                throw new IllegalArgumentException("maxRequestsPerSecond must be positive");
+            this.maxRequestsPerSecond = maxRequestsPerSecond;
+            return this;
+        }
+
+        /**
+         * Sets the {@link Ticker} measuring visibility timeouts and delays.  Defaults to the
+         * system ticker.
+         * @param ticker
+         * @return Builder
+         */
+        public Builder ticker(Ticker ticker) {
+            this.ticker = checkNotNull(ticker, "ticker is null");
+            return this;
+        }
+
+        /**
+         * Builds the {@link InMemorySQSClient}.
+         * @return {@link InMemorySQSClient}
+         */
+        public InMemorySQSClient build() {
+            return new InMemorySQSClient(this);
+        }
+    }
+}
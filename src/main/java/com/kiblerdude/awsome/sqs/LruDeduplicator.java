@@ -0,0 +1,164 @@
+package com.kiblerdude.awsome.sqs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A {@link Deduplicator} that remembers the 64-bit hashes of recent keys in two generations of
+ * open addressing <code>long</code> tables.
+ * <p>
+ * New keys go into the current generation.  When it holds <code>capacity</code> keys, or the
+ * window has passed since it was started, it becomes the previous generation and the oldest
+ * keys are forgotten.  A key found in the previous generation is copied into the current one,
+ * so keys that keep arriving are kept, as in an LRU cache.  A key is remembered for at least the
+ * window, and at most twice the window, unless more than <code>capacity</code> keys arrive within
+ * the window.
+ * <p>
+ * The tables are allocated once, at 32 to 64 bytes per key of capacity, so the memory used does
+ * not grow with the traffic.  Hashing a key allocates a little short-lived garbage.  Two distinct
+ * keys collide with a probability of about 2<sup>-64</sup>.
+ * <p>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+public final class LruDeduplicator implements Deduplicator {
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final int capacity;
+    private final long windowNanos;
+    private final Ticker ticker;
+    private final int mask;
+    private long[] current;
+    private long[] previous;
+    private int count;
+    private long started;
+
+    /**
+     * Constructor
+     *
+     * @param capacity
+     *            The number of keys remembered in each generation
+     * @param window
+     *            The time a key is remembered for
+     * @param unit
+     *            The unit of the window
+     */
+    public LruDeduplicator(int capacity, long window, TimeUnit unit) {
+        this(capacity, window, unit, Ticker.systemTicker());
+    }
+
+    /**
+     * Constructor
+     *
+     * @param capacity
+     *            The number of keys remembered in each generation
+     * @param window
+     *            The time a key is remembered for
+     * @param unit
+     *            The unit of the window
+     * @param ticker
+     *            The {@link Ticker} measuring the window
+     */
+    public LruDeduplicator(int capacity, long window, TimeUnit unit, Ticker ticker) {
+        if (capacity < 1 || capacity > 1 << 29)
+            throw new IllegalArgumentException("capacity must be between 1 and 2^29");
+        if (window < 1)
+            throw new IllegalArgumentException("window must be positive");
+        this.capacity = capacity;
+        this.windowNanos = checkNotNull(unit, "unit is null").toNanos(window);
+        this.ticker = checkNotNull(ticker, "ticker is null");
+        // at most half full, so probe sequences stay short
+        int length = Integer.highestOneBit(capacity * 2 - 1) << 1;
+        this.mask = length - 1;
+        this.current = new long[length];
+        this.previous = new long[length];
+        this.started = ticker.read();
+    }
+
+    @Override
+    public synchronized boolean contains(String key) {
+        long hash = hash(key);
+        expire();
+        if (find(current, hash)) {
+            return true;
+        }
+        if (find(previous, hash)) {
+            insert(hash);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void add(String key) {
+        long hash = hash(key);
+        expire();
+        if (!find(current, hash)) {
+            insert(hash);
+        }
+    }
+
+    private void expire() {
+        long now = ticker.read();
+        if (now - started >= 2 * windowNanos) {
+            // both generations are out of the window
+            Arrays.fill(current, 0L);
+            rotate(now);
+        } else if (now - started >= windowNanos) {
+            rotate(started + windowNanos);
+        }
+    }
+
+    private void insert(long hash) {
+        if (count == capacity) {
+            rotate(ticker.read());
+        }
+        int index = (int) hash & mask;
+        while (current[index] != 0L) {
+            index = (index + 1) & mask;
+        }
+        current[index] = hash;
+        count++;
+    }
+
+    private boolean find(long[] table, long hash) {
+        int index = (int) hash & mask;
+        long value;
+        while ((value = table[index]) != 0L) {
+            if (value == hash) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Makes the current generation the previous one, and reuses the table of the previous
+     * generation for the new current one.
+     */
+    private void rotate(long now) {
+        long[] oldest = previous;
+        previous = current;
+        Arrays.fill(oldest, 0L);
+        current = oldest;
+        count = 0;
+        started = now;
+    }
+
+    private static long hash(String key) {
+        long hash = HASH.hashString(checkNotNull(key, "key is null"), StandardCharsets.UTF_8).asLong();
+        // zero marks an empty slot
+        return hash == 0L ? 1L : hash;
+    }
+}
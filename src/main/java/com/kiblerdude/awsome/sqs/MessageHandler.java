@@ -0,0 +1,19 @@
+package com.kiblerdude.awsome.sqs;
+
+/**
+ * Handles the messages received by a {@link WeightedConsumer}.
+ *
+ * @author kiblerj
+ *
+ * @param <M> A Jackson annotated class representing the messages in the queue.
+ */
+public interface MessageHandler<M> {
+
+    /**
+     * Handles a message.  The message is acknowledged if this returns, and delivered again after
+     * the visibility timeout of its queue if this throws.
+     * @param message
+     * @throws Exception
+     */
+    void handle(M message) throws Exception;
+}
@@ -0,0 +1,59 @@
+package com.kiblerdude.awsome.sqs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A message received from a {@link SQueue} that stays on the queue until it is acknowledged
+ * with {@link SQueue#ack(ReceivedMessage)}.
+ * <p>
+ * This class is immutable if the message is.
+ *
+ * @author kiblerj
+ *
+ * @param <M> A Jackson annotated class representing the messages in the queue.
+ */
+public final class ReceivedMessage<M> {
+
+    private final M message;
+    private final String messageId;
+    private final String receiptHandle;
+    private final String deduplicationKey;
+
+    ReceivedMessage(M message, String messageId, String receiptHandle, String deduplicationKey) {
+        this.message = checkNotNull(message, "message is null");
+        this.messageId = messageId;
+        this.receiptHandle = receiptHandle;
+        this.deduplicationKey = deduplicationKey;
+    }
+
+    /**
+     * Returns the message.
+     * @return M
+     */
+    public M getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the SQS id of the message.
+     * @return String
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the receipt handle of this delivery of the message.
+     * @return String
+     */
+    public String getReceiptHandle() {
+        return receiptHandle;
+    }
+
+    /**
+     * Returns the key the message is deduplicated by, or <code>null</code>.
+     */
+    String getDeduplicationKey() {
+        return deduplicationKey;
+    }
+}
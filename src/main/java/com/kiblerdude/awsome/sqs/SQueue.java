@@ -3,22 +3,42 @@ package com.kiblerdude.awsome.sqs;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import java.io.IOException;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import com.amazonaws.AmazonClientException;
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
 import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.PurgeQueueRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Utf8;
 import com.google.common.collect.Lists;
+import com.google.common.math.LongMath;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
 
 /**
  * Provides an interface for working with AWS SQS queues.  Messages pushed and popped from the
@@ -44,6 +64,34 @@ import com.google.common.collect.Lists;
  * }
  * 
  * </pre>
+ * Received messages are buffered as raw JSON and deserialized by <code>pop</code>, in the
+ * calling thread, so that several consumers parse in parallel.  The buffer is bounded by the
+ * UTF-8 size of the message bodies: each receive asks for as many messages as fit in the bound
+ * at the average size seen so far, at least one and at most ten.
+ * <p>
+ * Popped messages are not deleted from SQS, so they are delivered again after the visibility
+ * timeout.  For at-least-once processing, <code>receive</code> a message and <code>ack</code> it
+ * once it has been handled:
+ * <pre>
+ * Optional&lt;ReceivedMessage&lt;MyMessage&gt;&gt; received = queue.receive();
+ * if (received.isPresent()) {
+ *     handle(received.get().getMessage());
+ *     queue.ack(received.get());
+ * }
+ * </pre>
+ * <p>
+ * Messages may be delivered later with <code>pushAfter</code> or <code>pushAt</code>.  Delays up
+ * to the SQS limit of 15 minutes use the native message delay.  A longer delay is sent with the
+ * longest native delay and the delivery time as a message attribute, and each receive before
+ * that time sends the message on again, until it is due.  A message deferred for a day is sent
+ * about a hundred times, with no state kept outside of SQS.  Early messages are sent on in
+ * batches, after the buffer is filled and outside of its lock.
+ * <p>
+ * Optional settings, such as the {@link Metrics} receiving the timings and counts of the queue, are
+ * given with a {@link Builder}:
+ * <pre>
+ * SQueue&lt;MyMessage&gt; queue = SQueue.builder("myqueue", client, MyMessage.class).metrics(metrics).build();
+ * </pre>
  * @author kiblerj
  *
  * @param <M> A Jackson annotated class representing the messages in the queue.
@@ -57,13 +105,36 @@ public final class SQueue<M extends Object> {
     private static final int DEFAULT_SEND_BATCH_SIZE = 10;
     private static final int DEFAULT_RECV_MAX_MESSAGES = 10;
     private static final int DEFAULT_RECV_MAX_TIME_SECONDS = 2;
+    private static final int MAX_RECV_WAIT_TIME_SECONDS = 20;
+    private static final int MAX_DELAY_SECONDS = 900;
+    private static final String DELIVER_AT_ATTRIBUTE = "awsome.deliverAt";
+    private static final String ALL_ATTRIBUTES = "All";
+    private static final int MAX_MESSAGE_BYTES = 256 * 1024;
+    private static final long DEFAULT_MAX_BUFFER_BYTES = (long) DEFAULT_RECV_MAX_MESSAGES * MAX_MESSAGE_BYTES;
     private static final String QUEUE_ATTR_LENGTH = "ApproximateNumberOfMessages";
+    private static final Function<Message, String> MESSAGE_ID = new Function<Message, String>() {
+        @Override
+        public String apply(Message message) {
+            return message.getMessageId();
+        }
+    };
 
     private final AmazonSQSClient client;
+    private final Class<M> clazz;
     private final ObjectMapper mapper;
+    private final ObjectReader reader;
     private final String endpoint;
-    private final Queue<M> receiveBuffer;
-    private final Class<M> clazz;
+    private final Queue<BufferedMessage> receiveBuffer;
+    private final AtomicLong bufferedBytes;
+    private final long maxBufferBytes;
+    private final Metrics metrics;
+    private final Optional<Deduplicator> deduplicator;
+    private final Function<? super Message, String> deduplicationKey;
+    // the message attributes received, all of them if a deduplication key may read them
+    private final String messageAttributeNames;
+    private final Clock clock;
+    // the average message size, guarded by fillBuffer; assume the largest until messages are seen
+    private double averageMessageBytes = MAX_MESSAGE_BYTES;
 
     /**
      * Constructor
@@ -76,11 +147,56 @@ public final class SQueue<M extends Object> {
      *            The class type of the message
      */
     public SQueue(String queueName, AmazonSQSClient client, Class<M> clazz) {
-        this.client = client;
-        this.mapper = new ObjectMapper();
-        this.endpoint = client.getQueueUrl(queueName).getQueueUrl();
+        this(new Builder<>(queueName, client, clazz));
+    }
+
+    private SQueue(Builder<M> builder) {
+        this.client = builder.client;
+        this.clazz = builder.clazz;
+        this.mapper = builder.mapper.isPresent() ? builder.mapper.get() : new ObjectMapper();
+        this.reader = mapper.reader(clazz);
+        this.endpoint = builder.queueUrl.isPresent() ? builder.queueUrl.get()
+                : client.getQueueUrl(builder.queueName).getQueueUrl();
         this.receiveBuffer = new ConcurrentLinkedQueue<>();
-        this.clazz = clazz;
+        this.bufferedBytes = new AtomicLong();
+        this.maxBufferBytes = builder.maxBufferBytes;
+        this.metrics = builder.metrics;
+        this.deduplicator = builder.deduplicator;
+        this.deduplicationKey = builder.deduplicationKey;
+        this.messageAttributeNames = builder.deduplicator.isPresent() && builder.deduplicationKey != MESSAGE_ID
+                ? ALL_ATTRIBUTES : DELIVER_AT_ATTRIBUTE;
+        this.clock = builder.clock;
+    }
+
+    /**
+     * Returns a {@link Builder} for a queue with optional settings.
+     * 
+     * @param queueName
+     *            The name of the SQS queue
+     * @param client
+     *            The {@link AmazonSQSClient}
+     * @param clazz
+     *            The class type of the message
+     * @return {@link Builder}
+     */
+    public static <M> Builder<M> builder(String queueName, AmazonSQSClient client, Class<M> clazz) {
+        return new Builder<>(queueName, client, clazz);
+    }
+
+    /**
+     * Returns the URL of the queue.
+     * @return String
+     */
+    public String getQueueUrl() {
+        return endpoint;
+    }
+
+    /**
+     * Returns the class type of the messages in the queue.
+     * @return Class
+     */
+    public Class<M> getMessageClass() {
+        return clazz;
     }
 
     /**
@@ -116,17 +232,72 @@ public final class SQueue<M extends Object> {
      * Pushes a message on to the queue.
      * @param message
      * @return The receipt id of the message, or absent if the message was not pushed.
-     * @throws IOException
      */
     public Optional<String> push(M message) {
-        checkNotNull(message, "message is null");        
+        checkNotNull(message, "message is null");
+        return send(message, Optional.<Long> absent());
+    }
+
+    /**
+     * Pushes a message on to the queue, to be delivered after a delay.
+     * @param message
+     * @param delay
+     * @param unit
+     * @return The receipt id of the message, or absent if the message was not pushed.
+     * @throws IllegalArgumentException If the delay is negative, or too long to be a time.
+     */
+    public Optional<String> pushAfter(M message, long delay, TimeUnit unit) {
+        checkNotNull(message, "message is null");
+        checkNotNull(unit, "unit is null");
+        if (delay < 0)
+            throw new IllegalArgumentException("delay is negative");
+        long deliverAt;
+        try {
+            // toMillis saturates, so a huge delay overflows here rather than there
+            deliverAt = LongMath.checkedAdd(nowMillis(), unit.toMillis(delay));
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("delay is too long");
+        }
+        return send(message, Optional.of(deliverAt));
+    }
+
+    /**
+     * Pushes a message on to the queue, to be delivered at the given time.  A time in the past
+     * delivers the message at once.
+     * @param message
+     * @param time
+     * @return The receipt id of the message, or absent if the message was not pushed.
+     */
+    public Optional<String> pushAt(M message, Date time) {
+        checkNotNull(message, "message is null");
+        checkNotNull(time, "time is null");
+        return send(message, Optional.of(time.getTime()));
+    }
+
+    private Optional<String> send(M message, Optional<Long> deliverAt) {
         try {
+            long start = System.nanoTime();
             String json = mapper.writeValueAsString(message);        
+            long serialized = System.nanoTime();
+            metrics.record(MetricNames.SQS_SERIALIZE_TIME, serialized - start);
+            metrics.record(MetricNames.SQS_SEND_LENGTH, json.length());
             SendMessageRequest request = new SendMessageRequest().withQueueUrl(endpoint);
             request.withMessageBody(json);
+            if (deliverAt.isPresent()) {
+                long seconds = delaySeconds(deliverAt.get());
+                if (seconds > MAX_DELAY_SECONDS) {
+                    request.addMessageAttributesEntry(DELIVER_AT_ATTRIBUTE, deliverAtValue(deliverAt.get()));
+                }
+                if (seconds > 0) {
+                    request.withDelaySeconds((int) Math.min(seconds, MAX_DELAY_SECONDS));
+                }
+            }
             SendMessageResult result = client.sendMessage(request);
+            metrics.record(MetricNames.SQS_SEND_TIME, System.nanoTime() - serialized);
+            metrics.count(MetricNames.SQS_SEND, 1L);
             return Optional.of(result.getMessageId());
         } catch (JsonProcessingException e) {
+            metrics.count(MetricNames.SQS_SEND_ERRORS, 1L);
             return Optional.absent();
         }
     }
@@ -169,34 +340,285 @@ public final class SQueue<M extends Object> {
 //        return messageIds.build();
 //    }
 
+    /**
+     * Returns the seconds until the given time, rounded up so a message is never delivered early.
+     * A delay beyond the SQS limit is sent with the limit and the time as a message attribute.
+     */
+    private long delaySeconds(long deliverAt) {
+        long now = nowMillis();
+        // compared before subtracting, as a time far in the past would overflow
+        if (deliverAt <= now) {
+            return 0;
+        }
+        return LongMath.divide(deliverAt - now, 1000, RoundingMode.CEILING);
+    }
+
+    private static MessageAttributeValue deliverAtValue(long deliverAt) {
+        return new MessageAttributeValue().withDataType("Number").withStringValue(Long.toString(deliverAt));
+    }
+
+    /**
+     * Returns the delivery time of a received message if it is not yet due.
+     */
+    private Optional<Long> deferredUntil(Message message) {
+        Map<String, MessageAttributeValue> attributes = message.getMessageAttributes();
+        MessageAttributeValue value = attributes == null ? null : attributes.get(DELIVER_AT_ATTRIBUTE);
+        if (value == null) {
+            return Optional.absent();
+        }
+        long deliverAt;
+        try {
+            deliverAt = Long.parseLong(value.getStringValue());
+        } catch (NumberFormatException e) {
+            return Optional.absent();
+        }
+        return deliverAt > nowMillis() ? Optional.of(deliverAt) : Optional.<Long> absent();
+    }
+
+    /**
+     * Sends received messages that are not yet due on again, in batches of up to ten, and deletes
+     * the received copies of those that were sent.  A message that fails either way is left on
+     * the queue, and is sent on when it is delivered again.
+     */
+    private void sendOn(List<Message> deferred) {
+        for (List<Message> messages : Lists.partition(deferred, DEFAULT_SEND_BATCH_SIZE)) {
+            List<SendMessageBatchRequestEntry> entries = new ArrayList<>(messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                Message message = messages.get(i);
+                Optional<Long> deliverAt = deferredUntil(message);
+                SendMessageBatchRequestEntry entry = new SendMessageBatchRequestEntry(Integer.toString(i),
+                        message.getBody());
+                // a message that fell due since it was received is sent on without a delay
+                if (deliverAt.isPresent()) {
+                    long seconds = delaySeconds(deliverAt.get());
+                    if (seconds > MAX_DELAY_SECONDS) {
+                        entry.addMessageAttributesEntry(DELIVER_AT_ATTRIBUTE, deliverAtValue(deliverAt.get()));
+                    }
+                    entry.withDelaySeconds((int) Math.min(seconds, MAX_DELAY_SECONDS));
+                }
+                entries.add(entry);
+            }
+            try {
+                SendMessageBatchResult sent = client.sendMessageBatch(endpoint, entries);
+                if (!sent.getFailed().isEmpty()) {
+                    metrics.count(MetricNames.SQS_SEND_ERRORS, sent.getFailed().size());
+                }
+                List<DeleteMessageBatchRequestEntry> deletes = new ArrayList<>(sent.getSuccessful().size());
+                for (SendMessageBatchResultEntry entry : sent.getSuccessful()) {
+                    Message message = messages.get(Integer.parseInt(entry.getId()));
+                    deletes.add(new DeleteMessageBatchRequestEntry(entry.getId(), message.getReceiptHandle()));
+                }
+                metrics.count(MetricNames.SQS_DELAY_HOPS, deletes.size());
+                if (!deletes.isEmpty()) {
+                    // a copy that is not deleted is sent on again, and is delivered twice
+                    DeleteMessageBatchResult deleted = client.deleteMessageBatch(endpoint, deletes);
+                    if (!deleted.getFailed().isEmpty()) {
+                        metrics.count(MetricNames.SQS_ACK_ERRORS, deleted.getFailed().size());
+                    }
+                }
+            } catch (AmazonClientException e) {
+                metrics.count(MetricNames.SQS_SEND_ERRORS, messages.size());
+            }
+        }
+    }
+
+    private long nowMillis() {
+        return clock.currentTimeMillis();
+    }
+
     /**
      * Pops a message from the queue.
      * @return An {@link Optional} containing the next message on the queue, or absent if no message was popped.
+     * @throws IOException If the message can not be deserialized; the message is delivered again.
      */
     public Optional<M> pop() throws IOException {
-        fillBuffer();
-        return Optional.fromNullable(receiveBuffer.poll());
-    }   
+        Optional<ReceivedMessage<M>> received = receive();
+        if (received.isPresent()) {
+            // a popped message is handled once it is handed over
+            remember(received.get());
+            return Optional.of(received.get().getMessage());
+        }
+        return Optional.absent();
+    }
+
+    /**
+     * Receives a message from the queue.  The message is delivered again after the visibility
+     * timeout of the queue unless it is acknowledged with {@link #ack(ReceivedMessage)}.
+     * @return An {@link Optional} containing the next message on the queue, or absent if no message was received.
+     * @throws IOException If the message can not be deserialized; the message is delivered again.
+     */
+    public Optional<ReceivedMessage<M>> receive() throws IOException {
+        return receive(DEFAULT_RECV_MAX_TIME_SECONDS);
+    }
+
+    /**
+     * Receives a message from the queue, waiting up to <code>waitTimeSeconds</code> for one to
+     * arrive when none are buffered.  A wait of zero returns at once if the queue is empty.
+     * @param waitTimeSeconds The long polling wait, from 0 to 20 seconds.
+     * @return An {@link Optional} containing the next message on the queue, or absent if no message was received.
+     * @throws IOException If the message can not be deserialized; the message is delivered again.
+     */
+    public Optional<ReceivedMessage<M>> receive(int waitTimeSeconds) throws IOException {
+        if (waitTimeSeconds < 0 || waitTimeSeconds > MAX_RECV_WAIT_TIME_SECONDS)
+            throw new IllegalArgumentException("waitTimeSeconds must be between 0 and 20");
+        BufferedMessage next;
+        String key;
+        do {
+            next = receiveBuffer.poll();
+            if (next == null) {
+                // messages not yet due are sent on outside of the buffer lock
+                sendOn(fillBuffer(waitTimeSeconds));
+                next = receiveBuffer.poll();
+                if (next == null) {
+                    return Optional.absent();
+                }
+            }
+            bufferedBytes.addAndGet(-next.bytes);
+            key = deduplicator.isPresent() ? deduplicationKey.apply(next.message) : null;
+        } while (isDuplicate(next.message, key));
+        // deserialize outside of the buffer lock, in the consumer's thread
+        long start = System.nanoTime();
+        M message = reader.readValue(next.message.getBody());
+        metrics.record(MetricNames.SQS_DESERIALIZE_TIME, System.nanoTime() - start);
+        metrics.count(MetricNames.SQS_POP, 1L);
+        return Optional.of(new ReceivedMessage<>(message, next.message.getMessageId(),
+                next.message.getReceiptHandle(), key));
+    }
+
+    /**
+     * Deletes the message if its key was already handled, before it is deserialized.
+     */
+    private boolean isDuplicate(Message message, String key) {
+        if (key == null || !deduplicator.get().contains(key)) {
+            return false;
+        }
+        client.deleteMessage(endpoint, message.getReceiptHandle());
+        metrics.count(MetricNames.SQS_DUPLICATES, 1L);
+        return true;
+    }
+
+    private void remember(ReceivedMessage<M> message) {
+        if (message.getDeduplicationKey() != null) {
+            deduplicator.get().add(message.getDeduplicationKey());
+        }
+    }
+
+    /**
+     * Deletes a received message from the queue.
+     * @param message
+     */
+    public void ack(ReceivedMessage<M> message) {
+        checkNotNull(message, "message is null");
+        remember(message);
+        client.deleteMessage(endpoint, message.getReceiptHandle());
+        metrics.count(MetricNames.SQS_ACK, 1L);
+    }
+
+    /**
+     * Deletes received messages from the queue, in batches of up to ten.  A message whose
+     * receipt handle has expired is not deleted and is delivered again.
+     * @param messages
+     * @return The number of messages deleted.
+     */
+    public int ack(Collection<ReceivedMessage<M>> messages) {
+        checkNotNull(messages, "messages is null");
+        int acked = 0;
+        List<DeleteMessageBatchRequestEntry> entries = new ArrayList<>(DEFAULT_SEND_BATCH_SIZE);
+        for (ReceivedMessage<M> message : messages) {
+            // handled even if its receipt handle expired, so a redelivery is a duplicate
+            remember(message);
+            entries.add(new DeleteMessageBatchRequestEntry(Integer.toString(entries.size()),
+                    message.getReceiptHandle()));
+            if (entries.size() == DEFAULT_SEND_BATCH_SIZE) {
+                acked += deleteBatch(entries);
+                entries.clear();
+            }
+        }
+        if (!entries.isEmpty()) {
+            acked += deleteBatch(entries);
+        }
+        return acked;
+    }
+
+    private int deleteBatch(List<DeleteMessageBatchRequestEntry> entries) {
+        DeleteMessageBatchResult result = client.deleteMessageBatch(endpoint, entries);
+        metrics.count(MetricNames.SQS_ACK, result.getSuccessful().size());
+        if (!result.getFailed().isEmpty()) {
+            metrics.count(MetricNames.SQS_ACK_ERRORS, result.getFailed().size());
+        }
+        return result.getSuccessful().size();
+    }
 
     /**
-     * Fills the internal buffer with messages from SQS.
+     * Fills the internal buffer with messages from SQS, if it is empty.
      * 
-     * @return <code>true</code> if the request was successful
+     * @return the received messages that are not yet due, to be sent on
      */
-    private synchronized boolean fillBuffer() throws IOException {
+    private synchronized List<Message> fillBuffer(int waitTimeSeconds) {
+        List<Message> deferred = new ArrayList<>();
         if (receiveBuffer.isEmpty()) {
+            int maxMessages = (int) Math.max(1L, Math.min(DEFAULT_RECV_MAX_MESSAGES,
+                    (long) ((maxBufferBytes - bufferedBytes.get()) / averageMessageBytes)));
             ReceiveMessageRequest request = new ReceiveMessageRequest()
-                    .withMaxNumberOfMessages(DEFAULT_RECV_MAX_MESSAGES).withQueueUrl(endpoint)
-                    .withWaitTimeSeconds(DEFAULT_RECV_MAX_TIME_SECONDS);
+                    .withMaxNumberOfMessages(maxMessages).withQueueUrl(endpoint)
+                    .withWaitTimeSeconds(waitTimeSeconds).withMessageAttributeNames(messageAttributeNames);
+            long start = System.nanoTime();
             ReceiveMessageResult result = client.receiveMessage(request);
+            long received = System.nanoTime();
+            metrics.record(MetricNames.SQS_RECEIVE_TIME, received - start);
+            metrics.count(MetricNames.SQS_RECEIVE, 1L);
             List<Message> messages = result.getMessages();
+            metrics.record(MetricNames.SQS_RECEIVE_MESSAGES, messages.size());
+            if (messages.isEmpty()) {
+                metrics.count(MetricNames.SQS_RECEIVE_EMPTY, 1L);
+            }
+            long receivedBytes = 0;
+            int buffered = 0;
             for (Message message : messages) {
-                String json = message.getBody();
-                M msg = mapper.readValue(json, clazz);
-                receiveBuffer.offer(msg);
+                // a message not yet due is sent on and never buffered; the receive may come back
+                // empty if every message was sent on
+                if (deferredUntil(message).isPresent()) {
+                    deferred.add(message);
+                    continue;
+                }
+                BufferedMessage next = new BufferedMessage(message);
+                receivedBytes += next.bytes;
+                bufferedBytes.addAndGet(next.bytes);
+                receiveBuffer.offer(next);
+                buffered++;
+            }
+            if (buffered > 0) {
+                updateAverage((double) receivedBytes / buffered);
             }
+            metrics.record(MetricNames.SQS_BUFFER_DEPTH, buffered);
+            metrics.record(MetricNames.SQS_BUFFER_BYTES, bufferedBytes.get());
+        }
+        return deferred;
+    }
+
+    /**
+     * Folds the average size of a received batch into the average message size.  The first
+     * batch replaces the initial worst case estimate.
+     */
+    private void updateAverage(double batchAverage) {
+        if (averageMessageBytes == MAX_MESSAGE_BYTES) {
+            averageMessageBytes = batchAverage;
+        } else {
+            averageMessageBytes = averageMessageBytes * 0.75 + batchAverage * 0.25;
+        }
+    }
+
+    /**
+     * A received message with the UTF-8 size of its body.
+     */
+    private static final class BufferedMessage {
+        private final Message message;
+        private final int bytes;
+
+        private BufferedMessage(Message message) {
+            this.message = message;
+            this.bytes = Utf8.encodedLength(message.getBody());
         }
-        return true;
     }
 
 //    /**
@@ -242,4 +664,122 @@ public final class SQueue<M extends Object> {
 //        
 //        return results;
 //    }
+
+    /**
+     * Builds a {@link SQueue} with optional settings.
+     *
+     * @param <M> A Jackson annotated class representing the messages in the queue.
+     */
+    public static final class Builder<M> {
+        private final String queueName;
+        private final AmazonSQSClient client;
+        private final Class<M> clazz;
+        private Metrics metrics = Metrics.NOOP;
+        private long maxBufferBytes = DEFAULT_MAX_BUFFER_BYTES;
+        private Optional<String> queueUrl = Optional.absent();
+        private Optional<ObjectMapper> mapper = Optional.absent();
+        private Optional<Deduplicator> deduplicator = Optional.absent();
+        private Function<? super Message, String> deduplicationKey = MESSAGE_ID;
+        private Clock clock = Clock.SYSTEM;
+
+        private Builder(String queueName, AmazonSQSClient client, Class<M> clazz) {
+            this.queueName = checkNotNull(queueName, "queueName is null");
+            this.client = checkNotNull(client, "client is null");
+            this.clazz = checkNotNull(clazz, "clazz is null");
+        }
+
+        /**
+         * Sets the {@link Metrics} receiving the timings and counts of the queue.  Defaults to
+         * {@link Metrics#NOOP}.
+         * @param metrics
+         * @return Builder
+         */
+        public Builder<M> metrics(Metrics metrics) {
+            this.metrics = checkNotNull(metrics, "metrics is null");
+            return this;
+        }
+
+        /**
+         * Sets the bound on the UTF-8 size of the message bodies buffered by {@link SQueue#pop()}.
+         * Defaults to 2.5 MB, ten messages of the largest size.  A single message larger than the
+         * bound is still received.
+         * @param maxBufferBytes
+         * @return Builder
+         */
+        public Builder<M> maxBufferBytes(long maxBufferBytes) {
+            if (maxBufferBytes < 1)
+                throw new IllegalArgumentException("maxBufferBytes must be at least 1");
+            this.maxBufferBytes = maxBufferBytes;
+            return this;
+        }
+
+        /**
+         * Sets an already known URL of the queue, so {@link #build()} does not call
+         * {@code getQueueUrl}.
+         * @param queueUrl
+         * @return Builder
+         */
+        public Builder<M> queueUrl(String queueUrl) {
+            this.queueUrl = Optional.of(checkNotNull(queueUrl, "queueUrl is null"));
+            return this;
+        }
+
+        /**
+         * Sets the {@link ObjectMapper} used to serialize the messages, so it may be shared by
+         * several queues.  Defaults to a new {@link ObjectMapper} per queue.
+         * @param mapper
+         * @return Builder
+         */
+        public Builder<M> mapper(ObjectMapper mapper) {
+            this.mapper = Optional.of(checkNotNull(mapper, "mapper is null"));
+            return this;
+        }
+
+        /**
+         * Drops repeated deliveries of a message, keyed by its SQS message id.  A received message
+         * whose id is in the {@link Deduplicator} is deleted before it is deserialized.  Popped
+         * messages are added to the deduplicator when they are popped, and received messages
+         * when they are acknowledged.
+         * @param deduplicator
+         * @return Builder
+         */
+        public Builder<M> deduplicator(Deduplicator deduplicator) {
+            return deduplicator(deduplicator, MESSAGE_ID);
+        }
+
+        /**
+         * Drops repeated deliveries of a message, keyed by the given function of the raw SQS
+         * message, for example a message attribute set by the producer.  All of the message
+         * attributes are received for the function.  Messages with a <code>null</code> key are not
+         * deduplicated.
+         * @param deduplicator
+         * @param key
+         * @return Builder
+         */
+        public Builder<M> deduplicator(Deduplicator deduplicator, Function<? super Message, String> key) {
+            this.deduplicator = Optional.of(checkNotNull(deduplicator, "deduplicator is null"));
+            this.deduplicationKey = checkNotNull(key, "key is null");
+            return this;
+        }
+
+        /**
+         * Sets the {@link Clock} against which the delivery times of delayed messages are
+         * measured.  Defaults to {@link Clock#SYSTEM}.  All of the producers and consumers of a
+         * queue must agree on the time.
+         * @param clock
+         * @return Builder
+         */
+        public Builder<M> clock(Clock clock) {
+            this.clock = checkNotNull(clock, "clock is null");
+            return this;
+        }
+
+        /**
+         * Builds the {@link SQueue}, resolving the URL of the queue unless it was given.
+         * @return {@link SQueue}
+         */
+        public SQueue<M> build() {
+            return new SQueue<>(this);
+        }
+    }
 }
@@ -0,0 +1,310 @@
+package com.kiblerdude.awsome.sqs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Optional;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Opens {@link SQueue}s that share one {@link AmazonSQSClient}, {@link ObjectMapper} and
+ * {@link Metrics}, resolving the queue URLs in parallel and caching them.
+ * <p>
+ * Queue URLs are resolved with concurrent {@code getQueueUrl} requests and kept for the life of
+ * the registry.  When a cache file is set the URLs are also written to it, so the next start of
+ * the service opens its queues without any requests.  A cached URL is trusted until
+ * {@link #invalidate(String)} is called, for example after a queue has been deleted and created
+ * again.
+ * <p>
+ * This class is thread safe.
+ * <p>
+ * Example:
+ * <pre>
+ * SQueueRegistry registry = SQueueRegistry.builder(client).cacheFile(new File("queues.properties")).build();
+ * registry.resolve(queueNames);
+ *
+ * SQueue&lt;MyMessage&gt; queue = registry.queue("myqueue", MyMessage.class);
+ * </pre>
+ *
+ * @author kiblerj
+ *
+ */
+public final class SQueueRegistry implements Closeable {
+
+    private static final int DEFAULT_PARALLELISM = 16;
+
+    private final AmazonSQSClient client;
+    private final ObjectMapper mapper;
+    private final Metrics metrics;
+    private final Optional<Path> cacheFile;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, String> urls;
+    private final ConcurrentMap<String, SQueue<?>> queues;
+
+    /**
+     * Constructor
+     *
+     * @param client
+     *            The {@link AmazonSQSClient}
+     */
+    public SQueueRegistry(AmazonSQSClient client) {
+        this(new Builder(client), Collections.<String, String> emptyMap());
+    }
+
+    private SQueueRegistry(Builder builder, Map<String, String> cached) {
+        this.client = builder.client;
+        this.mapper = builder.mapper;
+        this.metrics = builder.metrics;
+        this.cacheFile = builder.cacheFile;
+        this.executor = Executors.newFixedThreadPool(builder.parallelism, new ThreadFactoryBuilder()
+                .setDaemon(true).setNameFormat("sqs-registry-%d").build());
+        this.urls = new ConcurrentHashMap<>(cached);
+        this.queues = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns a {@link Builder} for a registry with optional settings.
+     *
+     * @param client
+     *            The {@link AmazonSQSClient}
+     * @return {@link Builder}
+     */
+    public static Builder builder(AmazonSQSClient client) {
+        return new Builder(client);
+    }
+
+    /**
+     * Resolves the URLs of the queues, sending the {@code getQueueUrl} requests for the queues
+     * not already cached in parallel.  When a request fails the other URLs are still cached and
+     * the first failure is thrown.
+     *
+     * @param queueNames
+     *            The names of the SQS queues
+     * @return Map of queue name to queue URL
+     * @throws IOException
+     *             if the cache file could not be written
+     */
+    public Map<String, String> resolve(Collection<String> queueNames) throws IOException {
+        checkNotNull(queueNames, "queueNames is null");
+        Map<String, Future<String>> pending = Maps.newLinkedHashMap();
+        for (final String queueName : queueNames) {
+            if (urls.containsKey(queueName)) {
+                metrics.count(MetricNames.SQS_RESOLVE_CACHED, 1);
+            } else if (!pending.containsKey(queueName)) {
+                pending.put(queueName, executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        long start = System.nanoTime();
+                        String url = client.getQueueUrl(queueName).getQueueUrl();
+                        metrics.count(MetricNames.SQS_RESOLVE, 1);
+                        metrics.record(MetricNames.SQS_RESOLVE_TIME, System.nanoTime() - start);
+                        return url;
+                    }
+                }));
+            }
+        }
+
+        Throwable failure = null;
+        for (Map.Entry<String, Future<String>> entry : pending.entrySet()) {
+            try {
+                urls.put(entry.getKey(), Uninterruptibles.getUninterruptibly(entry.getValue()));
+            } catch (ExecutionException e) {
+                if (failure == null)
+                    failure = e.getCause();
+            }
+        }
+        if (!pending.isEmpty())
+            save();
+        if (failure != null)
+            throw Throwables.propagate(failure);
+
+        Map<String, String> resolved = Maps.newLinkedHashMap();
+        for (String queueName : queueNames) {
+            resolved.put(queueName, urls.get(queueName));
+        }
+        return Collections.unmodifiableMap(resolved);
+    }
+
+    /**
+     * Returns the queue with the given name, creating it on first use.  The URL of the queue is
+     * resolved unless it is already cached.
+     *
+     * @param queueName
+     *            The name of the SQS queue
+     * @param clazz
+     *            The class type of the message
+     * @return {@link SQueue}
+     * @throws IOException
+     *             if the cache file could not be written
+     * @throws IllegalArgumentException
+     *             if the queue was opened with a different message class
+     */
+    public <M> SQueue<M> queue(String queueName, Class<M> clazz) throws IOException {
+        checkNotNull(queueName, "queueName is null");
+        checkNotNull(clazz, "clazz is null");
+        SQueue<?> queue = queues.get(queueName);
+        if (queue == null) {
+            String url = resolve(Collections.singleton(queueName)).get(queueName);
+            SQueue<M> created = SQueue.builder(queueName, client, clazz).queueUrl(url).mapper(mapper)
+                    .metrics(metrics).build();
+            SQueue<?> existing = queues.putIfAbsent(queueName, created);
+            queue = existing == null ? created : existing;
+        }
+        if (!queue.getMessageClass().equals(clazz))
+            throw new IllegalArgumentException("queue " + queueName + " holds " + queue.getMessageClass().getName());
+        @SuppressWarnings("unchecked")
+        SQueue<M> typed = (SQueue<M>) queue;
+        return typed;
+    }
+
+    /**
+     * Forgets the URL and the queue with the given name, so they are resolved again on next use.
+     *
+     * @param queueName
+     *            The name of the SQS queue
+     * @throws IOException
+     *             if the cache file could not be written
+     */
+    public void invalidate(String queueName) throws IOException {
+        checkNotNull(queueName, "queueName is null");
+        queues.remove(queueName);
+        if (urls.remove(queueName) != null)
+            save();
+    }
+
+    /**
+     * Stops the resolutions in flight.
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Writes the cached URLs to a temporary file and moves it over the cache file, so an
+     * interrupted write never leaves a partial cache behind.
+     */
+    private synchronized void save() throws IOException {
+        if (!cacheFile.isPresent())
+            return;
+        Properties properties = new Properties();
+        properties.putAll(urls);
+        Path path = cacheFile.get();
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            properties.store(out, "SQS queue URLs");
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Map<String, String> load(Path path) throws IOException {
+        Map<String, String> cached = Maps.newHashMap();
+        if (!Files.exists(path))
+            return cached;
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+        }
+        for (String queueName : properties.stringPropertyNames()) {
+            cached.put(queueName, properties.getProperty(queueName));
+        }
+        return cached;
+    }
+
+    /**
+     * Builds a {@link SQueueRegistry}.
+     */
+    public static final class Builder {
+        private final AmazonSQSClient client;
+        private ObjectMapper mapper = new ObjectMapper();
+        private Metrics metrics = Metrics.NOOP;
+        private Optional<Path> cacheFile = Optional.absent();
+        private int parallelism = DEFAULT_PARALLELISM;
+
+        private Builder(AmazonSQSClient client) {
+            this.client = checkNotNull(client, "client is null");
+        }
+
+        /**
+         * Sets the {@link ObjectMapper} shared by the queues.  Defaults to a new
+         * {@link ObjectMapper}.
+         * @param mapper
+         * @return Builder
+         */
+        public Builder mapper(ObjectMapper mapper) {
+            this.mapper = checkNotNull(mapper, "mapper is null");
+            return this;
+        }
+
+        /**
+         * Sets the {@link Metrics} shared by the queues.  Defaults to {@link Metrics#NOOP}.
+         * @param metrics
+         * @return Builder
+         */
+        public Builder metrics(Metrics metrics) {
+            this.metrics = checkNotNull(metrics, "metrics is null");
+            return this;
+        }
+
+        /**
+         * Sets the file the queue URLs are cached in between runs.  By default the URLs are only
+         * cached in memory.
+         * @param cacheFile
+         * @return Builder
+         */
+        public Builder cacheFile(File cacheFile) {
+            this.cacheFile = Optional.of(checkNotNull(cacheFile, "cacheFile is null").toPath());
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of concurrent {@code getQueueUrl} requests.  Defaults to 16.
+         * @param parallelism
+         * @return Builder
+         */
+        public Builder parallelism(int parallelism) {
+            if (parallelism < 1)
+                throw new IllegalArgumentException("parallelism must be at least 1");
+            this.parallelism = parallelism;
+            return this;
+        }
+
+        /**
+         * Builds the {@link SQueueRegistry}, reading the cache file if it exists.
+         * @return {@link SQueueRegistry}
+         * @throws IOException
+         *             if the cache file could not be read
+         */
+        public SQueueRegistry build() throws IOException {
+            Map<String, String> cached = cacheFile.isPresent() ? load(cacheFile.get())
+                    : Collections.<String, String> emptyMap();
+            return new SQueueRegistry(this, cached);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+package com.kiblerdude.awsome.sqs;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.google.common.base.Optional;
+import com.google.common.base.Ticker;
+import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Consumes several {@link SQueue}s with one pool of workers, polling each queue in proportion to
+ * its weight.
+ * <p>
+ * Each worker asks a shared scheduler for the next queue, receives one message from it without
+ * waiting, handles it and acknowledges it.  Queues are chosen by smooth weighted round robin, so
+ * with weights of 6, 3 and 1 a busy high priority queue gets six of every ten polls while the
+ * others still drain.  A queue found empty is skipped for the idle backoff, leaving its share to
+ * the busy queues, and a queue that has not been polled for the starvation timeout is polled
+ * ahead of its turn.  When every queue is idle one worker long polls the highest weight queue,
+ * so urgent messages are picked up at once, and the others wait for the backoff.  When the long
+ * poll returns a message the queue is ready again, and the waiting workers are woken to drain it.
+ * <p>
+ * A message whose handler throws is not acknowledged, and is delivered again after the
+ * visibility timeout of its queue.  Failed receives, handlers and acknowledgements are counted
+ * as {@link MetricNames#SQS_CONSUMER_ERRORS}, and the workers carry on.
+ * <p>
+ * Example:
+ * <pre>
+ * WeightedConsumer&lt;MyMessage&gt; consumer = WeightedConsumer.builder(handler)
+ *         .queue(urgent, 6).queue(normal, 3).queue(bulk, 1).workers(8).build();
+ * consumer.start();
+ * ...
+ * consumer.close();
+ * </pre>
+ * This class is thread safe.
+ *
+ * @author kiblerj
+ *
+ * @param <M> A Jackson annotated class representing the messages in the queues.
+ */
+public final class WeightedConsumer<M> implements Closeable {
+
+    private static final int DEFAULT_WORKERS = 4;
+    private static final long DEFAULT_STARVATION_MILLIS = 5000L;
+    private static final long DEFAULT_IDLE_MILLIS = 1000L;
+    private static final int LONG_POLL_SECONDS = 1;
+
+    private final List<SQueue<M>> queues;
+    private final MessageHandler<? super M> handler;
+    private final WeightedScheduler scheduler;
+    private final int workers;
+    private final Metrics metrics;
+    private final ExecutorService executor;
+    private final AtomicBoolean longPolling;
+    private final AtomicBoolean started;
+    private volatile boolean running = true;
+
+    private WeightedConsumer(Builder<M> builder) {
+        this.queues = new ArrayList<>(builder.queues);
+        this.handler = builder.handler;
+        this.scheduler = new WeightedScheduler(Ints.toArray(builder.weights), builder.starvationNanos,
+                builder.idleNanos, builder.ticker, builder.metrics);
+        this.workers = builder.workers;
+        this.metrics = builder.metrics;
+        this.executor = Executors.newFixedThreadPool(workers, new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("sqs-consumer-%d").build());
+        this.longPolling = new AtomicBoolean();
+        this.started = new AtomicBoolean();
+    }
+
+    /**
+     * Returns a {@link Builder} for a consumer of the queues added to it.
+     *
+     * @param handler
+     *            The {@link MessageHandler} of the messages
+     * @return {@link Builder}
+     */
+    public static <M> Builder<M> builder(MessageHandler<? super M> handler) {
+        return new Builder<>(handler);
+    }
+
+    /**
+     * Starts the workers.
+     */
+    public void start() {
+        checkState(started.compareAndSet(false, true), "consumer already started");
+        for (int i = 0; i < workers; i++) {
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    while (running && !Thread.currentThread().isInterrupted()) {
+                        try {
+                            poll();
+                        } catch (RuntimeException e) {
+                            // an exception would end the worker without a trace
+                            metrics.count(MetricNames.SQS_CONSUMER_ERRORS, 1L);
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Polls the next queue and handles a message from it.
+     *
+     * @return <code>true</code> if a message was received
+     */
+    boolean poll() {
+        int index = scheduler.next();
+        boolean longPoll = false;
+        if (index < 0) {
+            if (!longPolling.compareAndSet(false, true)) {
+                awaitReady();
+                return false;
+            }
+            index = scheduler.highest();
+            longPoll = true;
+        }
+
+        SQueue<M> queue = queues.get(index);
+        Optional<ReceivedMessage<M>> received;
+        try {
+            received = queue.receive(longPoll ? LONG_POLL_SECONDS : 0);
+        } catch (IOException e) {
+            metrics.count(MetricNames.SQS_CONSUMER_ERRORS, 1L);
+            return true;
+        } catch (RuntimeException e) {
+            // back off from a failing queue as from an empty one
+            metrics.count(MetricNames.SQS_CONSUMER_ERRORS, 1L);
+            scheduler.idle(index);
+            return false;
+        } finally {
+            if (longPoll) {
+                longPolling.set(false);
+            }
+        }
+        if (!received.isPresent()) {
+            scheduler.idle(index);
+            return false;
+        }
+        if (longPoll) {
+            // the queue is busy again, so the waiting workers join in
+            scheduler.ready(index);
+        }
+
+        long start = System.nanoTime();
+        try {
+            handler.handle(received.get().getMessage());
+        } catch (Exception e) {
+            metrics.count(MetricNames.SQS_CONSUMER_ERRORS, 1L);
+            return true;
+        }
+        metrics.record(MetricNames.SQS_CONSUMER_HANDLE_TIME, System.nanoTime() - start);
+        try {
+            queue.ack(received.get());
+        } catch (RuntimeException e) {
+            // handled, but delivered again after the visibility timeout
+            metrics.count(MetricNames.SQS_CONSUMER_ERRORS, 1L);
+            return true;
+        }
+        metrics.count(MetricNames.SQS_CONSUMER_HANDLED, 1L);
+        return true;
+    }
+
+    /**
+     * Stops the workers after the messages they are handling.
+     */
+    @Override
+    public void close() {
+        running = false;
+        executor.shutdown();
+    }
+
+    private void awaitReady() {
+        try {
+            scheduler.awaitReady();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Builds a {@link WeightedConsumer}.
+     *
+     * @param <M> A Jackson annotated class representing the messages in the queues.
+     */
+    public static final class Builder<M> {
+        private final MessageHandler<? super M> handler;
+        private final List<SQueue<M>> queues = new ArrayList<>();
+        private final List<Integer> weights = new ArrayList<>();
+        private int workers = DEFAULT_WORKERS;
+        private long starvationNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_STARVATION_MILLIS);
+        private long idleNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_IDLE_MILLIS);
+        private Metrics metrics = Metrics.NOOP;
+        private Ticker ticker = Ticker.systemTicker();
+
+        private Builder(MessageHandler<? super M> handler) {
+            this.handler = checkNotNull(handler, "handler is null");
+        }
+
+        /**
+         * Adds a queue polled in proportion to its weight.
+         * @param queue
+         * @param weight
+         * @return Builder
+         */
+        public Builder<M> queue(SQueue<M> queue, int weight) {
+            checkNotNull(queue, "queue is null");
+            if (weight < 1)
+                throw new IllegalArgumentException("weight must be at least 1");
+            queues.add(queue);
+            weights.add(weight);
+            return this;
+        }
+
+        /**
+         * Sets the number of workers shared by the queues.  Defaults to 4.
+         * @param workers
+         * @return Builder
+         */
+        public Builder<M> workers(int workers) {
+            if (workers < 1)
+                throw new IllegalArgumentException("workers must be at least 1");
+            this.workers = workers;
+            return this;
+        }
+
+        /**
+         * Sets how long a queue may go without being polled before it is polled ahead of its
+         * turn.  Defaults to 5 seconds.
+         * @param timeout
+         * @param unit
+         * @return Builder
+         */
+        public Builder<M> starvationTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 1)
+                throw new IllegalArgumentException("timeout must be positive");
+            this.starvationNanos = checkNotNull(unit, "unit is null").toNanos(timeout);
+            return this;
+        }
+
+        /**
+         * Sets how long a queue found empty is skipped.  Defaults to 1 second.
+         * @param backoff
+         * @param unit
+         * @return Builder
+         */
+        public Builder<M> idleBackoff(long backoff, TimeUnit unit) {
+            if (backoff < 0)
+                throw new IllegalArgumentException("backoff is negative");
+            this.idleNanos = checkNotNull(unit, "unit is null").toNanos(backoff);
+            return this;
+        }
+
+        /**
+         * Sets the {@link Metrics} receiving the counts of the consumer.  Defaults to
+         * {@link Metrics#NOOP}.
+         * @param metrics
+         * @return Builder
+         */
+        public Builder<M> metrics(Metrics metrics) {
+            this.metrics = checkNotNull(metrics, "metrics is null");
+            return this;
+        }
+
+        /**
+         * Sets the {@link Ticker} measuring the backoffs and timeouts.  Defaults to the system
+         * ticker.
+         * @param ticker
+         * @return Builder
+         */
+        public Builder<M> ticker(Ticker ticker) {
+            this.ticker = checkNotNull(ticker, "ticker is null");
+            return this;
+        }
+
+        /**
+         * Builds the {@link WeightedConsumer}.  The workers are started by
+         * {@link WeightedConsumer#start()}.
+         * @return {@link WeightedConsumer}
+         */
+        public WeightedConsumer<M> build() {
+            if (queues.isEmpty())
+                throw new IllegalArgumentException("no queues added");
+            return new WeightedConsumer<>(this);
+        }
+    }
+}
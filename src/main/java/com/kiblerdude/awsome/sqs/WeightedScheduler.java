@@ -0,0 +1,141 @@
+package com.kiblerdude.awsome.sqs;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Ticker;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.metrics.Metrics;
+
+/**
+ * Chooses which of several weighted queues to poll next, using smooth
+ * weighted round robin: each queue is chosen in proportion to its weight, and
+ * the choices of a queue are spread evenly instead of in runs.
+ * <p>
+ * A queue found empty is skipped until its idle backoff has passed.  A queue
+ * that has not been chosen for longer than the starvation timeout is chosen
+ * ahead of its turn.  A queue may be made ready again early, which wakes the
+ * callers waiting for one.
+ * <p>
+ * This class is package protected and is thread safe.
+ *
+ * @author kiblerj
+ *
+ */
+final class WeightedScheduler {
+
+    private final int[] weights;
+    private final long[] current;
+    private final long[] idleUntil;
+    private final long[] lastChosen;
+    private final long starvationNanos;
+    private final long idleNanos;
+    private final Ticker ticker;
+    private final Metrics metrics;
+
+    WeightedScheduler(int[] weights, long starvationNanos, long idleNanos, Ticker ticker, Metrics metrics) {
+        this.weights = weights.clone();
+        this.current = new long[weights.length];
+        this.idleUntil = new long[weights.length];
+        this.lastChosen = new long[weights.length];
+        this.starvationNanos = starvationNanos;
+        this.idleNanos = idleNanos;
+        this.ticker = ticker;
+        this.metrics = metrics;
+        long now = ticker.read();
+        for (int i = 0; i < weights.length; i++) {
+            idleUntil[i] = now;
+            lastChosen[i] = now;
+        }
+    }
+
+    /**
+     * Returns the index of the queue to poll next, or -1 if every queue is
+     * idle.
+     */
+    synchronized int next() {
+        long now = ticker.read();
+        int starved = -1;
+        for (int i = 0; i < weights.length; i++) {
+            if (idleUntil[i] <= now && now - lastChosen[i] >= starvationNanos
+                    && (starved < 0 || lastChosen[i] < lastChosen[starved])) {
+                starved = i;
+            }
+        }
+        if (starved >= 0) {
+            metrics.count(MetricNames.SQS_CONSUMER_STARVED, 1L);
+            lastChosen[starved] = now;
+            return starved;
+        }
+
+        int best = -1;
+        long total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (idleUntil[i] <= now) {
+                current[i] += weights[i];
+                total += weights[i];
+                if (best < 0 || current[i] > current[best]) {
+                    best = i;
+                }
+            }
+        }
+        if (best >= 0) {
+            current[best] -= total;
+            lastChosen[best] = now;
+        }
+        return best;
+    }
+
+    /**
+     * Skips the queue until the idle backoff has passed.
+     */
+    synchronized void idle(int index) {
+        idleUntil[index] = ticker.read() + idleNanos;
+        // an idle queue does not build up credit over the busy ones
+        current[index] = 0;
+    }
+
+    /**
+     * Makes an idle queue ready to be polled at once, and wakes the callers of
+     * {@link #awaitReady()}.
+     */
+    synchronized void ready(int index) {
+        idleUntil[index] = ticker.read();
+        notifyAll();
+    }
+
+    /**
+     * Waits until the first idle queue may be polled again, or until a queue
+     * is made ready.
+     */
+    synchronized void awaitReady() throws InterruptedException {
+        long nanos = nanosUntilReady();
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, nanos);
+        }
+    }
+
+    /**
+     * Returns the time until the first idle queue may be polled again.
+     */
+    synchronized long nanosUntilReady() {
+        long now = ticker.read();
+        long wait = Long.MAX_VALUE;
+        for (long until : idleUntil) {
+            wait = Math.min(wait, until - now);
+        }
+        return Math.max(0L, wait);
+    }
+
+    /**
+     * Returns the index of the queue with the highest weight.
+     */
+    int highest() {
+        int highest = 0;
+        for (int i = 1; i < weights.length; i++) {
+            if (weights[i] > weights[highest]) {
+                highest = i;
+            }
+        }
+        return highest;
+    }
+}
@@ -0,0 +1,125 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsResult;
+import com.amazonaws.util.IOUtils;
+import com.google.common.collect.Lists;
+
+public class BulkDocumentLoaderTest {
+
+	private static final String ADD_1 = "{\"type\":\"add\",\"id\":\"id.1\",\"fields\":{\"s\":\"a}\\\"b\",\"sa\":[\"x\",\"y\"]}}";
+	private static final String ADD_2 = "{\"type\":\"add\",\"id\":\"id.2\",\"fields\":{\"s\":\"test\"}}";
+	private static final String DEL_3 = "{\"type\":\"delete\",\"id\":\"id.3\"}";
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Mock
+	private AmazonCloudSearchDomainClient client;
+
+	private List<String> uploads;
+
+	@Before
+	public void setUp() throws Exception {
+		MockitoAnnotations.initMocks(this);
+		uploads = Lists.newArrayList();
+		when(client.uploadDocuments(any(UploadDocumentsRequest.class))).thenAnswer(new Recorder());
+	}
+
+	@Test
+	public void testNewlineDelimited() throws IOException {
+		File source = write("source.ndjson", ADD_1 + "\n" + ADD_2 + "\r\n" + DEL_3 + "\n");
+		File checkpoint = new File(folder.getRoot(), "source.checkpoint");
+
+		BulkDocumentLoader loader = new BulkDocumentLoader(client);
+		assertEquals(3, loader.load(source, checkpoint));
+		assertEquals(Lists.newArrayList(String.format("[%s,%s,%s]", ADD_1, ADD_2, DEL_3)), uploads);
+		assertEquals(Long.toString(source.length() - 1), read(checkpoint));
+
+		// nothing is uploaded again once the source is complete
+		assertEquals(0, loader.load(source, checkpoint));
+		assertEquals(1, uploads.size());
+	}
+
+	@Test
+	public void testActionArrays() throws IOException {
+		File source = write("source.json", "[" + ADD_1 + ",\n" + ADD_2 + "]\n[ " + DEL_3 + " ]");
+		File checkpoint = new File(folder.getRoot(), "source.checkpoint");
+
+		BulkDocumentLoader loader = new BulkDocumentLoader(client, ADD_1.length() + ADD_2.length() + 3);
+		assertEquals(3, loader.load(source, checkpoint));
+		assertEquals(Lists.newArrayList(String.format("[%s,%s]", ADD_1, ADD_2), String.format("[%s]", DEL_3)), uploads);
+	}
+
+	@Test
+	public void testResume() throws IOException {
+		File source = write("source.ndjson", ADD_1 + "\n" + ADD_2 + "\n" + DEL_3 + "\n");
+		File checkpoint = new File(folder.getRoot(), "source.checkpoint");
+
+		doAnswer(new Recorder())
+			.doThrow(new AmazonServiceException("unavailable"))
+			.when(client).uploadDocuments(any(UploadDocumentsRequest.class));
+
+		// one action per batch, the second upload fails
+		BulkDocumentLoader loader = new BulkDocumentLoader(client, ADD_1.length() + 2);
+		try {
+			loader.load(source, checkpoint);
+			fail("expected upload failure");
+		} catch (AmazonServiceException e) {
+			// expected
+		}
+		assertEquals(Long.toString(ADD_1.length()), read(checkpoint));
+
+		doAnswer(new Recorder()).when(client).uploadDocuments(any(UploadDocumentsRequest.class));
+		assertEquals(2, loader.load(source, checkpoint));
+		assertEquals(Lists.newArrayList(
+				String.format("[%s]", ADD_1), String.format("[%s]", ADD_2), String.format("[%s]", DEL_3)), uploads);
+	}
+
+	@Test(expected = IOException.class)
+	public void testMalformed() throws IOException {
+		File source = write("source.ndjson", ADD_1 + "\nnot json\n");
+		new BulkDocumentLoader(client).load(source, new File(folder.getRoot(), "source.checkpoint"));
+	}
+
+	private File write(String name, String content) throws IOException {
+		File file = folder.newFile(name);
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+		return file;
+	}
+
+	private static String read(File file) throws IOException {
+		return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+	}
+
+	private final class Recorder implements Answer<UploadDocumentsResult> {
+		@Override
+		public UploadDocumentsResult answer(InvocationOnMock invocation) throws Throwable {
+			UploadDocumentsRequest request = (UploadDocumentsRequest) invocation.getArguments()[0];
+			String json = IOUtils.toString(request.getDocuments());
+			assertEquals(json.length(), request.getContentLength().longValue());
+			uploads.add(json);
+			return new UploadDocumentsResult();
+		}
+	}
+}
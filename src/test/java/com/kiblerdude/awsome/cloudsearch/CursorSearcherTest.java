@@ -0,0 +1,107 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.Hit;
+import com.amazonaws.services.cloudsearchdomain.model.Hits;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+public class CursorSearcherTest {
+
+	@Mock
+	private AmazonCloudSearchDomainClient client;
+
+	private CursorSearcher<ExampleDocument> searcher;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		// 5 documents in pages of 2, the cursor is the index of the next hit
+		when(client.search(any(SearchRequest.class))).thenAnswer(new Answer<SearchResult>() {
+			@Override
+			public SearchResult answer(InvocationOnMock invocation) {
+				SearchRequest request = (SearchRequest) invocation.getArguments()[0];
+				int start = "initial".equals(request.getCursor()) ? 0 : Integer.parseInt(request.getCursor());
+				List<Hit> hits = Lists.newArrayList();
+				for (int i = start; i < Math.min(5, start + request.getSize()); i++) {
+					Map<String, List<String>> fields = ImmutableMap.<String, List<String>> of("s",
+							ImmutableList.of("doc " + i), "i", ImmutableList.of(String.valueOf(i)), "sa",
+							ImmutableList.of("a" + i), "_score", ImmutableList.of("1.0"));
+					hits.add(new Hit().withId("id." + i).withFields(fields));
+				}
+				return new SearchResult().withHits(new Hits().withFound(5L)
+						.withCursor(String.valueOf(start + hits.size())).withHit(hits));
+			}
+		});
+		searcher = new CursorSearcher<>(client, ExampleDocument.class);
+	}
+
+	@After
+	public void tearDown() {
+		searcher.close();
+	}
+
+	@Test
+	public void testAllPages() {
+		Iterator<SearchHit<ExampleDocument>> hits = searcher.search(eq("s", "doc"), new SearchRequest().withSize(2L));
+		for (int i = 0; i < 5; i++) {
+			assertTrue(hits.hasNext());
+			SearchHit<ExampleDocument> hit = hits.next();
+			assertEquals("id." + i, hit.getId());
+			assertEquals("doc " + i, hit.getDocument().strValue);
+			assertEquals(i, hit.getDocument().intValue);
+			assertEquals(ImmutableList.of("a" + i), hit.getDocument().strArray);
+		}
+		assertFalse(hits.hasNext());
+
+		// the last page is short, so no further page is requested
+		ArgumentCaptor<SearchRequest> requests = ArgumentCaptor.forClass(SearchRequest.class);
+		verify(client, times(3)).search(requests.capture());
+		assertEquals("initial", requests.getAllValues().get(0).getCursor());
+		assertEquals("( term field= s 'doc' )", requests.getAllValues().get(0).getQuery());
+	}
+
+	@Test
+	public void testEmpty() {
+		doReturn(new SearchResult().withHits(new Hits().withFound(0L).withHit(ImmutableList.<Hit> of())))
+				.when(client).search(any(SearchRequest.class));
+		assertFalse(searcher.search(eq("s", "doc")).hasNext());
+	}
+
+	@Test(expected = AmazonServiceException.class)
+	public void testFailure() {
+		doThrow(new AmazonServiceException("failed")).when(client).search(any(SearchRequest.class));
+		searcher.search(eq("s", "doc")).hasNext();
+	}
+
+	private static final class ExampleDocument {
+		@JsonProperty(value = "s")
+		private String strValue;
+		@JsonProperty(value = "i")
+		private int intValue;
+		@JsonProperty(value = "sa")
+		private List<String> strArray;
+	}
+}
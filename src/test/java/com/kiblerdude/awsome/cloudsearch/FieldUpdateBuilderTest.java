@@ -0,0 +1,108 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+import com.amazonaws.util.IOUtils;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableMap;
+
+public class FieldUpdateBuilderTest {
+
+	@Test
+	public void testUpdate() throws IOException {
+		FieldUpdateBuilder<ExampleDocument> builder = new FieldUpdateBuilder<>(10);
+		builder.remember("id.1", new ExampleDocument("test", 10));
+
+		assertTrue(builder.update("id.1", ImmutableMap.of("i", 11)));
+		assertTrue(builder.update("id.1", ImmutableMap.of("i", 12)));
+		assertEquals(1, builder.size());
+		assertEquals("[{\"type\":\"add\",\"id\":\"id.1\",\"fields\":{\"s\":\"test\",\"i\":12}}]", json(builder.build()));
+		assertEquals(0, builder.size());
+	}
+
+	@Test
+	public void testUnchanged() {
+		FieldUpdateBuilder<ExampleDocument> builder = new FieldUpdateBuilder<>(10);
+		builder.remember("id.1", new ExampleDocument("test", 10));
+
+		assertTrue(builder.update("id.1", ImmutableMap.of("i", 10)));
+		assertEquals(0, builder.size());
+	}
+
+	@Test
+	public void testCommitAndAbort() throws IOException {
+		FieldUpdateBuilder<ExampleDocument> builder = new FieldUpdateBuilder<>(10);
+		builder.remember("id.1", new ExampleDocument("test", 10));
+
+		assertTrue(builder.update("id.1", ImmutableMap.of("i", 11)));
+		builder.build();
+		builder.abort();
+		// the failed upload is sent again, and a retry of the update is not lost
+		assertTrue(builder.update("id.1", ImmutableMap.of("i", 11)));
+		assertEquals(1, builder.size());
+		assertEquals("[{\"type\":\"add\",\"id\":\"id.1\",\"fields\":{\"s\":\"test\",\"i\":11}}]", json(builder.build()));
+
+		builder.committed();
+		assertTrue(builder.update("id.1", ImmutableMap.of("i", 11)));
+		assertEquals(0, builder.size());
+
+		builder.delete("id.1");
+		builder.build();
+		builder.abort();
+		assertFalse(builder.update("id.1", ImmutableMap.of("i", 12)));
+		builder.build();
+		builder.committed();
+		assertEquals(0, builder.size());
+		assertFalse(builder.update("id.1", ImmutableMap.of("i", 12)));
+	}
+
+	@Test
+	public void testUnknown() {
+		FieldUpdateBuilder<ExampleDocument> builder = new FieldUpdateBuilder<>(10);
+		assertFalse(builder.update("id.1", ImmutableMap.of("i", 10)));
+
+		builder.remember("id.1", new ExampleDocument("test", 10));
+		builder.delete("id.1");
+		assertFalse(builder.update("id.1", ImmutableMap.of("i", 11)));
+		assertEquals(1, builder.size());
+	}
+
+	@Test
+	public void testProjectionAndRemove() throws IOException {
+		FieldUpdateBuilder<ExampleDocument> builder = new FieldUpdateBuilder<>(10);
+		builder.add("id.1", new ExampleDocument("test", 10));
+		builder.add("id.2", new ExampleDocument("test", 20));
+		builder.build();
+
+		assertTrue(builder.update("id.1", new ExampleDocument("changed", null)));
+		Map<String, Object> remove = Collections.singletonMap("s", null);
+		assertTrue(builder.update("id.2", remove));
+		assertEquals("[{\"type\":\"add\",\"id\":\"id.1\",\"fields\":{\"s\":\"changed\",\"i\":10}},"
+				+ "{\"type\":\"add\",\"id\":\"id.2\",\"fields\":{\"i\":20}}]", json(builder.build()));
+	}
+
+	private static String json(UploadDocumentsRequest request) throws IOException {
+		return IOUtils.toString(request.getDocuments());
+	}
+
+	@JsonSerialize
+	@SuppressWarnings("unused")
+	private static final class ExampleDocument {
+		@JsonProperty(value="s")
+		private final String strValue;
+		@JsonProperty(value="i")
+		private final Integer intValue;
+		public ExampleDocument(String strValue, Integer intValue) {
+			this.strValue = strValue;
+			this.intValue = intValue;
+		}
+	}
+}
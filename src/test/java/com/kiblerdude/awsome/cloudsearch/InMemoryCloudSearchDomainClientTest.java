@@ -0,0 +1,192 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.matchall;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.near;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.not;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.or;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.prefix;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.cloudsearchdomain.model.DocumentServiceException;
+import com.amazonaws.services.cloudsearchdomain.model.Hit;
+import com.amazonaws.services.cloudsearchdomain.model.QueryParser;
+import com.amazonaws.services.cloudsearchdomain.model.SearchException;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.amazonaws.services.cloudsearchdomain.model.SuggestRequest;
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsResult;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+public class InMemoryCloudSearchDomainClientTest {
+
+	private InMemoryCloudSearchDomainClient client;
+
+	@Before
+	public void setUp() {
+		client = new InMemoryCloudSearchDomainClient();
+		UploadDocumentsResult result = client.uploadDocuments(new UploadDocumentsBuilder<ExampleDocument>()
+				.add("1", new ExampleDocument("Star Wars: A New Hope", 1977L, 8.6, "Sci-Fi", "Adventure"))
+				.add("2", new ExampleDocument("The Empire Strikes Back", 1980L, 8.7, "Sci-Fi"))
+				.add("3", new ExampleDocument("Return of the Jedi", 1983L, 8.3, "Sci-Fi", "Adventure"))
+				.add("4", new ExampleDocument("Star Trek", 2009L, 7.9, "Sci-Fi"))
+				.add("5", new ExampleDocument("A Star Is Born", 1954L, 7.6, "Drama")).build());
+		assertEquals(Long.valueOf(5), result.getAdds());
+		assertEquals(5, client.size());
+	}
+
+	@Test
+	public void testText() {
+		assertEquals(ImmutableList.of("1", "4", "5"), ids(eq("title", "star")));
+		assertEquals(ImmutableList.of("1"), ids(phrase("title", "star wars")));
+		assertEquals(ImmutableList.of("2"), ids(prefix("title", "emp")));
+		assertEquals(ImmutableList.of("1", "2", "4", "5"), ids(prefix("title", "St")));
+		assertEquals(ImmutableList.of("2"), ids(near("title", "empire back", 2)));
+		assertEquals(ImmutableList.of("1", "2", "3", "4"), ids(eq("genres", "Sci-Fi")));
+		// without a field, every field is searched
+		assertEquals(ImmutableList.of("2"), ids(StructuredQueryParser.parse("'empire'")));
+	}
+
+	@Test
+	public void testCompound() {
+		assertEquals(ImmutableList.of("1", "3"), ids(and(eq("genres", "Adventure"), range("year", 1970L, 1990L))));
+		assertEquals(ImmutableList.of("2", "5"), ids(or(eq("year", 1980L), eq("genres", "Drama"))));
+		assertEquals(ImmutableList.of("2", "3", "5"), ids(and(matchall(), not(eq("title", "wars")),
+				range("rating", 7.5, 8.8), not(eq("title", "trek")))));
+		assertEquals(ImmutableList.of("1", "2", "3", "4"), ids(StructuredQueryParser.parse("year:[1960,2010}")));
+	}
+
+	@Test
+	public void testUpdatesAndDeletes() {
+		client.uploadDocuments(new UploadDocumentsBuilder<ExampleDocument>()
+				.add("4", new ExampleDocument("Star Trek Beyond", 2016L, 7.1, "Sci-Fi")).delete("5").build());
+		assertEquals(4, client.size());
+		assertEquals(ImmutableList.of("1", "4"), ids(eq("title", "star")));
+		assertEquals(ImmutableList.of("4"), ids(eq("title", "beyond")));
+		assertTrue(ids(eq("year", 2009L)).isEmpty());
+
+		try {
+			client.uploadDocuments(new UploadDocumentsBuilder<ExampleDocument>()
+					.add("6", new ExampleDocument("Alien", 1979L, 8.5, "Horror"))
+					.add("not valid!", new ExampleDocument("Aliens", 1986L, 8.4, "Action")).build());
+			fail();
+		} catch (DocumentServiceException e) {
+			// the whole batch is rejected
+			assertEquals(4, client.size());
+		}
+	}
+
+	@Test
+	public void testCompaction() {
+		// replacing the same documents over and over does not grow the index
+		for (int i = 0; i < 5000; i++) {
+			client.uploadDocuments(new UploadDocumentsBuilder<ExampleDocument>()
+					.add("4", new ExampleDocument("Star Trek " + i, 2009L, 7.9, "Sci-Fi")).build());
+		}
+		assertTrue(client.ordinals() < 2048);
+		assertEquals(5, client.size());
+		// the documents keep their order, and the old words are gone
+		assertEquals(ImmutableList.of("1", "2", "3", "5", "4"), ids(matchall()));
+		assertEquals(ImmutableList.of("4"), ids(eq("title", "4999")));
+		assertTrue(ids(eq("title", "17")).isEmpty());
+		assertEquals(ImmutableList.of("1", "5", "4"), ids(eq("title", "star")));
+	}
+
+	@Test(expected = DocumentServiceException.class)
+	public void testBatchLimit() {
+		byte[] json = ("[{\"type\":\"add\",\"id\":\"1\",\"fields\":{\"title\":\""
+				+ Strings.repeat("x", 5 * 1024 * 1024) + "\"}}]").getBytes();
+		UploadDocumentsRequest request = new UploadDocumentsRequest();
+		request.setContentType("application/json");
+		request.setContentLength((long) json.length);
+		request.setDocuments(new ByteArrayInputStream(json));
+		client.uploadDocuments(request);
+	}
+
+	@Test
+	public void testSuggest() {
+		try {
+			client.suggest(new SuggestRequest());
+			fail();
+		} catch (UnsupportedOperationException e) {
+			// thrown by the stand-in, not by the real client
+			assertEquals("InMemoryCloudSearchDomainClient does not support suggest", e.getMessage());
+		}
+	}
+
+	@Test
+	public void testPaging() {
+		SearchResult result = client.search(request(matchall()).withSort("year desc").withStart(1L).withSize(2L)
+				.withReturn("title"));
+		assertEquals(Long.valueOf(5), result.getHits().getFound());
+		List<Hit> hits = result.getHits().getHit();
+		assertEquals("3", hits.get(0).getId());
+		assertEquals(ImmutableList.of("Return of the Jedi"), hits.get(0).getFields().get("title"));
+		assertNull(hits.get(0).getFields().get("year"));
+		assertEquals("2", hits.get(1).getId());
+
+		try (CursorSearcher<ExampleDocument> searcher = new CursorSearcher<>(client, ExampleDocument.class)) {
+			Iterator<SearchHit<ExampleDocument>> all = searcher.search(eq("genres", "Sci-Fi"),
+					new SearchRequest().withSize(3L).withSort("rating asc"));
+			List<String> titles = Lists.newArrayList();
+			while (all.hasNext()) {
+				titles.add(all.next().getDocument().title);
+			}
+			assertEquals(ImmutableList.of("Star Trek", "Return of the Jedi", "Star Wars: A New Hope",
+					"The Empire Strikes Back"), titles);
+		}
+	}
+
+	@Test(expected = SearchException.class)
+	public void testDeepPaging() {
+		client.search(request(matchall()).withStart(9999L).withSize(10L));
+	}
+
+	private List<String> ids(StructuredQueryBuilder query) {
+		List<String> ids = Lists.newArrayList();
+		for (Hit hit : client.search(request(query).withSize(100L)).getHits().getHit()) {
+			ids.add(hit.getId());
+		}
+		return ids;
+	}
+
+	private static SearchRequest request(StructuredQueryBuilder query) {
+		return new SearchRequest().withQueryParser(QueryParser.Structured).withQuery(query.build());
+	}
+
+	private static final class ExampleDocument {
+		@JsonProperty("title")
+		private String title;
+		@JsonProperty("year")
+		private Long year;
+		@JsonProperty("rating")
+		private Double rating;
+		@JsonProperty("genres")
+		private List<String> genres;
+
+		@SuppressWarnings("unused")
+		public ExampleDocument() {
+		}
+
+		public ExampleDocument(String title, Long year, Double rating, String... genres) {
+			this.title = title;
+			this.year = year;
+			this.rating = rating;
+			this.genres = ImmutableList.copyOf(genres);
+		}
+	}
+}
@@ -0,0 +1,57 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.or;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
+import static org.junit.Assert.*;
+
+import java.util.Iterator;
+
+import org.junit.Test;
+
+public class QueryInternerTest {
+
+	@Test
+	public void testSharedSubtrees() {
+		QueryInterner interner = new QueryInterner(64);
+		StructuredQueryBuilder filter = interner.intern(and(eq("tenant", "t1"), eq("visible", 1L)));
+
+		StructuredQueryBuilder first = interner.intern(and(phrase("title", "star"), and(eq("tenant", "t1"),
+				eq("visible", 1L))));
+		StructuredQueryBuilder second = interner.intern(and(phrase("title", "wars"), and(eq("tenant", "t1"),
+				eq("visible", 1L))));
+		assertSame(filter, nested(first, 1));
+		assertSame(filter, nested(second, 1));
+		assertSame(first, interner.intern(and(phrase("title", "star"), and(eq("tenant", "t1"), eq("visible", 1L)))));
+		assertSame(filter.toString(), filter.toString());
+		assertEquals(and(phrase("title", "star"), and(eq("tenant", "t1"), eq("visible", 1L))).build(), first.build());
+	}
+
+	@Test
+	public void testCompactTermsKeptApart() {
+		QueryInterner interner = new QueryInterner(64);
+		StructuredQueryBuilder compact = interner.intern(QueryOptimizer.optimize(or(eq("a", "x"), eq("a", "y"))));
+		StructuredQueryBuilder term = interner.intern(eq("a", "x"));
+		assertEquals("( term field= a 'x' )", term.build());
+		assertEquals("( or a:'x' a:'y' )", compact.build());
+	}
+
+	@Test
+	public void testCollisions() {
+		QueryInterner interner = new QueryInterner(1);
+		StructuredQueryBuilder a = interner.intern(eq("a", "x"));
+		StructuredQueryBuilder b = interner.intern(eq("b", "x"));
+		assertEquals(eq("a", "x"), a);
+		assertEquals(eq("b", "x"), b);
+		assertSame(b, interner.intern(eq("b", "x")));
+	}
+
+	private static StructuredQueryBuilder nested(StructuredQueryBuilder query, int index) {
+		Iterator<StructuredQueryBuilder> expressions = query.getExpressions().iterator();
+		for (int i = 0; i < index; i++) {
+			expressions.next();
+		}
+		return expressions.next();
+	}
+}
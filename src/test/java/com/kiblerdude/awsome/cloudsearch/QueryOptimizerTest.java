@@ -0,0 +1,76 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.QueryOptimizer.optimize;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.matchall;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.not;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.or;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.param;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class QueryOptimizerTest {
+
+	@Test
+	public void testEquals() {
+		assertEquals(and(eq("a", "x"), eq("b", 1L)), and(eq("b", 1L), eq("a", "x")));
+		assertEquals(and(eq("a", "x"), eq("b", 1L)).hashCode(), and(eq("b", 1L), eq("a", "x")).hashCode());
+		// the compact form renders differently, so it is not equal
+		assertNotEquals(eq("a", "x"), eq("a", "x").compact());
+		assertNotEquals(and(eq("a", "x")), or(eq("a", "x")));
+		assertNotEquals(eq("a", 1L), eq("a", 1.0));
+		assertNotEquals(range("a", 1L, 2L), range("a", 1L, 3L));
+	}
+
+	@Test
+	public void testFlatten() {
+		StructuredQueryBuilder query = and(and(eq("a", "x"), eq("b", "y")), and(eq("a", "x"), phrase("c", "z")),
+				or(eq("d", "w")));
+		assertEquals("( and ( term field= a 'x' ) ( term field= b 'y' ) ( phrase field= c 'z' ) ( term field= d 'w' ) )",
+				optimize(query).build());
+	}
+
+	@Test
+	public void testNot() {
+		assertEquals("( term field= a 'x' )", optimize(not(not(eq("a", "x")))).build());
+		assertEquals("( not ( term field= a 'x' ) )", optimize(not(not(not(eq("a", "x"))))).build());
+	}
+
+	@Test
+	public void testMatchAll() {
+		assertEquals("( term field= a 'x' )", optimize(and(matchall(), eq("a", "x"))).build());
+		assertEquals("( matchall )", optimize(or(matchall(), eq("a", "x"))).build());
+	}
+
+	@Test
+	public void testMergeRanges() {
+		assertEquals("( and ( range field= a { 5 , 10 } ) ( term field= b 'x' ) )",
+				optimize(and(range("a", 1L, 10L), eq("b", "x"), range("a", 5L, 20L))).build());
+		assertEquals("( range field= a { 1 , 30 } )",
+				optimize(or(range("a", 1L, 10L), range("a", 20L, 30L), range("a", 5L, 25L))).build());
+		// exclusive ranges which only touch are not joined
+		assertEquals("( or ( range field= a { 1 , 10 } ) ( range field= a { 10 , 20 } ) )",
+				optimize(or(range("a", 1L, 10L), range("a", 10L, 20L))).build());
+		// parameters are never merged
+		StructuredQueryBuilder parameterized = and(range("a", 1.0, 10.0), range("a", param("min"), param("max")));
+		assertSame(parameterized, optimize(parameterized));
+	}
+
+	@Test
+	public void testCompactTerms() {
+		assertEquals("( or a:'x' a:'y' a:'z' ( term field= b 'x' ) )",
+				optimize(or(eq("a", "x"), or(eq("a", "y"), eq("a", "z")), eq("b", "x"))).build());
+	}
+
+	@Test
+	public void testUnchanged() {
+		StructuredQueryBuilder query = and(eq("a", "x"), not(eq("b", "y")));
+		assertSame(query, optimize(query));
+	}
+}
@@ -0,0 +1,100 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.matchall;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.near;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.not;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.or;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.param;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.prefix;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
+import static org.junit.Assert.*;
+
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+
+public class QueryPredicateTest {
+
+	private static final ExampleDocument STAR_WARS = new ExampleDocument("Star Wars: A New Hope", 1977,
+			ImmutableList.of("Sci-Fi", "Adventure"), new Date(233366400000L));
+	private static final ExampleDocument ALIEN = new ExampleDocument("Alien", 1979, ImmutableList.of("Horror"),
+			new Date(296870400000L));
+
+	@Test
+	public void testTerms() {
+		assertMatches(eq("genres", "Sci-Fi"), true, false);
+		assertMatches(eq("year", 1979L), false, true);
+		assertMatches(eq("year", 1979.0), false, true);
+		assertMatches(eq("title", "star wars"), true, false);
+		assertMatches(eq("title", "wars star"), false, false);
+	}
+
+	@Test
+	public void testText() {
+		assertMatches(phrase("title", "a new hope"), true, false);
+		assertMatches(prefix("title", "ali"), false, true);
+		assertMatches(near("title", "star hope", 3), true, false);
+		assertMatches(near("title", "star hope", 2), false, false);
+		assertMatches(StructuredQueryParser.parse("'horror'"), false, true);
+	}
+
+	@Test
+	public void testRanges() {
+		assertMatches(range("year", 1977L, 1980L), false, true);
+		assertMatches(StructuredQueryParser.parse("year:[1977,1979}"), true, false);
+		assertMatches(StructuredQueryParser.parse("year:{1977,}"), false, true);
+		assertMatches(range("released", new Date(0L), new Date(250000000000L)), true, false);
+		assertMatches(StructuredQueryParser.parse("released:['1979-01-01T00:00:00Z',}"), false, true);
+	}
+
+	@Test
+	public void testCompound() {
+		assertMatches(and(matchall(), or(eq("year", 1977L), eq("genres", "Horror")), not(prefix("title", "star"))),
+				false, true);
+		assertMatches(not(eq("year", 1977L)), false, true);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownField() {
+		QueryPredicate.compile(eq("unknown", "x"), ExampleDocument.class);
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testParameters() {
+		QueryPredicate.compile(eq("title", param("title")), ExampleDocument.class);
+	}
+
+	private static void assertMatches(StructuredQueryBuilder query, boolean starWars, boolean alien) {
+		QueryPredicate<ExampleDocument> predicate = QueryPredicate.compile(query, ExampleDocument.class);
+		assertEquals(query.build(), starWars, predicate.apply(STAR_WARS));
+		assertEquals(query.build(), alien, predicate.apply(ALIEN));
+	}
+
+	@JsonSerialize
+	@SuppressWarnings("unused")
+	private static final class ExampleDocument {
+		@JsonProperty(value = "title")
+		private final String title;
+		@JsonProperty(value = "year")
+		private final int year;
+		@JsonProperty(value = "genres")
+		private final List<String> genres;
+		@JsonProperty(value = "released")
+		private final Date released;
+
+		public ExampleDocument(String title, int year, List<String> genres, Date released) {
+			this.title = title;
+			this.year = year;
+			this.genres = genres;
+			this.released = released;
+		}
+	}
+}
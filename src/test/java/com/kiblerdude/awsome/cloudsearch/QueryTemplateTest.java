@@ -0,0 +1,87 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.not;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.param;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.prefix;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Date;
+
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+public class QueryTemplateTest {
+
+	@Test
+	public void testBind() {
+		StructuredQueryBuilder visible = eq("visible", 1L);
+		QueryTemplate template = QueryTemplate.compile(and(eq("category", param("cat")), visible,
+				range("price", param("min"), param("max")), not(prefix("title", param("cat")))));
+		assertEquals(ImmutableSet.of("cat", "min", "max"), template.getParameterNames());
+
+		String query = template.bind(ImmutableMap.<String, Object> of("cat", "book's", "min", 10.0, "max", 20.5));
+		String expected = and(eq("category", "book's"), visible,
+				range("price", 10.0, 20.5), not(prefix("title", "book's"))).build();
+		assertEquals(expected, query);
+		assertEquals("( and ( term field= category 'book\\'s' ) ( term field= visible 1 ) "
+				+ "( range field= price { 10.0 , 20.5 } ) ( not ( prefix field= title 'book\\'s' ) ) )", query);
+	}
+
+	@Test
+	public void testBindDate() {
+		QueryTemplate template = QueryTemplate.compile(eq("created", param("date")));
+		assertEquals("( term field= created '1970-01-01T00:00:00Z' )",
+				template.bind(ImmutableMap.of("date", new Date(0L))));
+	}
+
+	@Test
+	public void testNoParameters() {
+		StructuredQueryBuilder query = eq("field1", "value");
+		assertEquals(query.build(), QueryTemplate.compile(query).bind(ImmutableMap.<String, Object> of()));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnbound() {
+		QueryTemplate.compile(eq("category", param("cat"))).bind(ImmutableMap.of("other", "value"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnsupportedType() {
+		QueryTemplate.compile(eq("category", param("cat"))).bind(ImmutableMap.of("cat", new Object()));
+	}
+
+	@Test
+	public void testTextParameters() {
+		QueryTemplate template = QueryTemplate.compile(and(eq("id", param("value")),
+				phrase("title", param("value"))));
+		assertEquals("( and ( term field= id 'one two' ) ( phrase field= title 'one two' ) )",
+				template.bind(ImmutableMap.of("value", "one two")));
+		// a number is a valid term, but not a phrase or a prefix
+		try {
+			template.bind(ImmutableMap.of("value", 10L));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			QueryTemplate.compile(prefix("title", param("value"))).bind(ImmutableMap.of("value", 10L));
+			fail();
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		assertEquals("( term field= id 10 )",
+				QueryTemplate.compile(eq("id", param("value"))).bind(ImmutableMap.of("value", 10L)));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testBuildWithParameters() {
+		and(eq("category", param("cat"))).build();
+	}
+}
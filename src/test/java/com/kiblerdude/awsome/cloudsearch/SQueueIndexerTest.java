@@ -0,0 +1,198 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.matchall;
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.DocumentServiceException;
+import com.amazonaws.services.cloudsearchdomain.model.Hit;
+import com.amazonaws.services.cloudsearchdomain.model.QueryParser;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.UploadDocumentsRequest;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.MetricNames;
+import com.kiblerdude.awsome.sqs.FakeTicker;
+import com.kiblerdude.awsome.sqs.InMemorySQSClient;
+import com.kiblerdude.awsome.sqs.SQueue;
+
+public class SQueueIndexerTest {
+
+	private static final Function<ExampleEvent, IndexAction<ExampleDocument>> MAPPER = new Function<ExampleEvent, IndexAction<ExampleDocument>>() {
+		@Override
+		public IndexAction<ExampleDocument> apply(ExampleEvent event) {
+			if ("bad".equals(event.id)) {
+				throw new IllegalArgumentException("bad event");
+			}
+			if (event.title == null) {
+				return IndexAction.delete(event.id);
+			}
+			return IndexAction.add(event.id, new ExampleDocument(event.title));
+		}
+	};
+
+	private InMemorySQSClient sqs;
+	private String queueUrl;
+	private SQueue<ExampleEvent> queue;
+	private InMemoryCloudSearchDomainClient cloudsearch;
+	private InMemoryMetrics metrics;
+	private FakeTicker ticker;
+
+	@Before
+	public void setUp() {
+		sqs = new InMemorySQSClient();
+		queueUrl = sqs.createQueue("events").getQueueUrl();
+		metrics = new InMemoryMetrics();
+		queue = SQueue.builder("events", sqs, ExampleEvent.class).metrics(metrics).build();
+		cloudsearch = new InMemoryCloudSearchDomainClient();
+		ticker = new FakeTicker();
+	}
+
+	@Test
+	public void testCoalescing() {
+		push(new ExampleEvent("1", "first"), new ExampleEvent("2", "second"), new ExampleEvent("1", "changed"),
+				new ExampleEvent("2", null), new ExampleEvent("3", "third"));
+		SQueueIndexer<ExampleEvent, ExampleDocument> indexer = indexer().build();
+		for (int i = 0; i < 5; i++) {
+			assertTrue(indexer.poll());
+		}
+		assertEquals(0, cloudsearch.size());
+		assertEquals("5", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+
+		indexer.flush();
+		assertEquals(ImmutableList.of("1:changed", "3:third"), documents());
+		assertEquals(2, metrics.getCount(MetricNames.CLOUDSEARCH_INDEX_COALESCED));
+		assertEquals(5, metrics.getCount(MetricNames.SQS_ACK));
+		assertEquals("0", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+		assertEquals("0", attributes().get("ApproximateNumberOfMessages"));
+	}
+
+	@Test
+	public void testMaxDelay() {
+		push(new ExampleEvent("1", "first"), new ExampleEvent("2", "second"));
+		SQueueIndexer<ExampleEvent, ExampleDocument> indexer = indexer().maxDelay(10, TimeUnit.SECONDS).build();
+		indexer.poll();
+		ticker.advance(9, TimeUnit.SECONDS);
+		assertEquals(0, cloudsearch.size());
+		ticker.advance(1, TimeUnit.SECONDS);
+		indexer.poll();
+		assertEquals(2, cloudsearch.size());
+	}
+
+	@Test
+	public void testMaxBatchBytes() {
+		int actionBytes = IndexAction.add("1", new ExampleDocument("aaaa")).toString().length();
+		push(new ExampleEvent("1", "aaaa"), new ExampleEvent("2", "bbbb"), new ExampleEvent("3", "cccc"));
+		SQueueIndexer<ExampleEvent, ExampleDocument> indexer = indexer().maxBatchBytes(2 * actionBytes + 3)
+				.build();
+		indexer.poll();
+		indexer.poll();
+		assertEquals(0, cloudsearch.size());
+		// the third action does not fit, so the first two are uploaded
+		indexer.poll();
+		assertEquals(ImmutableList.of("1:aaaa", "2:bbbb"), documents());
+		assertEquals("1", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+		indexer.flush();
+		assertEquals(3, cloudsearch.size());
+	}
+
+	@Test
+	public void testMappingError() {
+		push(new ExampleEvent("1", "first"), new ExampleEvent("bad", "event"), new ExampleEvent("2", "second"));
+		SQueueIndexer<ExampleEvent, ExampleDocument> indexer = indexer().build();
+		for (int i = 0; i < 3; i++) {
+			assertTrue(indexer.poll());
+		}
+		indexer.flush();
+		assertEquals(ImmutableList.of("1:first", "2:second"), documents());
+		assertEquals(1, metrics.getCount(MetricNames.CLOUDSEARCH_INDEX_ERRORS));
+		// the message that could not be mapped is left on the queue
+		assertEquals("1", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+	}
+
+	@Test
+	public void testFailedUpload() {
+		AmazonCloudSearchDomainClient failing = mock(AmazonCloudSearchDomainClient.class);
+		doThrow(new DocumentServiceException("unavailable")).when(failing).uploadDocuments(
+				any(UploadDocumentsRequest.class));
+		push(new ExampleEvent("1", "first"), new ExampleEvent("2", "second"));
+		SQueueIndexer<ExampleEvent, ExampleDocument> indexer = SQueueIndexer.builder(queue, failing, MAPPER)
+				.metrics(metrics).build();
+		indexer.poll();
+		indexer.poll();
+		try {
+			indexer.flush();
+			fail();
+		} catch (DocumentServiceException e) {
+			// the messages are left on the queue
+			assertEquals(2, metrics.getCount(MetricNames.CLOUDSEARCH_INDEX_ERRORS));
+			assertEquals("2", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+		}
+	}
+
+	private SQueueIndexer.Builder<ExampleEvent, ExampleDocument> indexer() {
+		return SQueueIndexer.builder(queue, cloudsearch, MAPPER).metrics(metrics).ticker(ticker);
+	}
+
+	private void push(ExampleEvent... events) {
+		for (ExampleEvent event : events) {
+			queue.push(event);
+		}
+	}
+
+	private Map<String, String> attributes() {
+		return sqs.getQueueAttributes(queueUrl, ImmutableList.of("All")).getAttributes();
+	}
+
+	private List<String> documents() {
+		List<String> documents = Lists.newArrayList();
+		SearchRequest request = new SearchRequest().withQueryParser(QueryParser.Structured)
+				.withQuery(matchall().build()).withReturn("title").withSize(100L);
+		for (Hit hit : cloudsearch.search(request).getHits().getHit()) {
+			documents.add(hit.getId() + ":" + hit.getFields().get("title").get(0));
+		}
+		return documents;
+	}
+
+	private static final class ExampleEvent {
+		@JsonProperty("id")
+		private String id;
+		@JsonProperty("title")
+		private String title;
+
+		@SuppressWarnings("unused")
+		public ExampleEvent() {
+		}
+
+		public ExampleEvent(String id, String title) {
+			this.id = id;
+			this.title = title;
+		}
+	}
+
+	private static final class ExampleDocument {
+		@JsonProperty("title")
+		private String title;
+
+		@SuppressWarnings("unused")
+		public ExampleDocument() {
+		}
+
+		public ExampleDocument(String title) {
+			this.title = title;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.QueryParser;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.google.common.collect.Lists;
+
+public class SearchCacheTest {
+
+	@Mock
+	private AmazonCloudSearchDomainClient client;
+
+	private SearchCache cache;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		when(client.search(any(SearchRequest.class))).thenAnswer(new Answer<SearchResult>() {
+			@Override
+			public SearchResult answer(InvocationOnMock invocation) {
+				return new SearchResult();
+			}
+		});
+		cache = new SearchCache(client, 100, 1, TimeUnit.MINUTES);
+	}
+
+	@Test
+	public void testCanonicalKey() {
+		SearchRequest options = new SearchRequest().withSize(10L).withSort("title asc");
+		SearchResult result = cache.search(and(eq("a", "x"), range("b", 1L, 10L)), options);
+		options.setStart(10L);
+		assertSame(result, cache.search(and(range("b", 1L, 10L), eq("a", "x")),
+				new SearchRequest().withSize(10L).withSort("title asc")));
+
+		ArgumentCaptor<SearchRequest> request = ArgumentCaptor.forClass(SearchRequest.class);
+		verify(client, times(1)).search(request.capture());
+		assertEquals(QueryParser.Structured.toString(), request.getValue().getQueryParser());
+		assertEquals("( and ( term field= a 'x' ) ( range field= b { 1 , 10 } ) )", request.getValue().getQuery());
+		assertNull(request.getValue().getStart());
+
+		assertNotSame(result, cache.search(and(eq("a", "x"), range("b", 1L, 10L)), options));
+		verify(client, times(2)).search(any(SearchRequest.class));
+		assertEquals(1, cache.stats().hitCount());
+	}
+
+	@Test
+	public void testFailureNotCached() {
+		doThrow(new AmazonServiceException("failed")).when(client).search(any(SearchRequest.class));
+		try {
+			cache.search(eq("a", "x"));
+			fail();
+		} catch (AmazonServiceException e) {
+			// expected
+		}
+		doReturn(new SearchResult()).when(client).search(any(SearchRequest.class));
+		assertNotNull(cache.search(eq("a", "x")));
+		verify(client, times(2)).search(any(SearchRequest.class));
+	}
+
+	@Test
+	public void testConcurrentSearchesCollapsed() throws Exception {
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		doAnswer(new Answer<SearchResult>() {
+			@Override
+			public SearchResult answer(InvocationOnMock invocation) throws InterruptedException {
+				started.countDown();
+				release.await();
+				return new SearchResult();
+			}
+		}).when(client).search(any(SearchRequest.class));
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<SearchResult>> results = Lists.newArrayList();
+			for (int i = 0; i < 4; i++) {
+				results.add(executor.submit(new Callable<SearchResult>() {
+					@Override
+					public SearchResult call() {
+						return cache.search(eq("a", "x"));
+					}
+				}));
+			}
+			started.await();
+			Thread.sleep(100);
+			release.countDown();
+			for (Future<SearchResult> result : results) {
+				assertSame(results.get(0).get(), result.get());
+			}
+			verify(client, times(1)).search(any(SearchRequest.class));
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
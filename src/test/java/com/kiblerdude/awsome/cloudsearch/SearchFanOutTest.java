@@ -0,0 +1,108 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.amazonaws.AmazonClientException;
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.cloudsearchdomain.AmazonCloudSearchDomainClient;
+import com.amazonaws.services.cloudsearchdomain.model.Hit;
+import com.amazonaws.services.cloudsearchdomain.model.Hits;
+import com.amazonaws.services.cloudsearchdomain.model.SearchRequest;
+import com.amazonaws.services.cloudsearchdomain.model.SearchResult;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.MetricNames;
+
+public class SearchFanOutTest {
+
+	@Mock
+	private AmazonCloudSearchDomainClient client;
+
+	private InMemoryMetrics metrics;
+	private SearchFanOut<ExampleDocument> fanOut;
+
+	@Before
+	public void setUp() {
+		MockitoAnnotations.initMocks(this);
+		// the value of the query is the ids of the hits, "fail" fails and
+		// "slow" does not complete in time
+		when(client.search(any(SearchRequest.class))).thenAnswer(new Answer<SearchResult>() {
+			@Override
+			public SearchResult answer(InvocationOnMock invocation) {
+				String query = ((SearchRequest) invocation.getArguments()[0]).getQuery();
+				if (query.contains("fail")) {
+					throw new AmazonServiceException("failed");
+				}
+				if (query.contains("slow")) {
+					try {
+						Thread.sleep(10000);
+					} catch (InterruptedException e) {
+						// as the SDK does, abort and keep the interrupt
+						Thread.currentThread().interrupt();
+						throw new AmazonClientException("aborted", e);
+					}
+				}
+				String ids = query.substring(query.indexOf('\'') + 1, query.lastIndexOf('\''));
+				Hits hits = new Hits().withFound(2L);
+				for (String id : ids.split(",")) {
+					hits.withHit(new Hit().withId(id).withFields(
+							ImmutableMap.<String, List<String>> of("s", ImmutableList.of("doc " + id))));
+				}
+				return new SearchResult().withHits(hits);
+			}
+		});
+		metrics = new InMemoryMetrics();
+		fanOut = new SearchFanOut<>(client, ExampleDocument.class, 4, metrics);
+	}
+
+	@After
+	public void tearDown() {
+		fanOut.close();
+	}
+
+	@Test
+	public void testPartialResults() throws InterruptedException {
+		long start = System.nanoTime();
+		List<Optional<SearchPage<ExampleDocument>>> pages = fanOut.search(
+				ImmutableList.of(eq("s", "id.1,id.2"), eq("s", "fail"), eq("s", "slow"), eq("s", "id.2,id.3")),
+				new SearchRequest().withSize(10L), 500, TimeUnit.MILLISECONDS);
+		assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+
+		assertEquals(4, pages.size());
+		assertTrue(pages.get(0).isPresent());
+		assertFalse(pages.get(1).isPresent());
+		assertFalse(pages.get(2).isPresent());
+		assertTrue(pages.get(3).isPresent());
+		assertEquals(1L, metrics.getCount(MetricNames.CLOUDSEARCH_SEARCH_ERRORS));
+		assertEquals(1L, metrics.getCount(MetricNames.CLOUDSEARCH_SEARCH_TIMEOUTS));
+		assertEquals(2L, pages.get(0).get().getFound());
+		assertEquals("doc id.1", pages.get(0).get().getHits().get(0).getDocument().strValue);
+
+		List<SearchHit<ExampleDocument>> hits = SearchFanOut.merge(pages);
+		assertEquals(3, hits.size());
+		assertEquals("id.1", hits.get(0).getId());
+		assertEquals("id.2", hits.get(1).getId());
+		assertEquals("id.3", hits.get(2).getId());
+	}
+
+	private static final class ExampleDocument {
+		@JsonProperty(value = "s")
+		private String strValue;
+	}
+}
@@ -9,8 +9,12 @@ import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
 import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.prefix;
 import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
+import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.Random;
+import java.util.TimeZone;
 
 import org.junit.Test;
 
@@ -51,6 +55,18 @@ public class StructureQueryBuilderTest {
 		assertEquals("( range field= field1 { '1970-01-01T00:00:00Z' , '1970-01-01T00:00:01Z' } )", range4.toString());	
 	}
 	
+	@Test
+	public void testEscape() {
+		String eq1 = eq("field1", "it's a \\ test").toString();
+		assertEquals("( term field= field1 'it\\'s a \\\\ test' )", eq1.toString());
+	}
+	
+	@Test
+	public void testRangeSameBounds() {
+		String range1 = range("field1", "abc", "abc").toString();
+		assertEquals("( range field= field1 { 'abc' , 'abc' } )", range1.toString());
+	}
+	
 	@Test
 	public void testPrefix() {
 		String prefix1 = prefix("field1", "pre").toString();
@@ -80,4 +96,49 @@ public class StructureQueryBuilderTest {
 		String compound1 = and(eq("field1", "value1"), not(eq("field2", "value2"))).toString();
 		assertEquals("( and ( term field= field1 'value1' ) ( not ( term field= field2 'value2' ) ) )", compound1.toString());
 	}
+	
+	@Test
+	public void testRenderedOnce() {
+		StructuredQueryBuilder nested = or(eq("field2", 10L), eq("field3", 20.0));
+		String nestedQuery = nested.toString();
+		StructuredQueryBuilder query = and(eq("field1", "value1"), nested);
+		assertSame(query.toString(), query.toString());
+		assertEquals("( and ( term field= field1 'value1' ) " + nestedQuery + " )", query.build());
+	}
+
+	@Test
+	public void testPrimitives() {
+		assertEquals("( term field= field1 10 )", eq("field1", 10).build());
+		assertEquals("( term field= field1 -2.5 )", eq("field1", -2.5).build());
+		assertEquals("( range field= field1 { 1 , 2 } )", range("field1", 1, 2).build());
+		assertEquals("( range field= field1 { 1.0 , 2.5 } )", range("field1", 1, 2.5).build());
+		assertEquals(eq("field1", Long.valueOf(10L)), eq("field1", 10L));
+	}
+
+	@Test
+	public void testDoubles() {
+		double[] values = { 0.0, -0.0, 1.0, -1.0, 20.0, 0.1, 9999999.0, 1e7, 1e21, -123456.0, Double.NaN,
+				Double.POSITIVE_INFINITY, Double.MIN_VALUE };
+		for (double value : values) {
+			assertEquals("( term field= f " + Double.toString(value) + " )", eq("f", value).build());
+		}
+	}
+
+	@Test
+	public void testDates() {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		Random random = new Random(42);
+		long[] dates = new long[1000];
+		dates[0] = -1L;
+		dates[1] = 951782400000L; // 2000-02-29
+		dates[2] = 253402300799999L; // 9999-12-31T23:59:59
+		dates[3] = -2208988800000L; // 1900-01-01
+		for (int i = 4; i < dates.length; i++) {
+			dates[i] = (long) ((random.nextDouble() - 0.3) * 8e12);
+		}
+		for (long date : dates) {
+			assertEquals("( term field= f '" + format.format(new Date(date)) + "' )", eq("f", new Date(date)).build());
+		}
+	}
 }
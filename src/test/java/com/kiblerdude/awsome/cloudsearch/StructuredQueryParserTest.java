@@ -0,0 +1,72 @@
+package com.kiblerdude.awsome.cloudsearch;
+
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.and;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.eq;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.matchall;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.near;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.not;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.or;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.phrase;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.prefix;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryBuilder.range;
+import static com.kiblerdude.awsome.cloudsearch.StructuredQueryParser.parse;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class StructuredQueryParserTest {
+
+	@Test
+	public void testRoundTrip() {
+		StructuredQueryBuilder query = and(or(eq("a", "it's"), eq("a", 10L), eq("b", -2.5)),
+				not(phrase("c", "back\\slash")), prefix("d", "pre"), range("e", 1L, 100L),
+				range("f", "abc", "def"), near("g", "star wars", 3), matchall());
+		assertEquals(query, parse(query.build()));
+		assertEquals(query.build(), parse(query.build()).build());
+	}
+
+	@Test
+	public void testCloudsearchSyntax() {
+		StructuredQueryBuilder query = parse("(and title:'star' (term field=year 1977)"
+				+ " (or genres:'Sci-Fi' (phrase field=plot 'death star')) (near field=plot distance=2 'rebel base'))");
+		assertEquals(and(eq("title", "star"), eq("year", 1977L), or(eq("genres", "Sci-Fi"), phrase("plot", "death star")),
+				near("plot", "rebel base", 2)), query);
+		assertEquals("( near field= plot distance= 2 'rebel base' )", near("plot", "rebel base", 2).build());
+	}
+
+	@Test
+	public void testRanges() {
+		assertEquals("( range field= year [ 1977 , } )", parse("(range field=year [1977,})").build());
+		assertEquals("( range field= year { , 1983 ] )", parse("year:{,1983]").build());
+		assertEquals("( range field= price [ 1.5 , 2000.0 ] )", parse("(range field=price [1.5, 2e3])").build());
+	}
+
+	@Test
+	public void testDefaultField() {
+		assertEquals("( term 'star' )", parse("'star'").build());
+		assertEquals("( phrase 'star wars' )", parse("(phrase 'star wars')").build());
+	}
+
+	@Test
+	public void testOptimizeParsed() {
+		assertEquals("( range field= year [ 1977 , 1980 } )",
+				QueryOptimizer.optimize(parse("(and (range field=year [1977,}) (range field=year {1970,1980}))")).build());
+		assertEquals("( range field= year [ 1970 , 1990 } )",
+				QueryOptimizer.optimize(parse("(or (range field=year [1970,1980]) (range field=year {1980,1990}))")).build());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testBoostUnsupported() {
+		parse("(term field=title boost=2 'star')");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnterminated() {
+		parse("(and title:'star'");
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTrailingInput() {
+		parse("title:'star' title:'wars'");
+	}
+}
@@ -44,6 +44,19 @@ public class UploadDocumentsBuilderTest {
 		assertEquals(BATCH_JSON, requestJson);
 	}
 	
+	@Test
+	public void testContentLength() throws IOException {
+		ExampleDocument doc1 = new ExampleDocument("caf\u00e9", 10, 20.0, Arrays.asList("\u00fcber"));
+		
+		UploadDocumentsBuilder<ExampleDocument> builder = new UploadDocumentsBuilder<>(ExampleDocument.class);
+		builder.add("id.1", doc1);
+		UploadDocumentsRequest request = builder.build();
+		byte[] requestJson = IOUtils.toByteArray(request.getDocuments());
+		assertEquals(requestJson.length, request.getContentLength().longValue());
+		assertEquals(new UploadActionBatch<>(Arrays.asList(new UploadAction<>("id.1", doc1))).toString(),
+				new String(requestJson, "UTF-8"));
+	}
+	
 	@JsonSerialize
 	@SuppressWarnings("unused")
 	private static final class ExampleDocument {
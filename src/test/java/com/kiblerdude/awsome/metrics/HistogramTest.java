@@ -0,0 +1,54 @@
+package com.kiblerdude.awsome.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+	@Test
+	public void testBuckets() {
+		// every value falls in a bucket whose range holds it, and the buckets
+		// are contiguous
+		long[] values = { 0L, 1L, 63L, 64L, 65L, 127L, 128L, 1000L, 123456789L, Long.MAX_VALUE / 3,
+				Long.MAX_VALUE };
+		for (long value : values) {
+			int index = Histogram.index(value);
+			assertTrue(value <= Histogram.highestValue(index));
+			assertTrue(index == 0 || value > Histogram.highestValue(index - 1));
+		}
+		for (int index = 1; Histogram.highestValue(index) > 0 && index < 1888; index++) {
+			assertEquals(Histogram.highestValue(index - 1) + 1, lowestValue(index));
+		}
+		assertEquals(1887, Histogram.index(Long.MAX_VALUE));
+		assertEquals(Long.MAX_VALUE, Histogram.highestValue(1887));
+	}
+
+	private static long lowestValue(int index) {
+		long low = Histogram.highestValue(index - 1) + 1;
+		assertEquals(index, Histogram.index(low));
+		return low;
+	}
+
+	@Test
+	public void testPercentiles() {
+		Histogram histogram = new Histogram();
+		assertEquals(0L, histogram.getValueAtPercentile(99.0));
+		for (long value = 1; value <= 10000; value++) {
+			histogram.record(value * 1000);
+		}
+		histogram.record(-5L);
+		assertEquals(10001L, histogram.getCount());
+		assertEquals(10000000L, histogram.getMax());
+		assertEquals(0L, histogram.getValueAtPercentile(0.0));
+		assertEquals(10000000L, histogram.getValueAtPercentile(100.0));
+		assertEquals(5000000.0, histogram.getValueAtPercentile(50.0), 5000000 * 0.035);
+		assertEquals(9900000.0, histogram.getValueAtPercentile(99.0), 9900000 * 0.035);
+		assertEquals(50005000000L / 10001.0, histogram.getMean(), 0.001);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPercentile() {
+		new Histogram().getValueAtPercentile(101.0);
+	}
+}
@@ -0,0 +1,48 @@
+package com.kiblerdude.awsome.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class InMemoryMetricsTest {
+
+	@Test
+	public void testConcurrentRecording() throws Exception {
+		final InMemoryMetrics metrics = new InMemoryMetrics();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = 0; i < 10000; i++) {
+							metrics.count("count", 1L);
+							metrics.record("time", i);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		assertEquals(40000L, metrics.getCount("count"));
+		assertEquals(40000L, metrics.getHistogram("time").get().getCount());
+		assertEquals(9999L, metrics.getHistogram("time").get().getMax());
+		assertEquals(0L, metrics.getCount("missing"));
+		assertFalse(metrics.getHistogram("missing").isPresent());
+		assertEquals(Long.valueOf(40000L), metrics.getCounts().get("count"));
+		assertTrue(metrics.getHistograms().containsKey("time"));
+	}
+}
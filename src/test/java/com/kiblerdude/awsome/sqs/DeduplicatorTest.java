@@ -0,0 +1,85 @@
+package com.kiblerdude.awsome.sqs;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+
+public class DeduplicatorTest {
+
+    private FakeTicker ticker;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+    }
+
+    @Test
+    public void testLruWindow() {
+        testWindow(new LruDeduplicator(100, 60, TimeUnit.SECONDS, ticker));
+    }
+
+    @Test
+    public void testBloomWindow() {
+        testWindow(new BloomDeduplicator(100, 0.001, 60, TimeUnit.SECONDS, ticker));
+    }
+
+    @Test
+    public void testLruCapacity() {
+        testCapacity(new LruDeduplicator(100, 60, TimeUnit.SECONDS, ticker));
+    }
+
+    @Test
+    public void testBloomCapacity() {
+        testCapacity(new BloomDeduplicator(100, 0.001, 60, TimeUnit.SECONDS, ticker));
+    }
+
+    @Test
+    public void testLruExact() {
+        Deduplicator deduplicator = new LruDeduplicator(10000, 60, TimeUnit.SECONDS, ticker);
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(deduplicator.contains("id." + i));
+            deduplicator.add("id." + i);
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(deduplicator.contains("id." + i));
+        }
+    }
+
+    private void testWindow(Deduplicator deduplicator) {
+        deduplicator.add("a");
+        assertTrue(deduplicator.contains("a"));
+        assertFalse(deduplicator.contains("b"));
+
+        // remembered for at least the window
+        ticker.advance(59, TimeUnit.SECONDS);
+        deduplicator.add("b");
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertTrue(deduplicator.contains("b"));
+        ticker.advance(59, TimeUnit.SECONDS);
+        assertTrue(deduplicator.contains("b"));
+
+        // and forgotten after twice the window
+        ticker.advance(121, TimeUnit.SECONDS);
+        assertFalse(deduplicator.contains("a"));
+        assertFalse(deduplicator.contains("b"));
+    }
+
+    private void testCapacity(Deduplicator deduplicator) {
+        deduplicator.add("first");
+        deduplicator.add("kept");
+        for (int i = 0; i < 150; i++) {
+            deduplicator.add("id." + i);
+            // a key that keeps arriving is copied into the current generation
+            assertTrue(deduplicator.contains("kept"));
+        }
+        assertTrue(deduplicator.contains("id.149"));
+        for (int i = 0; i < 100; i++) {
+            deduplicator.add("more." + i);
+        }
+        assertFalse(deduplicator.contains("first"));
+    }
+}
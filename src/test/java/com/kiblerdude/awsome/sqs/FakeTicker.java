@@ -0,0 +1,36 @@
+package com.kiblerdude.awsome.sqs;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Ticker;
+
+/**
+ * A {@link Ticker} for tests, which only moves when advanced.
+ *
+ * @author kiblerj
+ */
+public final class FakeTicker extends Ticker {
+    private final AtomicLong nanos = new AtomicLong();
+
+    @Override
+    public long read() {
+        return nanos.get();
+    }
+
+    public void advance(long time, TimeUnit unit) {
+        nanos.addAndGet(unit.toNanos(time));
+    }
+
+    /**
+     * Returns a wall clock reading <code>started</code> at the origin of this ticker.
+     */
+    public Clock clock(final long started) {
+        return new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return started + TimeUnit.NANOSECONDS.toMillis(read());
+            }
+        };
+    }
+}
@@ -0,0 +1,234 @@
+package com.kiblerdude.awsome.sqs;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.model.BatchEntryIdsNotDistinctException;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageRequest;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+
+public class InMemorySQSClientTest {
+
+    private FakeTicker ticker;
+    private InMemorySQSClient client;
+    private String url;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        client = InMemorySQSClient.builder().ticker(ticker).build();
+        url = client.createQueue("queue").getQueueUrl();
+    }
+
+    @Test
+    public void testVisibility() {
+        client.sendMessage(url, "one");
+        client.sendMessage(url, "two");
+        List<Message> first = receive(url, 10);
+        assertEquals(2, first.size());
+        assertEquals("one", first.get(0).getBody());
+        assertEquals("1", first.get(0).getAttributes().get("ApproximateReceiveCount"));
+        assertEquals("2", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+        assertTrue(receive(url, 10).isEmpty());
+
+        // not deleted within the visibility timeout, so delivered again
+        ticker.advance(31, TimeUnit.SECONDS);
+        assertEquals("2", attributes().get("ApproximateNumberOfMessages"));
+        List<Message> second = receive(url, 10);
+        assertEquals(2, second.size());
+        assertEquals("2", second.get(0).getAttributes().get("ApproximateReceiveCount"));
+
+        // the handle of the first delivery is stale
+        client.deleteMessage(url, first.get(0).getReceiptHandle());
+        assertEquals("2", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+        client.deleteMessage(url, second.get(0).getReceiptHandle());
+        client.changeMessageVisibility(url, second.get(1).getReceiptHandle(), 0);
+        assertEquals("1", attributes().get("ApproximateNumberOfMessages"));
+        assertEquals("0", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+        assertEquals("two", receive(url, 10).get(0).getBody());
+    }
+
+    @Test
+    public void testUnchangedVisibility() {
+        client.sendMessage(url, "one");
+        Message received = receive(url, 1).get(0);
+        // the same time again, so only the latest entry may make it visible
+        client.changeMessageVisibility(url, received.getReceiptHandle(), 30);
+        ticker.advance(31, TimeUnit.SECONDS);
+        assertEquals("1", attributes().get("ApproximateNumberOfMessages"));
+        assertEquals("0", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+        assertEquals(1, receive(url, 10).size());
+        assertEquals("1", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+    }
+
+    @Test
+    public void testDelay() {
+        client.sendMessage(new SendMessageRequest(url, "later").withDelaySeconds(60));
+        assertEquals("1", attributes().get("ApproximateNumberOfMessagesDelayed"));
+        assertTrue(receive(url, 1).isEmpty());
+        ticker.advance(60, TimeUnit.SECONDS);
+        assertEquals("later", receive(url, 1).get(0).getBody());
+        assertEquals("0", attributes().get("ApproximateNumberOfMessagesDelayed"));
+    }
+
+    @Test
+    public void testFifoGroups() {
+        String fifo = client.createQueue("jobs.fifo").getQueueUrl();
+        send(fifo, "a1", "a");
+        send(fifo, "a2", "a");
+        send(fifo, "b1", "b");
+        Message a1 = receive(fifo, 1).get(0);
+        assertEquals("a1", a1.getBody());
+        assertEquals("a", a1.getMessageAttributes().get(InMemorySQSClient.MESSAGE_GROUP_ID).getStringValue());
+        // group a is blocked while a1 is in flight
+        assertEquals("b1", receive(fifo, 1).get(0).getBody());
+        assertTrue(receive(fifo, 10).isEmpty());
+        client.deleteMessage(fifo, a1.getReceiptHandle());
+        assertEquals("a2", receive(fifo, 10).get(0).getBody());
+
+        try {
+            client.sendMessage(fifo, "no group");
+            fail();
+        } catch (AmazonServiceException e) {
+            assertEquals("MissingParameter", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testBatches() {
+        SendMessageBatchResult sent = client.sendMessageBatch(url, ImmutableList.of(
+                new SendMessageBatchRequestEntry("1", "one"), new SendMessageBatchRequestEntry("2", ""),
+                new SendMessageBatchRequestEntry("3", "three")));
+        assertEquals(2, sent.getSuccessful().size());
+        assertEquals("2", sent.getFailed().get(0).getId());
+
+        List<Message> received = receive(url, 10);
+        DeleteMessageBatchResult deleted = client.deleteMessageBatch(url, ImmutableList.of(
+                new DeleteMessageBatchRequestEntry("a", received.get(0).getReceiptHandle()),
+                new DeleteMessageBatchRequestEntry("b", received.get(1).getReceiptHandle()),
+                new DeleteMessageBatchRequestEntry("c", "invalid")));
+        assertEquals(2, deleted.getSuccessful().size());
+        assertEquals("c", deleted.getFailed().get(0).getId());
+        assertEquals("0", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+
+        try {
+            client.sendMessageBatch(url, ImmutableList.of(new SendMessageBatchRequestEntry("1", "one"),
+                    new SendMessageBatchRequestEntry("1", "two")));
+            fail();
+        } catch (BatchEntryIdsNotDistinctException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLongPoll() throws Exception {
+        final InMemorySQSClient realTime = new InMemorySQSClient();
+        final String queue = realTime.createQueue("queue").getQueueUrl();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<List<Message>> received = executor.submit(new Callable<List<Message>>() {
+                @Override
+                public List<Message> call() {
+                    return realTime.receiveMessage(new ReceiveMessageRequest(queue).withWaitTimeSeconds(10))
+                            .getMessages();
+                }
+            });
+            Thread.sleep(100);
+            realTime.sendMessage(queue, "hello");
+            assertEquals("hello", received.get(5, TimeUnit.SECONDS).get(0).getBody());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThrottling() {
+        InMemorySQSClient throttled = InMemorySQSClient.builder().maxRequestsPerSecond(1).build();
+        throttled.createQueue("queue");
+        try {
+            throttled.getQueueUrl("queue");
+            fail();
+        } catch (AmazonServiceException e) {
+            assertEquals("RequestThrottled", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testUnsupported() {
+        // the operations of the real client that the stand-in lacks never reach AWS
+        try {
+            client.deleteQueue(url);
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("InMemorySQSClient does not support deleteQueue", e.getMessage());
+        }
+        try {
+            client.listQueues();
+            fail();
+        } catch (UnsupportedOperationException e) {
+            assertEquals("InMemorySQSClient does not support listQueues", e.getMessage());
+        }
+    }
+
+    @Test(expected = QueueDoesNotExistException.class)
+    public void testMissingQueue() {
+        client.getQueueUrl("missing");
+    }
+
+    @Test
+    public void testSQueue() throws Exception {
+        SQueue<ExampleMessage> queue = new SQueue<>("queue", client, ExampleMessage.class);
+        assertTrue(queue.isEmpty());
+        assertTrue(queue.push(new ExampleMessage("test")).isPresent());
+        assertEquals(1, queue.size());
+        assertEquals("test", queue.pop().get().strValue);
+        assertFalse(queue.pop().isPresent());
+    }
+
+    private List<Message> receive(String queue, int max) {
+        return client.receiveMessage(new ReceiveMessageRequest(queue).withMaxNumberOfMessages(max)
+                .withAttributeNames("All").withMessageAttributeNames("All")).getMessages();
+    }
+
+    private void send(String queue, String body, String group) {
+        client.sendMessage(new SendMessageRequest(queue, body).addMessageAttributesEntry(
+                InMemorySQSClient.MESSAGE_GROUP_ID, new MessageAttributeValue().withDataType("String")
+                        .withStringValue(group)));
+    }
+
+    private Map<String, String> attributes() {
+        return client.getQueueAttributes(url, ImmutableList.of("All")).getAttributes();
+    }
+
+    @JsonSerialize
+    private static final class ExampleMessage {
+        @JsonProperty(value="s")
+        private String strValue;
+        @SuppressWarnings("unused")
+        public ExampleMessage() {}
+        public ExampleMessage(String strValue) {
+            this.strValue = strValue;
+        }
+    }
+}
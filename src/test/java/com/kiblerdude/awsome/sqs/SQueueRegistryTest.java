@@ -0,0 +1,103 @@
+package com.kiblerdude.awsome.sqs;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.amazonaws.services.sqs.model.QueueDoesNotExistException;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.MetricNames;
+
+public class SQueueRegistryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private InMemorySQSClient client;
+    private File cacheFile;
+
+    @Before
+    public void setUp() {
+        client = new InMemorySQSClient();
+        client.createQueue("a");
+        client.createQueue("b");
+        client.createQueue("c");
+        cacheFile = new File(folder.getRoot(), "queues.properties");
+    }
+
+    @Test
+    public void testResolve() throws Exception {
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (SQueueRegistry registry = SQueueRegistry.builder(client).cacheFile(cacheFile).parallelism(2)
+                .metrics(metrics).build()) {
+            Map<String, String> urls = registry.resolve(ImmutableList.of("a", "b", "c", "a"));
+            assertEquals(ImmutableList.of("a", "b", "c"), ImmutableList.copyOf(urls.keySet()));
+            assertEquals(client.getQueueUrl("b").getQueueUrl(), urls.get("b"));
+            assertEquals(3, metrics.getCount(MetricNames.SQS_RESOLVE));
+
+            SQueue<ExampleMessage> queue = registry.queue("a", ExampleMessage.class);
+            assertSame(queue, registry.queue("a", ExampleMessage.class));
+            assertEquals(urls.get("a"), queue.getQueueUrl());
+            assertEquals(3, metrics.getCount(MetricNames.SQS_RESOLVE));
+            queue.push(new ExampleMessage("test"));
+            assertEquals("test", queue.pop().get().strValue);
+        }
+        assertTrue(cacheFile.exists());
+    }
+
+    @Test
+    public void testCacheFile() throws Exception {
+        try (SQueueRegistry registry = SQueueRegistry.builder(client).cacheFile(cacheFile).build()) {
+            registry.resolve(ImmutableList.of("a", "b"));
+        }
+
+        // the next registry opens its queues from the cache file alone, even where queue a is gone
+        InMemorySQSClient restarted = new InMemorySQSClient();
+        restarted.createQueue("c");
+        InMemoryMetrics metrics = new InMemoryMetrics();
+        try (SQueueRegistry registry = SQueueRegistry.builder(restarted).cacheFile(cacheFile).metrics(metrics)
+                .build()) {
+            registry.queue("b", ExampleMessage.class);
+            registry.resolve(ImmutableList.of("a", "c"));
+            assertEquals(1, metrics.getCount(MetricNames.SQS_RESOLVE));
+            assertEquals(2, metrics.getCount(MetricNames.SQS_RESOLVE_CACHED));
+            assertEquals(client.getQueueUrl("a").getQueueUrl(), registry.resolve(ImmutableList.of("a")).get("a"));
+
+            registry.invalidate("a");
+            try {
+                registry.resolve(ImmutableList.of("a"));
+                fail();
+            } catch (QueueDoesNotExistException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMessageClassMismatch() throws Exception {
+        try (SQueueRegistry registry = new SQueueRegistry(client)) {
+            registry.queue("a", ExampleMessage.class);
+            registry.queue("a", String.class);
+        }
+    }
+
+    @JsonSerialize
+    private static final class ExampleMessage {
+        @JsonProperty(value="s")
+        private String strValue;
+        @SuppressWarnings("unused")
+        public ExampleMessage() {}
+        public ExampleMessage(String strValue) {
+            this.strValue = strValue;
+        }
+    }
+}
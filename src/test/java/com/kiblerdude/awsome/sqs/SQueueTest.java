@@ -2,27 +2,44 @@ package com.kiblerdude.awsome.sqs;
 
 import static org.junit.Assert.*;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import static org.mockito.Mockito.*;
 
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
 import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.BatchResultErrorEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResult;
+import com.amazonaws.services.sqs.model.DeleteMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.GetQueueAttributesResult;
 import com.amazonaws.services.sqs.model.GetQueueUrlResult;
 import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.MessageAttributeValue;
 import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
 import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchRequestEntry;
+import com.amazonaws.services.sqs.model.SendMessageBatchResult;
+import com.amazonaws.services.sqs.model.SendMessageBatchResultEntry;
 import com.amazonaws.services.sqs.model.SendMessageRequest;
 import com.amazonaws.services.sqs.model.SendMessageResult;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.MetricNames;
 
 
 public class SQueueTest {
@@ -30,6 +47,10 @@ public class SQueueTest {
     @Mock
     private AmazonSQSClient client;
     private SQueue<ExampleMessage> instance;
+    // an in-memory queue, for the tests that need SQS to keep state
+    private FakeTicker ticker;
+    private InMemorySQSClient sqs;
+    private String sqsUrl;
     
     @SuppressWarnings("unchecked")
     @Before
@@ -50,6 +71,10 @@ public class SQueueTest {
         when(client.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(new ReceiveMessageResult().withMessages(message));      
         
         instance = new SQueue<>("queue", client, ExampleMessage.class);
+        
+        ticker = new FakeTicker();
+        sqs = InMemorySQSClient.builder().ticker(ticker).build();
+        sqsUrl = sqs.createQueue("queue").getQueueUrl();
     }
 	
 	@Test
@@ -60,6 +85,244 @@ public class SQueueTest {
 	    assertTrue(instance.pop().isPresent());
 	}
 	
+	@Test
+	public void testMetrics() throws Exception {
+	    InMemoryMetrics metrics = new InMemoryMetrics();
+	    SQueue<ExampleMessage> queue = SQueue.builder("queue", client, ExampleMessage.class).metrics(metrics).build();
+	    assertTrue(queue.push(new ExampleMessage("test")).isPresent());
+	    assertTrue(queue.pop().isPresent());
+	    doReturn(new ReceiveMessageResult()).when(client).receiveMessage(any(ReceiveMessageRequest.class));
+	    assertFalse(queue.pop().isPresent());
+	    
+	    assertEquals(1L, metrics.getCount(MetricNames.SQS_SEND));
+	    assertEquals(12L, metrics.getHistogram(MetricNames.SQS_SEND_LENGTH).get().getMax());
+	    assertEquals(2L, metrics.getCount(MetricNames.SQS_RECEIVE));
+	    assertEquals(1L, metrics.getCount(MetricNames.SQS_RECEIVE_EMPTY));
+	    assertEquals(1L, metrics.getCount(MetricNames.SQS_POP));
+	    assertEquals(2L, metrics.getHistogram(MetricNames.SQS_RECEIVE_TIME).get().getCount());
+	    assertEquals(1L, metrics.getHistogram(MetricNames.SQS_BUFFER_DEPTH).get().getMax());
+	    assertEquals(12L, metrics.getHistogram(MetricNames.SQS_BUFFER_BYTES).get().getMax());
+	    assertEquals(1L, metrics.getHistogram(MetricNames.SQS_DESERIALIZE_TIME).get().getCount());
+	}
+	
+	@Test
+	public void testByteBoundedReceive() throws Exception {
+	    SQueue<ExampleMessage> queue = SQueue.builder("queue", client, ExampleMessage.class).maxBufferBytes(100).build();
+	    // the size of the messages is unknown, so the first receive asks for one message
+	    assertTrue(queue.pop().isPresent());
+	    // 8 messages of 12 bytes fit in 100 bytes
+	    assertTrue(queue.pop().isPresent());
+	    
+	    ArgumentCaptor<ReceiveMessageRequest> requests = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+	    verify(client, times(2)).receiveMessage(requests.capture());
+	    assertEquals(Integer.valueOf(1), requests.getAllValues().get(0).getMaxNumberOfMessages());
+	    assertEquals(Integer.valueOf(8), requests.getAllValues().get(1).getMaxNumberOfMessages());
+	}
+	
+	@Test
+	public void testDelayedPush() throws Exception {
+	    Clock clock = new FakeTicker().clock(TimeUnit.HOURS.toMillis(10));
+	    SQueue<ExampleMessage> queue = SQueue.builder("queue", client, ExampleMessage.class).clock(clock).build();
+	    assertTrue(queue.pushAfter(new ExampleMessage("test"), 1500, TimeUnit.MILLISECONDS).isPresent());
+	    assertTrue(queue.pushAfter(new ExampleMessage("test"), 2, TimeUnit.HOURS).isPresent());
+	    assertTrue(queue.pushAt(new ExampleMessage("test"), new Date(TimeUnit.HOURS.toMillis(9))).isPresent());
+	    
+	    ArgumentCaptor<SendMessageRequest> requests = ArgumentCaptor.forClass(SendMessageRequest.class);
+	    verify(client, times(3)).sendMessage(requests.capture());
+	    // rounded up to whole seconds
+	    assertEquals(Integer.valueOf(2), requests.getAllValues().get(0).getDelaySeconds());
+	    Map<String, MessageAttributeValue> attributes = requests.getAllValues().get(0).getMessageAttributes();
+	    assertTrue(attributes == null || attributes.isEmpty());
+	    assertEquals(Integer.valueOf(900), requests.getAllValues().get(1).getDelaySeconds());
+	    assertEquals(Long.toString(TimeUnit.HOURS.toMillis(12)), requests.getAllValues().get(1)
+	            .getMessageAttributes().get("awsome.deliverAt").getStringValue());
+	    // a time in the past is not delayed
+	    assertNull(requests.getAllValues().get(2).getDelaySeconds());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDelayOverflow() {
+	    instance.pushAfter(new ExampleMessage("test"), Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+	
+	@Test
+	public void testFarDeliveryTimes() {
+	    assertTrue(instance.pushAt(new ExampleMessage("past"), new Date(Long.MIN_VALUE)).isPresent());
+	    assertTrue(instance.pushAt(new ExampleMessage("future"), new Date(Long.MAX_VALUE)).isPresent());
+	    
+	    ArgumentCaptor<SendMessageRequest> requests = ArgumentCaptor.forClass(SendMessageRequest.class);
+	    verify(client, times(2)).sendMessage(requests.capture());
+	    // the distant past is delivered at once
+	    assertNull(requests.getAllValues().get(0).getDelaySeconds());
+	    Map<String, MessageAttributeValue> attributes = requests.getAllValues().get(0).getMessageAttributes();
+	    assertTrue(attributes == null || attributes.isEmpty());
+	    assertEquals(Integer.valueOf(900), requests.getAllValues().get(1).getDelaySeconds());
+	    assertEquals(Long.toString(Long.MAX_VALUE), requests.getAllValues().get(1)
+	            .getMessageAttributes().get("awsome.deliverAt").getStringValue());
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testDelayHops() throws Exception {
+	    InMemoryMetrics metrics = new InMemoryMetrics();
+	    Clock clock = new FakeTicker().clock(TimeUnit.HOURS.toMillis(10));
+	    SQueue<ExampleMessage> queue = SQueue.builder("queue", client, ExampleMessage.class).metrics(metrics)
+	            .clock(clock).build();
+	    MessageAttributeValue deliverAt = new MessageAttributeValue().withDataType("Number")
+	            .withStringValue(Long.toString(TimeUnit.HOURS.toMillis(11)));
+	    doReturn(new ReceiveMessageResult().withMessages(
+	            new Message().withBody("{\"s\":\"a\"}").withReceiptHandle("a")
+	                    .addMessageAttributesEntry("awsome.deliverAt", deliverAt),
+	            new Message().withBody("{\"s\":\"b\"}").withReceiptHandle("b")
+	                    .addMessageAttributesEntry("awsome.deliverAt", deliverAt)))
+	            .when(client).receiveMessage(any(ReceiveMessageRequest.class));
+	    // the first is sent on, the second fails and is left for redelivery
+	    doReturn(new SendMessageBatchResult()
+	            .withSuccessful(new SendMessageBatchResultEntry().withId("0").withMessageId("id"))
+	            .withFailed(new BatchResultErrorEntry().withId("1").withSenderFault(false)))
+	            .when(client).sendMessageBatch(eq("url"), any(List.class));
+	    doReturn(new DeleteMessageBatchResult().withSuccessful(new DeleteMessageBatchResultEntry().withId("0"))
+	            .withFailed(new ArrayList<BatchResultErrorEntry>()))
+	            .when(client).deleteMessageBatch(eq("url"), any(List.class));
+	    
+	    assertFalse(queue.receive(0).isPresent());
+	    
+	    ArgumentCaptor<List> sent = ArgumentCaptor.forClass(List.class);
+	    verify(client).sendMessageBatch(eq("url"), sent.capture());
+	    assertEquals(2, sent.getValue().size());
+	    SendMessageBatchRequestEntry entry = (SendMessageBatchRequestEntry) sent.getValue().get(0);
+	    assertEquals(Integer.valueOf(900), entry.getDelaySeconds());
+	    assertEquals(deliverAt.getStringValue(),
+	            entry.getMessageAttributes().get("awsome.deliverAt").getStringValue());
+	    ArgumentCaptor<List> deleted = ArgumentCaptor.forClass(List.class);
+	    verify(client).deleteMessageBatch(eq("url"), deleted.capture());
+	    assertEquals(1, deleted.getValue().size());
+	    assertEquals("a", ((DeleteMessageBatchRequestEntry) deleted.getValue().get(0)).getReceiptHandle());
+	    verify(client, never()).sendMessage(any(SendMessageRequest.class));
+	    assertEquals(1L, metrics.getCount(MetricNames.SQS_DELAY_HOPS));
+	    assertEquals(1L, metrics.getCount(MetricNames.SQS_SEND_ERRORS));
+	    assertEquals(0L, metrics.getCount(MetricNames.SQS_ACK_ERRORS));
+	}
+	
+	@Test
+	public void testAck() throws Exception {
+	    SQueue<ExampleMessage> queue = new SQueue<>("queue", sqs, ExampleMessage.class);
+	    for (int i = 0; i < 12; i++) {
+	        queue.push(new ExampleMessage(Integer.toString(i)));
+	    }
+	    List<ReceivedMessage<ExampleMessage>> received = new ArrayList<>();
+	    for (int i = 0; i < 12; i++) {
+	        received.add(queue.receive().get());
+	    }
+	    assertEquals("12", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+	    queue.ack(received.get(0));
+	    assertEquals(11, queue.ack(received.subList(1, 12)));
+	    assertEquals("0", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+	    // acknowledged messages are not delivered again
+	    ticker.advance(31, TimeUnit.SECONDS);
+	    assertEquals(0, queue.size());
+	}
+	
+	@Test
+	public void testDeduplication() throws Exception {
+	    SQueue<ExampleMessage> queue = SQueue.builder("queue", sqs, ExampleMessage.class)
+	            .deduplicator(new LruDeduplicator(1000, 10, TimeUnit.MINUTES, ticker)).build();
+	    queue.push(new ExampleMessage("popped"));
+	    assertEquals("popped", queue.pop().get().strValue);
+	    // the redelivery after the visibility timeout is deleted
+	    ticker.advance(31, TimeUnit.SECONDS);
+	    assertFalse(queue.pop().isPresent());
+	    assertEquals("0", attributes().get("ApproximateNumberOfMessages"));
+	    assertEquals("0", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+	
+	    // a received message is only a duplicate once acknowledged
+	    queue.push(new ExampleMessage("received"));
+	    ReceivedMessage<ExampleMessage> first = queue.receive().get();
+	    ticker.advance(31, TimeUnit.SECONDS);
+	    ReceivedMessage<ExampleMessage> second = queue.receive().get();
+	    assertEquals(first.getMessageId(), second.getMessageId());
+	    queue.ack(first);
+	    ticker.advance(31, TimeUnit.SECONDS);
+	    assertFalse(queue.receive().isPresent());
+	}
+	
+	@Test
+	public void testAttributeDeduplication() throws Exception {
+	    SQueue<ExampleMessage> queue = SQueue.builder("queue", sqs, ExampleMessage.class)
+	            .deduplicator(new LruDeduplicator(1000, 10, TimeUnit.MINUTES, ticker), new Function<Message, String>() {
+	                @Override
+	                public String apply(Message message) {
+	                    MessageAttributeValue value = message.getMessageAttributes().get("event");
+	                    return value == null ? null : value.getStringValue();
+	                }
+	            }).build();
+	    // the producer sent the same event twice, as two messages
+	    send("{\"s\":\"first\"}", "1");
+	    send("{\"s\":\"again\"}", "1");
+	    send("{\"s\":\"second\"}", "2");
+	    assertEquals("first", queue.pop().get().strValue);
+	    assertEquals("second", queue.pop().get().strValue);
+	    assertFalse(queue.pop().isPresent());
+	    // the duplicate was deleted, the popped messages are in flight
+	    assertEquals("0", attributes().get("ApproximateNumberOfMessages"));
+	    assertEquals("2", attributes().get("ApproximateNumberOfMessagesNotVisible"));
+	}
+	
+	@Test
+	public void testDelayedDelivery() throws Exception {
+	    InMemoryMetrics metrics = new InMemoryMetrics();
+	    // the wall clock moves with the ticker of the in-memory client, from a time of its own
+	    long started = 1400000000000L;
+	    SQueue<ExampleMessage> queue = SQueue.builder("queue", sqs, ExampleMessage.class).metrics(metrics)
+	            .clock(ticker.clock(started)).build();
+	    queue.pushAfter(new ExampleMessage("soon"), 90, TimeUnit.SECONDS);
+	    queue.pushAt(new ExampleMessage("later"), new Date(started + TimeUnit.HOURS.toMillis(1)));
+	    assertEquals("2", attributes().get("ApproximateNumberOfMessagesDelayed"));
+	    assertFalse(queue.receive(0).isPresent());
+	
+	    ticker.advance(90, TimeUnit.SECONDS);
+	    ReceivedMessage<ExampleMessage> soon = queue.receive(0).get();
+	    assertEquals("soon", soon.getMessage().strValue);
+	    queue.ack(soon);
+	    assertFalse(queue.receive(0).isPresent());
+	
+	    // beyond the SQS limit the message is sent on each time it becomes visible
+	    for (int hop = 1; hop <= 3; hop++) {
+	        ticker.advance(15, TimeUnit.MINUTES);
+	        assertFalse(queue.receive(0).isPresent());
+	        assertEquals(hop, metrics.getCount(MetricNames.SQS_DELAY_HOPS));
+	        assertEquals("1", attributes().get("ApproximateNumberOfMessagesDelayed"));
+	    }
+	    ticker.advance(15, TimeUnit.MINUTES);
+	    ReceivedMessage<ExampleMessage> later = queue.receive(0).get();
+	    assertEquals("later", later.getMessage().strValue);
+	    assertEquals(3L, metrics.getCount(MetricNames.SQS_DELAY_HOPS));
+	    queue.ack(later);
+	    assertEquals(0, remaining());
+	}
+	
+	@Test(expected = IOException.class)
+	public void testInvalidMessage() throws Exception {
+	    doReturn(new ReceiveMessageResult().withMessages(new Message().withBody("{"))).when(client)
+	            .receiveMessage(any(ReceiveMessageRequest.class));
+	    instance.pop();
+	}
+	
+	private void send(String body, String event) {
+	    sqs.sendMessage(new SendMessageRequest(sqsUrl, body).addMessageAttributesEntry("event",
+	            new MessageAttributeValue().withDataType("String").withStringValue(event)));
+	}
+	
+	private int remaining() {
+	    Map<String, String> attributes = attributes();
+	    return Integer.parseInt(attributes.get("ApproximateNumberOfMessages"))
+	            + Integer.parseInt(attributes.get("ApproximateNumberOfMessagesNotVisible"));
+	}
+	
+	private Map<String, String> attributes() {
+	    return sqs.getQueueAttributes(sqsUrl, ImmutableList.of("All")).getAttributes();
+	}
+	
 	@JsonSerialize
 	@SuppressWarnings("unused")
 	private static final class ExampleMessage {
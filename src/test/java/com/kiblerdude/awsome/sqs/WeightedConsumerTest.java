@@ -0,0 +1,145 @@
+package com.kiblerdude.awsome.sqs;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+
+import com.amazonaws.AmazonServiceException;
+import com.amazonaws.services.sqs.AmazonSQSClient;
+import com.amazonaws.services.sqs.model.GetQueueUrlResult;
+import com.amazonaws.services.sqs.model.Message;
+import com.amazonaws.services.sqs.model.ReceiveMessageRequest;
+import com.amazonaws.services.sqs.model.ReceiveMessageResult;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.google.common.collect.ImmutableList;
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.MetricNames;
+
+public class WeightedConsumerTest {
+
+    @Mock
+    private AmazonSQSClient client;
+    private InMemoryMetrics metrics;
+    private WeightedConsumer<ExampleMessage> consumer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(client.getQueueUrl("queue")).thenReturn(new GetQueueUrlResult().withQueueUrl("url"));
+        metrics = new InMemoryMetrics();
+        SQueue<ExampleMessage> queue = new SQueue<>("queue", client, ExampleMessage.class);
+        consumer = WeightedConsumer.builder(new MessageHandler<ExampleMessage>() {
+            @Override
+            public void handle(ExampleMessage message) {
+            }
+        }).queue(queue, 1).metrics(metrics).build();
+    }
+
+    @Test
+    public void testFailedAck() {
+        Message message = new Message().withMessageId("id").withReceiptHandle("handle").withBody("{\"s\":\"test\"}");
+        when(client.receiveMessage(any(ReceiveMessageRequest.class)))
+                .thenReturn(new ReceiveMessageResult().withMessages(message));
+        doThrow(new AmazonServiceException("throttled")).when(client).deleteMessage("url", "handle");
+        // handled, but the failed acknowledgement does not escape the worker
+        assertTrue(consumer.poll());
+        assertEquals(1L, metrics.getCount(MetricNames.SQS_CONSUMER_ERRORS));
+        assertEquals(0L, metrics.getCount(MetricNames.SQS_CONSUMER_HANDLED));
+    }
+
+    @Test
+    public void testLongPollWakes() {
+        SQueue<ExampleMessage> queue = new SQueue<>("queue", client, ExampleMessage.class);
+        WeightedConsumer<ExampleMessage> urgent = WeightedConsumer.builder(new MessageHandler<ExampleMessage>() {
+            @Override
+            public void handle(ExampleMessage message) {
+            }
+        }).queue(queue, 1).idleBackoff(1, TimeUnit.HOURS).ticker(new FakeTicker()).metrics(metrics).build();
+        Message message = new Message().withMessageId("id").withReceiptHandle("handle").withBody("{\"s\":\"test\"}");
+        when(client.receiveMessage(any(ReceiveMessageRequest.class))).thenReturn(new ReceiveMessageResult(),
+                new ReceiveMessageResult().withMessages(message));
+        // found empty, then long polled while idle
+        assertFalse(urgent.poll());
+        assertTrue(urgent.poll());
+        // the long poll found a message, so the queue is polled at once and not long polled again
+        assertTrue(urgent.poll());
+        ArgumentCaptor<ReceiveMessageRequest> requests = ArgumentCaptor.forClass(ReceiveMessageRequest.class);
+        verify(client, times(3)).receiveMessage(requests.capture());
+        assertEquals(Integer.valueOf(0), requests.getAllValues().get(0).getWaitTimeSeconds());
+        assertEquals(Integer.valueOf(1), requests.getAllValues().get(1).getWaitTimeSeconds());
+        assertEquals(Integer.valueOf(0), requests.getAllValues().get(2).getWaitTimeSeconds());
+        assertEquals(2L, metrics.getCount(MetricNames.SQS_CONSUMER_HANDLED));
+    }
+
+    @Test
+    public void testFailedReceive() {
+        when(client.receiveMessage(any(ReceiveMessageRequest.class))).thenThrow(new IllegalStateException("failed"));
+        assertFalse(consumer.poll());
+        assertEquals(1L, metrics.getCount(MetricNames.SQS_CONSUMER_ERRORS));
+    }
+
+    @Test
+    public void testWeights() throws Exception {
+        FakeTicker ticker = new FakeTicker();
+        InMemorySQSClient sqs = InMemorySQSClient.builder().ticker(ticker).build();
+        String urgentUrl = sqs.createQueue("urgent").getQueueUrl();
+        String bulkUrl = sqs.createQueue("bulk").getQueueUrl();
+        SQueue<ExampleMessage> urgent = new SQueue<>("urgent", sqs, ExampleMessage.class);
+        SQueue<ExampleMessage> bulk = new SQueue<>("bulk", sqs, ExampleMessage.class);
+        for (int i = 0; i < 20; i++) {
+            urgent.push(new ExampleMessage("urgent"));
+            bulk.push(new ExampleMessage("bulk"));
+        }
+        final List<String> handled = new ArrayList<>();
+        final AtomicLong calls = new AtomicLong();
+        WeightedConsumer<ExampleMessage> weighted = WeightedConsumer.builder(new MessageHandler<ExampleMessage>() {
+            @Override
+            public void handle(ExampleMessage message) throws Exception {
+                if (calls.incrementAndGet() == 5)
+                    throw new Exception("failed");
+                handled.add(message.strValue);
+            }
+        }).queue(urgent, 3).queue(bulk, 1).metrics(metrics).ticker(ticker).build();
+
+        for (int i = 0; i < 9; i++) {
+            assertTrue(weighted.poll());
+        }
+        assertEquals(ImmutableList.of("urgent", "urgent", "bulk", "urgent", "urgent", "bulk", "urgent", "urgent"),
+                handled);
+        assertEquals(8L, metrics.getCount(MetricNames.SQS_CONSUMER_HANDLED));
+        assertEquals(1L, metrics.getCount(MetricNames.SQS_CONSUMER_ERRORS));
+        // the message that failed is not acknowledged
+        assertEquals(14, remaining(sqs, urgentUrl));
+        assertEquals(18, remaining(sqs, bulkUrl));
+        weighted.close();
+    }
+
+    private static int remaining(InMemorySQSClient sqs, String queueUrl) {
+        Map<String, String> attributes = sqs.getQueueAttributes(queueUrl, ImmutableList.of("All")).getAttributes();
+        return Integer.parseInt(attributes.get("ApproximateNumberOfMessages"))
+                + Integer.parseInt(attributes.get("ApproximateNumberOfMessagesNotVisible"));
+    }
+
+    @JsonSerialize
+    private static final class ExampleMessage {
+        @JsonProperty(value="s")
+        private String strValue;
+        @SuppressWarnings("unused")
+        public ExampleMessage() {}
+        public ExampleMessage(String strValue) {
+            this.strValue = strValue;
+        }
+    }
+}
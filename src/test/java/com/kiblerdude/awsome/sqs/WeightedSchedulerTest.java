@@ -0,0 +1,107 @@
+package com.kiblerdude.awsome.sqs;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kiblerdude.awsome.metrics.InMemoryMetrics;
+import com.kiblerdude.awsome.metrics.MetricNames;
+
+public class WeightedSchedulerTest {
+
+    private static final long STARVATION = TimeUnit.SECONDS.toNanos(5);
+    private static final long IDLE = TimeUnit.SECONDS.toNanos(1);
+
+    private FakeTicker ticker;
+    private InMemoryMetrics metrics;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        metrics = new InMemoryMetrics();
+    }
+
+    @Test
+    public void testWeights() {
+        WeightedScheduler scheduler = new WeightedScheduler(new int[] { 5, 1 }, STARVATION, IDLE, ticker, metrics);
+        // the low weight queue is spread between the others, not left to the end
+        int[] expected = { 0, 0, 0, 1, 0, 0 };
+        for (int round = 0; round < 10; round++) {
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expected[i], scheduler.next());
+            }
+        }
+        assertEquals(0L, metrics.getCount(MetricNames.SQS_CONSUMER_STARVED));
+    }
+
+    @Test
+    public void testIdle() {
+        WeightedScheduler scheduler = new WeightedScheduler(new int[] { 3, 2, 1 }, STARVATION, IDLE, ticker, metrics);
+        scheduler.idle(0);
+        // the share of the idle queue goes to the others
+        int[] counts = new int[3];
+        for (int i = 0; i < 30; i++) {
+            counts[scheduler.next()]++;
+        }
+        assertEquals(0, counts[0]);
+        assertEquals(20, counts[1]);
+        assertEquals(10, counts[2]);
+
+        scheduler.idle(1);
+        scheduler.idle(2);
+        assertEquals(-1, scheduler.next());
+        assertEquals(IDLE, scheduler.nanosUntilReady());
+        assertEquals(0, scheduler.highest());
+
+        ticker.advance(IDLE, TimeUnit.NANOSECONDS);
+        assertEquals(0L, scheduler.nanosUntilReady());
+        assertEquals(0, scheduler.next());
+    }
+
+    @Test
+    public void testReady() throws Exception {
+        final WeightedScheduler scheduler = new WeightedScheduler(new int[] { 2, 1 }, STARVATION,
+                TimeUnit.HOURS.toNanos(1), ticker, metrics);
+        scheduler.idle(0);
+        scheduler.idle(1);
+        assertEquals(-1, scheduler.next());
+        Thread waiting = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    scheduler.awaitReady();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        waiting.start();
+        // the waiting thread is woken long before the hour of backoff
+        scheduler.ready(0);
+        waiting.join(TimeUnit.SECONDS.toMillis(5));
+        assertFalse(waiting.isAlive());
+        assertEquals(0L, scheduler.nanosUntilReady());
+        assertEquals(0, scheduler.next());
+        assertEquals(0, scheduler.next());
+    }
+
+    @Test
+    public void testStarvation() {
+        WeightedScheduler scheduler = new WeightedScheduler(new int[] { 100, 1 }, STARVATION, IDLE, ticker, metrics);
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertEquals(0, scheduler.next());
+        ticker.advance(STARVATION, TimeUnit.NANOSECONDS);
+        // both are due, the one chosen longest ago goes first
+        assertEquals(1, scheduler.next());
+        assertEquals(0, scheduler.next());
+        assertEquals(2L, metrics.getCount(MetricNames.SQS_CONSUMER_STARVED));
+        // once polled, the low weight queue waits for its turn again
+        for (int i = 0; i < 40; i++) {
+            assertEquals(0, scheduler.next());
+        }
+        assertEquals(2L, metrics.getCount(MetricNames.SQS_CONSUMER_STARVED));
+    }
+}